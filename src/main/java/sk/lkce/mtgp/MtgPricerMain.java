@@ -3,6 +3,7 @@ package sk.lkce.mtgp;
 import javax.swing.SwingUtilities;
 import javax.swing.UnsupportedLookAndFeelException;
 
+import sk.lkce.mtgp.cardsearch.PricingEngine;
 import sk.lkce.mtgp.gui.Controller;
 
 /**
@@ -11,19 +12,20 @@ import sk.lkce.mtgp.gui.Controller;
  */
 public class MtgPricerMain {
 
-	public MtgPricerMain() {
+	public MtgPricerMain(PricingEngine engine) {
 		setLookAndFeel();
-		Controller controller = new Controller();
+		Controller controller = new Controller(engine);
 		controller.newPricing();
 	}
 	
 	
 	public static void main(String[] args){
 		
+		final PricingEngine engine = new PricingEngine();
 		SwingUtilities.invokeLater(new Runnable(){
 			@Override
 			public void run(){
-				new MtgPricerMain();
+				new MtgPricerMain(engine);
 			}
 		});
 	}
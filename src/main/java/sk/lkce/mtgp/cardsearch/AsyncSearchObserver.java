@@ -0,0 +1,174 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * A search observer decorator which decouples a slow observer from the search threads.
+ * The events are put to a bounded queue and delivered to the decorated observer in order,
+ * one by one, on a separate dispatch thread.
+ * <br>
+ * When the queue is full, the {@link SearchObserver#cardSearchStarted(Card, CardFinder)} events,
+ * which carry only progress information, are dropped. The search thread waits for a free slot
+ * in the queue for all the other events, so no result is lost.
+ */
+public class AsyncSearchObserver implements SearchObserver {
+
+	/** The default capacity of the event queue. */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	//Shared by all the asynchronous observers and event publishers. Idle threads are discarded after a while.
+	static final ExecutorService DISPATCH_POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "search-observer-dispatch");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final SearchObserver observer;
+	private final BlockingQueue<Runnable> queue;
+	private final AtomicBoolean draining = new AtomicBoolean();
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	/**
+	 * Creates an asynchronous observer with the {@link #DEFAULT_CAPACITY} of the event queue.
+	 * @param observer the decorated observer
+	 */
+	public AsyncSearchObserver(SearchObserver observer){
+		this(observer, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an asynchronous observer.
+	 * @param observer the decorated observer
+	 * @param capacity the capacity of the event queue
+	 */
+	public AsyncSearchObserver(SearchObserver observer, int capacity){
+		this.observer = observer;
+		queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	@Override
+	public void searchStarted(final int numberOfCards) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				observer.searchStarted(numberOfCards);
+			}
+		});
+	}
+
+	@Override
+	public void cardSearchStarted(final Card card, final CardFinder finder) {
+		boolean added = queue.offer(new Runnable() {
+			@Override
+			public void run() {
+				observer.cardSearchStarted(card, finder);
+			}
+		});
+		if (added)
+			scheduleDrain();
+	}
+
+	@Override
+	public void cardSearchFinished(final Card card, final CardResult result, final CardFinder finder) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				observer.cardSearchFinished(card, result, finder);
+			}
+		});
+	}
+
+	@Override
+	public void searchThreadFinished(final CardFinder finder, final CardSearchResultSet results) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				observer.searchThreadFinished(finder, results);
+			}
+		});
+	}
+
+	@Override
+	public void searchThreadFailed(final CardFinder finder, final Throwable t) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				observer.searchThreadFailed(finder, t);
+			}
+		});
+	}
+
+	@Override
+	public void searchingFinished(final boolean interrupted) {
+		enqueue(new Runnable() {
+			@Override
+			public void run() {
+				observer.searchingFinished(interrupted);
+			}
+		});
+	}
+
+	/**
+	 * Puts an event to the queue, waiting for a free slot if necessary.
+	 */
+	private void enqueue(Runnable event){
+		scheduleDrain(); //The queue might be full, make sure someone is emptying it.
+		try {
+			queue.put(event);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		scheduleDrain();
+	}
+
+	/**
+	 * Starts the dispatch of the queued events unless it is already running.
+	 */
+	private void scheduleDrain(){
+		if (!queue.isEmpty() && draining.compareAndSet(false, true))
+			DISPATCH_POOL.execute(drainTask);
+	}
+
+	/**
+	 * Delivers the queued events to the decorated observer. Only one drain runs at a time.
+	 */
+	private void drain(){
+		try {
+			Runnable event;
+			while ((event = queue.poll()) != null){
+				try {
+					event.run();
+				} catch (RuntimeException e) {
+					//A failing observer must not stop the delivery of the other events.
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			draining.set(false);
+		}
+		//An event could have been added after the last poll but before the flag was reset.
+		scheduleDrain();
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + observer + "]";
+	}
+}
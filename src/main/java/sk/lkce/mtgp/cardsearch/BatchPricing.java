@@ -0,0 +1,228 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
+
+/**
+ * A pricing of several decks at once. The cards of all the decks are deduplicated by their
+ * normalized names (see {@link #normalizeName(String)}) and searched for by one search session,
+ * so each card is looked up only once by each card finder, no matter how many decks contain it.
+ * The results are then fanned back out to the decks, see {@link DeckResult}.
+ */
+public class BatchPricing {
+
+	private final SearchExecutor executor;
+	private final List<DeckResult> decks;
+	private final int lineCount;
+	private final CountDownLatch finished = new CountDownLatch(1);
+
+	/**
+	 * Creates a batch pricing of given decks. The search is not started yet.
+	 * @param engine the pricing engine which creates the search session
+	 * @param decks the decks, each is a card - card quantity map
+	 * @param finders the card finders which should look up the prices
+	 * @throws IllegalArgumentException if there are no card finders
+	 */
+	public BatchPricing(PricingEngine engine, List<Map<Card, Integer>> decks, Collection<CardFinder> finders){
+		if (finders.isEmpty())
+			throw new IllegalArgumentException("No card finders for the batch pricing");
+		//The first spelling of a card name is used for all the decks.
+		Map<String, Card> unique = new LinkedHashMap<>();
+		List<DeckResult> results = new ArrayList<>(decks.size());
+		int lines = 0;
+		for (Map<Card, Integer> deck : decks){
+			Map<Card, Integer> cards = new LinkedHashMap<>();
+			for (Map.Entry<Card, Integer> e : deck.entrySet()){
+				String key = normalizeName(e.getKey().getName());
+				Card card = unique.get(key);
+				if (card == null){
+					card = new Card(e.getKey().getName().trim().replaceAll("\\s+", " "));
+					unique.put(key, card);
+				}
+				Integer q = cards.get(card);
+				cards.put(card, (q == null) ? e.getValue() : q + e.getValue());
+				lines++;
+			}
+			results.add(new DeckResult(Collections.unmodifiableMap(cards)));
+		}
+		this.decks = Collections.unmodifiableList(results);
+		lineCount = lines;
+		executor = engine.newSession(new ArrayList<>(unique.values()), finders);
+		executor.addSearchObserver(new SearchObserverAdapter() {
+			@Override
+			public void searchingFinished(boolean interrupted) {
+				finished.countDown();
+			}
+		}, null, EnumSet.of(SearchEventType.SEARCHING_FINISHED));
+	}
+
+	/**
+	 * Returns the name of a card in the form used to recognize the same card in different decks.
+	 * The leading and trailing white space is removed, the inner white space is collapsed to a single space
+	 * and the name is lower case.
+	 * @param name the card name
+	 * @return the normalized name
+	 */
+	public static String normalizeName(String name){
+		return name.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Returns the search session which searches for the unique cards of all the decks. Can be used
+	 * to register the observers or to change the search order before the batch is started.
+	 * @return the search executor
+	 */
+	public SearchExecutor getSearchExecutor(){
+		return executor;
+	}
+
+	/**
+	 * Starts the search of the unique cards.
+	 * @throws IllegalStateException if the search was already started
+	 */
+	public void start(){
+		executor.startSearch();
+	}
+
+	/**
+	 * Waits until the search is finished or stopped.
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public void awaitFinished() throws InterruptedException {
+		finished.await();
+	}
+
+	/**
+	 * Returns the results of the decks in the order in which they were given.
+	 * @return an unmodifiable list of the deck results
+	 */
+	public List<DeckResult> getDecks(){
+		return decks;
+	}
+
+	/**
+	 * Returns the number of the unique cards searched for.
+	 * @return the unique card count
+	 */
+	public int getUniqueCardCount(){
+		return executor.getResultMatrix().getCardCount();
+	}
+
+	/**
+	 * Returns the number of the card lines of all the decks, i.e. the number of the cards
+	 * which would be searched for if the decks were priced one by one.
+	 * @return the line count
+	 */
+	public int getLineCount(){
+		return lineCount;
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ decks: " + decks.size() + ", lines: " + lineCount
+				+ ", unique cards: " + getUniqueCardCount() + "]";
+	}
+
+	/**
+	 * The results of one deck of the batch. It is a view of the results of the batch search,
+	 * so the intermediate results can be read while the search goes on.
+	 */
+	public class DeckResult {
+
+		private final Map<Card, Integer> cards;
+
+		DeckResult(Map<Card, Integer> cards){
+			this.cards = cards;
+		}
+
+		/**
+		 * Returns the cards of the deck with the names used by the search. The cards which
+		 * were listed several times under different spellings are merged.
+		 * @return an unmodifiable card - card quantity map in the order of the deck
+		 */
+		public Map<Card, Integer> getCards(){
+			return cards;
+		}
+
+		/**
+		 * Returns the result of a card of this deck.
+		 * @param card the card
+		 * @param finder the card finder
+		 * @return the card result, {@link CardResult#NULL_CARD_RESULT} if the card was not found
+		 * or <code>null</code> if it was not searched for (yet)
+		 */
+		public CardResult getCardResult(Card card, CardFinder finder){
+			return executor.getResultsStorage(finder).getCardResult(card);
+		}
+
+		/**
+		 * Returns a snapshot of the results of the cards of this deck.
+		 * @param finder the card finder
+		 * @return the card - card result map of the cards which were searched for already
+		 */
+		public Map<Card, CardResult> getCardResults(CardFinder finder){
+			CardSearchResultSet resultSet = executor.getResultsStorage(finder);
+			Map<Card, CardResult> snapshot = new LinkedHashMap<>();
+			for (Card card : cards.keySet()){
+				CardResult result = resultSet.getCardResult(card);
+				if (result != null)
+					snapshot.put(card, result);
+			}
+			return snapshot;
+		}
+
+		/**
+		 * Returns the total price of the found cards of this deck, the quantities included.
+		 * @param finder the card finder
+		 * @return the total price in the display currency of the search
+		 */
+		public Money getTotal(CardFinder finder){
+			long total = 0;
+			for (Map.Entry<Card, CardResult> e : getCardResults(finder).entrySet())
+				if (e.getValue() != CardResult.NULL_CARD_RESULT)
+					total += e.getValue().getNormalizedPrice().getMinorUnits() * cards.get(e.getKey());
+			return new Money(total, executor.getCurrencyConverter().getDisplayCurrency());
+		}
+
+		/**
+		 * Returns the total prices of this deck for all the card finders of the batch.
+		 * @return the card finder - total price map
+		 */
+		public Map<CardFinder, Money> getTotals(){
+			Map<CardFinder, Money> totals = new HashMap<>();
+			for (CardFinder finder : executor.getCardFinders())
+				totals.put(finder, getTotal(finder));
+			return totals;
+		}
+
+		/**
+		 * Returns the number of the cards of this deck which were not found.
+		 * @param finder the card finder
+		 * @return the not found count
+		 */
+		public int getNotFoundCount(CardFinder finder){
+			int count = 0;
+			for (CardResult result : getCardResults(finder).values())
+				if (result == CardResult.NULL_CARD_RESULT)
+					count++;
+			return count;
+		}
+
+		@Override
+		public String toString(){
+			return getClass().getSimpleName() + "[ cards: " + cards.size() + "]";
+		}
+	}
+}
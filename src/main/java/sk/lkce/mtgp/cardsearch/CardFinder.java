@@ -13,6 +13,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
 
 /**
  * An abstract class which provides base for implementation of specific ways how to scrap
@@ -24,6 +25,8 @@ import sk.lkce.mtgp.domain.CardResult;
  */
 public abstract class CardFinder {
 	
+	private static final Pattern NUMBER_PATTERN = Pattern.compile("[\\d.,]+");
+	
 	/**
 	 * Retrieves the list of cards that match the card name.
 	 * @param cardName Name of the card to be found.
@@ -97,7 +100,7 @@ public abstract class CardFinder {
 		CardResult cheapest = foundCards.get(0);
 		
 		for (CardResult c : foundCards)
-			if (cheapest.getPrice() > c.getPrice())
+			if (cheapest.getPrice().compareTo(c.getPrice()) > 0)
 				cheapest = c;
 		
 		return cheapest;
@@ -121,7 +124,8 @@ public abstract class CardFinder {
 	
 	@Override
 	public int hashCode(){
-		return (getName() + getURL()).hashCode();
+		//Combine the cached string hashes instead of hashing a concatenated string.
+		return 31 * getName().hashCode() + getURL().hashCode();
 	}
 	
 	/**
@@ -156,17 +160,32 @@ public abstract class CardFinder {
 	 * @return found number
 	 */
 	static double getDoubleFromString(String text, int position){
-		
-		String regex = "[\\d.,]+";
-		Pattern p = Pattern.compile(regex);
-		Matcher m = p.matcher(text);
+		return Double.parseDouble(getNumberFromString(text, position));
+	}
+	
+	/**
+	 * Returns the price at the given position of the numbers in a string. 
+	 * The number is parsed exactly into the minor units of the currency.
+	 * If not found, an exception is thrown.
+	 * @param text String containing the price
+	 * @param position the position of the number among all numbers in the string (starting with 1)
+	 * @param currency the currency of the price
+	 * @return found price
+	 */
+	static Money getPriceFromString(String text, int position, Currency currency){
+		return Money.parse(getNumberFromString(text, position), currency);
+	}
+	
+	/**
+	 * Returns the number at the given position of the numbers in a string with
+	 * the decimal comma replaced by the decimal point.
+	 */
+	private static String getNumberFromString(String text, int position){
+		Matcher m = NUMBER_PATTERN.matcher(text);
 		
 		for (int i =0; i < position;i++)
 			m.find();
-		String no = m.group().replace(",",".");
-		
-		return Double.parseDouble(no);
-		
+		return m.group().replace(",",".");
 	}
 	
 	/**
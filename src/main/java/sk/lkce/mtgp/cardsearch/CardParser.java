@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.text.ParseException;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -29,9 +30,35 @@ public class CardParser {
 	 */
 	public static Map<Card,Integer> parseFromFile(File file) throws IOException, ParseException{
 		
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))){
+			return parse(reader, file.getAbsolutePath());
+		}
+	}
+	
+	/**
+	 * Parses a string to card - card quantity map. The string has the same format as the files
+	 * read by {@link #parseFromFile(File)}, one card per line.
+	 * @param text the text which can be parsed into card set
+	 * @return parsed card - card quantity map
+	 */
+	public static Map<Card,Integer> parseFromString(String text) throws ParseException{
+		
+		try {
+			return parse(new BufferedReader(new StringReader(text)), "the text");
+		} catch (IOException e) {
+			throw new AssertionError(e); //Reading a string does not fail.
+		}
+	}
+	
+	/**
+	 * Parses the lines of a reader to card - card quantity map.
+	 * @param reader the reader
+	 * @param source the description of the source of the lines for the error messages
+	 * @return parsed card - card quantity map
+	 */
+	private static Map<Card,Integer> parse(BufferedReader reader, String source) throws IOException, ParseException{
+		
 		Map<Card,Integer> cards = new LinkedHashMap<Card,Integer>();
-		BufferedReader reader = null;
-		reader = new BufferedReader(new FileReader(file));
 	
 		int lineCounter=0;
 		String line;
@@ -49,8 +76,7 @@ public class CardParser {
 			
 			if (name == null){
 				//No name matching regexp was found int line.
-				reader.close();
-				throw new ParseException("Failed to parse " + file.getAbsolutePath() + 
+				throw new ParseException("Failed to parse " + source + 
 									" on the line " + lineCounter +
 									"'.\nThe line has to contain expressions matching '"+
 									REG_EXP_NAME + "' (name of the card).",0);
@@ -59,7 +85,6 @@ public class CardParser {
 			Card c = new Card(name);
 			cards.put(c, q);
 		}
-		reader.close();
 		
 		return cards;
 	}
@@ -2,35 +2,41 @@ package sk.lkce.mtgp.cardsearch;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import sk.lkce.mtgp.domain.Card;
 import sk.lkce.mtgp.domain.CardResult;
 
 /**
  * A container of search results for a given card finder. Has read-only public interface.
- * Updating and reading from card result set is synchronised and 
- * intermediate results can be read from it while new results are being added.
+ * It is a view of the card finder's column in the {@link ResultMatrix} of the search, so
+ * the results are written and read lock-free and intermediate results can be read from
+ * it while new results are being added. The collections returned by this class are
+ * immutable snapshots which can be safely iterated while the search goes on.
  */
 public class CardSearchResultSet {
-	
-	private long searchTime;
-	private final List<Card> notFound = new ArrayList<>();
-	private final List<Card> notFoundRO = Collections.unmodifiableList(notFound);
+
+	private volatile long searchTime;
 	private final CardFinder finder;
-	private final Map<Card, CardResult> results;
-	private final Map<Card, CardResult> resultsView;
+	private final ResultMatrix matrix;
+	private final int finderId;
+	private final AtomicInteger resultCount = new AtomicInteger();
+	private final AtomicInteger notFoundCount = new AtomicInteger();
 
 	/**
 	 * Creates a new card search result set for a given card finder.
-	 * @param finder
+	 * @param finder the card finder
+	 * @param matrix the result matrix of the search which contains the card finder
 	 */
-	public CardSearchResultSet(CardFinder finder){
-		this.finder = finder;  
-		results = new HashMap<>();
-		resultsView = Collections.unmodifiableMap(results);
+	CardSearchResultSet(CardFinder finder, ResultMatrix matrix){
+		this.finder = finder;
+		this.matrix = matrix;
+		finderId = matrix.getFinderId(finder);
+		if (finderId < 0)
+			throw new IllegalArgumentException("No such finder in the result matrix: " + finder);
 	}
 
 	/**
@@ -38,20 +44,28 @@ public class CardSearchResultSet {
 	 * corresponding card <code>null</code> is returned. If the
 	 * search for a given card was attempted but with no result,
 	 * {@link CardResult#NULL_CARD_RESULT} is returned.
-	 * 
+	 *
 	 * @param card the card for which results should be retrieved
 	 * @return the card result or <code>null</code>
 	 */
-	public synchronized CardResult getCardResult(Card card){
-		return results.get(card);
+	public CardResult getCardResult(Card card){
+		int cardId = matrix.getCardId(card);
+		return (cardId < 0) ? null : matrix.get(cardId, finderId);
 	}
-	
+
 	/**
-	 * Returns unmodifiable  card - card result map.
+	 * Returns a snapshot of the card - card result map. The snapshot is immutable and
+	 * contains the results available at the time of the call in the order of the cards in the search.
 	 * @return card - result map
 	 */
-	public synchronized Map<Card,CardResult> getCardResults(){
-		return resultsView;
+	public Map<Card,CardResult> getCardResults(){
+		Map<Card, CardResult> snapshot = new LinkedHashMap<>();
+		for (int cardId = 0; cardId < matrix.getCardCount(); cardId++){
+			CardResult result = matrix.get(cardId, finderId);
+			if (result != null)
+				snapshot.put(matrix.getCard(cardId), result);
+		}
+		return Collections.unmodifiableMap(snapshot);
 	}
 
 	/**
@@ -62,50 +76,72 @@ public class CardSearchResultSet {
 		return finder;
 	}
 
-	
+
 	/**
-	 * Returns the cards which were not found in the search.
+	 * Returns a snapshot of the cards which were not found in the search.
 	 * A card is considered not found if an attempt to find it returned no result.
-	 * @return list of cards which were not found
+	 * @return immutable list of cards which were not found
+	 */
+	public List<Card> getNotFoundCards(){
+		List<Card> snapshot = new ArrayList<>();
+		for (int cardId = 0; cardId < matrix.getCardCount(); cardId++)
+			if (matrix.get(cardId, finderId) == CardResult.NULL_CARD_RESULT)
+				snapshot.add(matrix.getCard(cardId));
+		return Collections.unmodifiableList(snapshot);
+	}
+
+	/**
+	 * Returns the number of the cards which have been searched for so far,
+	 * including the cards which were not found.
+	 * @return the number of the searched cards
+	 */
+	public int getResultCount(){
+		return resultCount.get();
+	}
+
+	/**
+	 * Returns the number of the cards which were not found so far.
+	 * @return the number of the cards which were not found
 	 */
-	public synchronized List<Card> getNotFoundCards(){
-		return notFoundRO;
+	public int getNotFoundCount(){
+		return notFoundCount.get();
 	}
-	
+
 	/**
 	 * Returns the time of the whole search took in milliseconds.
 	 * @return the time of the search in milliseconds
 	 */
-	public synchronized long getSearchTime(){
+	public long getSearchTime(){
 		return searchTime;
 	}
-	
+
 	/**
 	 * Adds card result for a given card to this card search result set.
-	 * @param card the card
+	 * @param cardId the id of the card in the result matrix
 	 * @param result the card result
 	 */
-	synchronized void addCardResult(Card card, CardResult result){
-		results.put(card, result);
+	void addCardResult(int cardId, CardResult result){
+		matrix.set(cardId, finderId, result);
+		resultCount.incrementAndGet();
 	}
-	
+
 	/**
 	 * Adds a card to the list of cards which were not found.
-	 * @param card the card which was not found
+	 * @param cardId the id of the card in the result matrix which was not found
 	 */
-	synchronized void addNotFound(Card card) {
-		notFound.add(card);
-		results.put(card, CardResult.NULL_CARD_RESULT);
+	void addNotFound(int cardId) {
+		notFoundCount.incrementAndGet();
+		addCardResult(cardId, CardResult.NULL_CARD_RESULT);
 	}
-	
+
 	/**
 	 * Sets the time of the whole search  in milliseconds.
 	 * @param time time of the search
 	 */
-	synchronized void setSearchTime(long time) {
+	void setSearchTime(long time) {
 		searchTime = time;
 	}
-	
-	
-	
+
+
+
 }
@@ -100,7 +100,7 @@ class CernyRytirCardFinder extends CardFinder{
 				price = resultRows.get(i).select("td:eq(2)").text();
 				//Add card
 				foundCards.add(new CardResult(name,type, edition, 
-						getDoubleFromString(price,1), CURRENCY));
+						getPriceFromString(price,1,CURRENCY)));
 			}
 		}
 		
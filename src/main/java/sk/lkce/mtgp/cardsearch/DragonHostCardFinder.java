@@ -117,7 +117,7 @@ class DragonHostCardFinder extends CardFinder {
 			name = card.select("h2.product-name a").text();
 			price = card.select("span.price").text();
 			foundCards.add(new CardResult(name,type, edition, 
-					getDoubleFromString(price,1), CURRENCY));
+						getPriceFromString(price,1,CURRENCY)));
 			
 		}
 		
@@ -0,0 +1,514 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * The economy mode of the searches: for each card only the card finders with a meaningful chance
+ * of having the best price are asked, based on the history of the previous searches.
+ * <br>
+ * Each time all the card finders of a search have a result for a card, the card finders whose price
+ * is within the {@link #getTolerance() tolerance} of the lowest price are counted as winners of the card.
+ * A card finder which does not have the card does not win. The chance of a card finder to win a card
+ * is estimated from its wins of the card, smoothed by its overall win rate, so a card with a short
+ * history is not decided by a single search. The card finders whose chance is below the
+ * {@link #getThreshold() threshold} are not asked for the card, the most likely winner is always asked.
+ * The cards with less than {@link #MIN_COMPARISONS} comparisons are searched by all the card finders.
+ * The counts are halved after {@link #MAX_COMPARISONS} comparisons, so the recent searches weigh more
+ * and a card finder which becomes cheap is noticed.
+ * <br>
+ * A share of the cards ({@link #getExplorationRate()}) is searched by all the card finders anyway.
+ * These explored cards keep the history current and they also measure the quality of the selection:
+ * the selection which would have been made is compared with the real lowest price,
+ * see {@link #getBestFoundRate()} and {@link #getOverspend()}. The selector is thread safe.
+ */
+public class FinderSelector {
+
+	/** The name of the file with the history in the application directory. */
+	public static final String FILE_NAME = "economy.dat";
+
+	/** The default minimal estimated chance of a card finder to have the best price of a card. */
+	public static final double DEFAULT_THRESHOLD = 0.05;
+
+	/** The default share of the cards which are searched by all the card finders. */
+	public static final double DEFAULT_EXPLORATION_RATE = 0.1;
+
+	/** The default tolerance of the best price in thousandths (2 %). */
+	public static final int DEFAULT_TOLERANCE = 20;
+
+	/** The number of the comparisons of a card needed before some card finders are not asked for it. */
+	public static final int MIN_COMPARISONS = 3;
+
+	/** The number of the comparisons of a card after which its counts are halved. */
+	public static final int MAX_COMPARISONS = 32;
+
+	private static final int MAX_OVERALL_COMPARISONS = 1 << 16;
+	private static final double PRIOR_WEIGHT = 1;
+	private static final int MAGIC = 0x45434f4e; //"ECON"
+	private static final int VERSION = 1;
+
+	private final List<String> finderNames = new ArrayList<>();	//Slot -> finder name
+	private final Map<String, Wins> cards = new HashMap<>();	//Normalized name -> wins
+	private final Wins overall = new Wins();
+	private boolean enabled;
+	private double threshold = DEFAULT_THRESHOLD;
+	private double explorationRate = DEFAULT_EXPLORATION_RATE;
+	private int tolerance = DEFAULT_TOLERANCE;
+	private boolean modified;
+	private long lookups;
+	private long savedLookups;
+	private long exploredCards;
+	private long evaluatedCards;
+	private long bestFoundCards;
+	private long lostCards;
+	private final PriceSketch overspend = new PriceSketch();
+
+	/**
+	 * Loads the history of the selector from a file. The loaded selector is disabled.
+	 * @param file the history file
+	 * @return the selector or a selector without any history if the file does not exist
+	 * @throws IOException if the file cannot be read or it is not a history file
+	 */
+	public static FinderSelector load(File file) throws IOException {
+		FinderSelector selector = new FinderSelector();
+		if (!file.isFile())
+			return selector;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a finder history file: " + file);
+			int finderCount = in.readInt();
+			for (int i = 0; i < finderCount; i++)
+				selector.finderNames.add(in.readUTF());
+			selector.overall.read(in, finderCount);
+			int cardCount = in.readInt();
+			for (int i = 0; i < cardCount; i++){
+				String name = in.readUTF();
+				Wins wins = new Wins();
+				wins.read(in, finderCount);
+				selector.cards.put(name, wins);
+			}
+		}
+		return selector;
+	}
+
+	/**
+	 * Writes the history of the selector to a file. The file is replaced atomically, so it is never left half written.
+	 * @param file the history file
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save(File file) throws IOException {
+		File tmp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))){
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(finderNames.size());
+			for (String name : finderNames)
+				out.writeUTF(name);
+			overall.write(out, finderNames.size());
+			out.writeInt(cards.size());
+			for (Map.Entry<String, Wins> e : cards.entrySet()){
+				out.writeUTF(e.getKey());
+				e.getValue().write(out, finderNames.size());
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		modified = false;
+	}
+
+	/**
+	 * Returns whether the history has changed since it was loaded or saved.
+	 * @return <code>true</code> if the history should be saved
+	 */
+	public synchronized boolean isModified(){
+		return modified;
+	}
+
+	/**
+	 * Plans which card finders search for which cards of a search. If the economy mode is disabled,
+	 * all the card finders search for all the cards and the plan only records the history.
+	 * Only the empty cells of the result matrix are planned, so it should be invoked when the search starts,
+	 * after the results were reused.
+	 * @param matrix the result matrix of the search
+	 * @return the plan of the search
+	 */
+	synchronized Plan plan(ResultMatrix matrix){
+		int finderCount = matrix.getFinderCount();
+		int[] slots = new int[finderCount];
+		for (int f = 0; f < finderCount; f++)
+			slots[f] = slotOf(matrix.getFinder(f).getName());
+		Plan plan = new Plan(matrix);
+		for (int cardId = 0; cardId < matrix.getCardCount(); cardId++){
+			int open = 0;
+			for (int f = 0; f < finderCount; f++)
+				if (matrix.get(cardId, f) == null)
+					open++;
+			if (open == 0)
+				continue;
+			boolean[] selection = null;
+			if (enabled){
+				lookups += open;
+				selection = select(cards.get(BatchPricing.normalizeName(matrix.getCard(cardId).getName())), slots);
+			}
+			if (selection == null || ThreadLocalRandom.current().nextDouble() < explorationRate){
+				//All the card finders search for the card, so it can be compared.
+				plan.selections[cardId] = selection;
+				plan.pending.set(cardId, open);
+				if (selection != null)
+					exploredCards++;
+				continue;
+			}
+			for (int f = 0; f < finderCount; f++){
+				if (matrix.get(cardId, f) != null)
+					continue;
+				if (selection[f])
+					plan.pending.incrementAndGet(cardId);
+				else{
+					plan.skipped[cardId * finderCount + f] = true;
+					savedLookups++;
+				}
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Selects the card finders with a meaningful chance of the best price of a card.
+	 * @return the selection indexed by the finder ids or <code>null</code> if the card does not have enough history
+	 */
+	private boolean[] select(Wins wins, int[] slots){
+		if (wins == null || wins.compared < MIN_COMPARISONS || slots.length < 2)
+			return null;
+		boolean[] selection = new boolean[slots.length];
+		int likeliest = 0;
+		double best = -1;
+		for (int f = 0; f < slots.length; f++){
+			double prior = (overall.get(slots[f]) + 1.0) / (overall.compared + 2.0);
+			double chance = (wins.get(slots[f]) + PRIOR_WEIGHT * prior) / (wins.compared + PRIOR_WEIGHT);
+			selection[f] = chance >= threshold;
+			if (chance > best){
+				best = chance;
+				likeliest = f;
+			}
+		}
+		selection[likeliest] = true;
+		return selection;
+	}
+
+	/**
+	 * Records the results of a card which all the card finders of a search have. The card finders
+	 * with the best price win the card. If the card had enough history, the selection which would
+	 * have been made is evaluated.
+	 */
+	private void compare(ResultMatrix matrix, int cardId, boolean[] selection){
+		int finderCount = matrix.getFinderCount();
+		long[] prices = new long[finderCount];
+		long cheapest = Long.MAX_VALUE;
+		long cheapestSelected = Long.MAX_VALUE;
+		for (int f = 0; f < finderCount; f++){
+			CardResult result = matrix.get(cardId, f);
+			if (result == null || result == CardResult.NULL_CARD_RESULT){
+				prices[f] = -1;
+				continue;
+			}
+			prices[f] = result.getNormalizedPrice().getMinorUnits();
+			cheapest = Math.min(cheapest, prices[f]);
+			if (selection != null && selection[f])
+				cheapestSelected = Math.min(cheapestSelected, prices[f]);
+		}
+		if (cheapest == Long.MAX_VALUE || cheapest <= 0)
+			return; //Not found at all, there is nothing to compare.
+
+		synchronized (this) {
+			String key = BatchPricing.normalizeName(matrix.getCard(cardId).getName());
+			Wins wins = cards.get(key);
+			if (wins == null){
+				wins = new Wins();
+				cards.put(key, wins);
+			}
+			for (int f = 0; f < finderCount; f++)
+				if (prices[f] >= 0 && prices[f] * 1000 <= cheapest * (1000 + tolerance)){
+					int slot = slotOf(matrix.getFinder(f).getName());
+					wins.add(slot);
+					overall.add(slot);
+				}
+			wins.compared(MAX_COMPARISONS);
+			overall.compared(MAX_OVERALL_COMPARISONS);
+			modified = true;
+
+			if (selection == null)
+				return;
+			evaluatedCards++;
+			if (cheapestSelected == Long.MAX_VALUE){
+				lostCards++;
+				return;
+			}
+			long premium = (cheapestSelected * 1000 + cheapest / 2) / cheapest - 1000;
+			overspend.add(premium);
+			if (premium <= tolerance)
+				bestFoundCards++;
+		}
+	}
+
+	private int slotOf(String finderName){
+		int slot = finderNames.indexOf(finderName);
+		if (slot < 0){
+			slot = finderNames.size();
+			finderNames.add(finderName);
+		}
+		return slot;
+	}
+
+	/**
+	 * Returns whether the new searches are in the economy mode.
+	 * @return <code>true</code> if the card finders are selected for each card
+	 */
+	public synchronized boolean isEnabled(){
+		return enabled;
+	}
+
+	/**
+	 * Sets whether the new searches are in the economy mode. The history is recorded in both modes.
+	 * @param enabled <code>true</code> to select the card finders for each card
+	 */
+	public synchronized void setEnabled(boolean enabled){
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Returns the minimal estimated chance of a card finder to have the best price of a card
+	 * for which it is asked.
+	 * @return the threshold from 0 to 1
+	 */
+	public synchronized double getThreshold(){
+		return threshold;
+	}
+
+	/**
+	 * Sets the minimal estimated chance of a card finder to have the best price of a card
+	 * for which it is asked. The lower the threshold, the more card finders are asked.
+	 * @param threshold the threshold from 0 (all the card finders) to 1 (only the most likely one)
+	 */
+	public synchronized void setThreshold(double threshold){
+		if (!(threshold >= 0 && threshold <= 1))
+			throw new IllegalArgumentException("The threshold must be from 0 to 1: " + threshold);
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns the share of the cards which are searched by all the card finders.
+	 * @return the exploration rate from 0 to 1
+	 */
+	public synchronized double getExplorationRate(){
+		return explorationRate;
+	}
+
+	/**
+	 * Sets the share of the cards which are searched by all the card finders. Without the exploration
+	 * the history of a card stops changing and the quality of the selection is not measured.
+	 * @param rate the exploration rate from 0 to 1
+	 */
+	public synchronized void setExplorationRate(double rate){
+		if (!(rate >= 0 && rate <= 1))
+			throw new IllegalArgumentException("The exploration rate must be from 0 to 1: " + rate);
+		explorationRate = rate;
+	}
+
+	/**
+	 * Returns how much more than the lowest price is still considered the best price.
+	 * @return the tolerance in thousandths
+	 */
+	public synchronized int getTolerance(){
+		return tolerance;
+	}
+
+	/**
+	 * Sets how much more than the lowest price is still considered the best price, e.g. 20 means
+	 * the prices at most 2 % above the lowest one.
+	 * @param tolerance the tolerance in thousandths
+	 */
+	public synchronized void setTolerance(int tolerance){
+		if (tolerance < 0)
+			throw new IllegalArgumentException("The tolerance cannot be negative: " + tolerance);
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Returns the number of the card lookups planned by the searches in the economy mode,
+	 * including the saved ones.
+	 * @return the number of the lookups
+	 */
+	public synchronized long getLookupCount(){
+		return lookups;
+	}
+
+	/**
+	 * Returns the number of the card lookups which were not made because the card finder
+	 * was not selected for the card.
+	 * @return the number of the saved lookups
+	 */
+	public synchronized long getSavedLookupCount(){
+		return savedLookups;
+	}
+
+	/**
+	 * Returns the number of the cards with enough history which were searched by all the card finders anyway.
+	 * @return the number of the explored cards
+	 */
+	public synchronized long getExploredCardCount(){
+		return exploredCards;
+	}
+
+	/**
+	 * Returns the number of the explored cards for which the selection was evaluated, i.e. all the card finders
+	 * searched for the card and at least one found it.
+	 * @return the number of the evaluated cards
+	 */
+	public synchronized long getEvaluatedCardCount(){
+		return evaluatedCards;
+	}
+
+	/**
+	 * Returns the share of the evaluated cards for which the selected card finders had the best price
+	 * (within the tolerance).
+	 * @return the rate from 0 to 1 or <code>NaN</code> if no card was evaluated
+	 */
+	public synchronized double getBestFoundRate(){
+		return (evaluatedCards == 0) ? Double.NaN : (double) bestFoundCards / evaluatedCards;
+	}
+
+	/**
+	 * Returns the number of the evaluated cards which none of the selected card finders found
+	 * although another card finder did.
+	 * @return the number of the lost cards
+	 */
+	public synchronized long getLostCardCount(){
+		return lostCards;
+	}
+
+	/**
+	 * Returns how much more the selected card finders asked for the evaluated cards than the lowest price.
+	 * The lost cards are not included.
+	 * @return the sketch of the overspend in thousandths of the lowest price
+	 */
+	public PriceSketch getOverspend(){
+		return overspend;
+	}
+
+	/**
+	 * Returns the number of the cards with a history.
+	 * @return the number of the cards
+	 */
+	public synchronized int getCardCount(){
+		return cards.size();
+	}
+
+	@Override
+	public synchronized String toString(){
+		return getClass().getSimpleName() + "[ " + (enabled ? "enabled" : "disabled") + ", cards: " + cards.size()
+				+ ", saved: " + savedLookups + "/" + lookups + ", evaluated: " + evaluatedCards
+				+ ", best found: " + bestFoundCards + ", lost: " + lostCards + "]";
+	}
+
+	/**
+	 * Which card finders search for which cards of one search. Its lookups are reported by the search
+	 * and when all the card finders of an explored card have a result, the card is compared.
+	 */
+	final class Plan {
+
+		private final ResultMatrix matrix;
+		private final boolean[] skipped;	//Indexed by card id * finder count + finder id
+		private final boolean[][] selections;	//Card id -> the selection which would have been made for an explored card
+		private final AtomicIntegerArray pending;	//Card id -> the number of the lookups of an explored card left
+
+		private Plan(ResultMatrix matrix){
+			this.matrix = matrix;
+			skipped = new boolean[matrix.getCardCount() * matrix.getFinderCount()];
+			selections = new boolean[matrix.getCardCount()][];
+			pending = new AtomicIntegerArray(matrix.getCardCount());
+		}
+
+		/**
+		 * Returns whether a card finder does not search for a card.
+		 * @param cardId the id of the card
+		 * @param finderId the id of the card finder
+		 * @return <code>true</code> if the card finder was not selected for the card
+		 */
+		boolean isSkipped(int cardId, int finderId){
+			return skipped[cardId * matrix.getFinderCount() + finderId];
+		}
+
+		/**
+		 * Reports a finished lookup of a card, after its result was stored in the result matrix.
+		 * @param cardId the id of the card
+		 */
+		void lookupDone(int cardId){
+			if (pending.get(cardId) > 0 && pending.decrementAndGet(cardId) == 0 && isComplete(cardId))
+				compare(matrix, cardId, selections[cardId]);
+		}
+
+		private boolean isComplete(int cardId){
+			int finderCount = matrix.getFinderCount();
+			for (int f = 0; f < finderCount; f++)
+				if (skipped[cardId * finderCount + f])
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * The numbers of the wins of the card finders (by their slots) in a number of comparisons.
+	 */
+	private static class Wins {
+
+		int compared;
+		int[] wins = new int[0];
+
+		int get(int slot){
+			return (slot < wins.length) ? wins[slot] : 0;
+		}
+
+		void add(int slot){
+			if (slot >= wins.length)
+				wins = Arrays.copyOf(wins, slot + 1);
+			wins[slot]++;
+		}
+
+		void compared(int max){
+			if (++compared <= max)
+				return;
+			compared /= 2;
+			for (int i = 0; i < wins.length; i++)
+				wins[i] /= 2;
+		}
+
+		void read(DataInputStream in, int finderCount) throws IOException {
+			compared = in.readInt();
+			wins = new int[finderCount];
+			for (int i = 0; i < finderCount; i++)
+				wins[i] = in.readInt();
+		}
+
+		void write(DataOutputStream out, int finderCount) throws IOException {
+			out.writeInt(compared);
+			for (int i = 0; i < finderCount; i++)
+				out.writeInt(get(i));
+		}
+	}
+}
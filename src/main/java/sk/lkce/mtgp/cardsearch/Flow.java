@@ -0,0 +1,84 @@
+package sk.lkce.mtgp.cardsearch;
+
+/**
+ * Interrelated interfaces for establishing flow-controlled components in which
+ * {@link Publisher Publishers} produce items consumed by one or more {@link Subscriber Subscribers},
+ * each managed by a {@link Subscription Subscription}.
+ * <br>
+ * The interfaces have the same methods and contract as <code>java.util.concurrent.Flow</code>
+ * (Reactive Streams) which is not available on the Java version this application targets.
+ * Adapting an implementation to the JDK interfaces is therefore straightforward.
+ * @see SearchEventPublisher
+ */
+public final class Flow {
+
+	private Flow(){}
+
+	/**
+	 * A producer of items (and related control messages) received by Subscribers.
+	 * @param <T> the published item type
+	 */
+	public static interface Publisher<T> {
+
+		/**
+		 * Adds the given Subscriber if possible. If already subscribed, or the attempt to subscribe fails,
+		 * the Subscriber's {@link Subscriber#onError(Throwable)} method is invoked.
+		 * Otherwise, the Subscriber's {@link Subscriber#onSubscribe(Subscription)} method is invoked
+		 * with a new Subscription.
+		 * @param subscriber the subscriber
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of messages. The methods in this interface are invoked in strict sequential
+	 * order for each Subscription.
+	 * @param <T> the subscribed item type
+	 */
+	public static interface Subscriber<T> {
+
+		/**
+		 * Method invoked prior to invoking any other Subscriber methods for the given Subscription.
+		 * @param subscription a new subscription
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Method invoked with a Subscription's next item.
+		 * @param item the item
+		 */
+		void onNext(T item);
+
+		/**
+		 * Method invoked upon an unrecoverable error encountered by a Publisher or Subscription,
+		 * after which no other Subscriber methods are invoked by the Subscription.
+		 * @param throwable the exception
+		 */
+		void onError(Throwable throwable);
+
+		/**
+		 * Method invoked when it is known that no additional Subscriber method invocations will occur
+		 * for a Subscription that is not already terminated by error.
+		 */
+		void onComplete();
+	}
+
+	/**
+	 * Message control linking a {@link Publisher} and {@link Subscriber}.
+	 */
+	public static interface Subscription {
+
+		/**
+		 * Adds the given number n of items to the current unfulfilled demand for this subscription.
+		 * If n is less than or equal to zero, the Subscriber will receive an onError signal
+		 * with an {@link IllegalArgumentException} argument.
+		 * @param n the increment of demand
+		 */
+		void request(long n);
+
+		/**
+		 * Causes the Subscriber to (eventually) stop receiving messages.
+		 */
+		void cancel();
+	}
+}
@@ -0,0 +1,93 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CurrencyConverter;
+import sk.lkce.mtgp.domain.Money;
+
+/**
+ * A snapshot of the last known prices of the cards of a search which do not have a result yet,
+ * so they can be shown (marked as stale) while the search finds the current prices.
+ * The prices come from the price cache regardless of their age or, if there is no cached price,
+ * from the price history. The cards which were not found last time have no last known price.
+ * <br>
+ * The snapshot is taken once when the search starts and it is immutable, so it can be read
+ * from any thread.
+ * @see PricingEngine#getLastKnownPrices(ResultMatrix)
+ */
+public class LastKnownPrices {
+
+	private final ResultMatrix matrix;
+	private final PriceCache.Entry[] entries;	//Indexed by card id * finder count + finder id
+	private final int size;
+
+	/**
+	 * Takes the snapshot of the last known prices for the empty cells of a result matrix.
+	 * @param matrix the result matrix of the search
+	 * @param source the source of the local card results
+	 * @param converter the converter of the prices to the display currency
+	 */
+	LastKnownPrices(ResultMatrix matrix, OfflinePriceSource source, CurrencyConverter converter){
+		this.matrix = matrix;
+		int finderCount = matrix.getFinderCount();
+		entries = new PriceCache.Entry[matrix.getCardCount() * finderCount];
+		int n = 0;
+		for (int finderId = 0; finderId < finderCount; finderId++){
+			CardFinder finder = matrix.getFinder(finderId);
+			for (int cardId = 0; cardId < matrix.getCardCount(); cardId++){
+				if (matrix.get(cardId, finderId) != null)
+					continue;
+				OfflineCardResult result = source.find(finder, matrix.getCard(cardId));
+				if (result == null || !converter.supports(result.getCurrency()))
+					continue;
+				converter.normalize(result);
+				entries[cardId * finderCount + finderId] = new PriceCache.Entry(result, result.getTimestamp());
+				n++;
+			}
+		}
+		size = n;
+	}
+
+	/**
+	 * Returns the last known result of a card and card finder.
+	 * @param cardId the id of the card in the result matrix
+	 * @param finderId the id of the card finder in the result matrix
+	 * @return the entry with the result and the time it was found or <code>null</code> if the price is not known
+	 */
+	public PriceCache.Entry get(int cardId, int finderId){
+		return entries[cardId * matrix.getFinderCount() + finderId];
+	}
+
+	/**
+	 * Returns the last known prices found by a card finder.
+	 * @param finder the card finder
+	 * @return the prices in the display currency by the cards, empty if the finder is not part of the search
+	 */
+	public Map<Card, Money> getPrices(CardFinder finder){
+		Map<Card, Money> prices = new HashMap<>();
+		int finderId = matrix.getFinderId(finder);
+		if (finderId < 0)
+			return prices;
+		for (int cardId = 0; cardId < matrix.getCardCount(); cardId++){
+			PriceCache.Entry e = get(cardId, finderId);
+			if (e != null)
+				prices.put(matrix.getCard(cardId), e.getResult().getNormalizedPrice());
+		}
+		return prices;
+	}
+
+	/**
+	 * Returns the number of the last known prices.
+	 * @return the number of the cells with a last known price
+	 */
+	public int size(){
+		return size;
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ size: " + size + "]";
+	}
+}
@@ -59,7 +59,7 @@ class ModraVeverickaCardFinder extends CardFinder{
 			name = card.select("div.name a").text();
 			price = card.select("div.price").text();
 			foundCards.add(new CardResult(name,type, edition, 
-										getDoubleFromString(price,1), CURRENCY));
+						getPriceFromString(price,1,CURRENCY)));
 		}
 		
 		return foundCards;
@@ -0,0 +1,481 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * A compact index of the cards which the card finders did not find, so the searches can skip
+ * or postpone the lookups which are almost certainly misses (e.g. old promo cards a vendor never stocks).
+ * <br>
+ * The misses of each card finder are kept in Bloom filters, one for each period of
+ * a quarter of the maximal age. The filters older than the maximal age are dropped, so the misses age out
+ * and the cards are searched for again. A filter is sized for {@link #getExpectedMisses()} misses with
+ * the configured false positive rate, a new one is started earlier when it is full. A card which is found
+ * while the index predicts a miss (the vendor has stocked it) is remembered exactly until the filters
+ * with its misses are dropped, so it is not predicted as a miss any more.
+ * <br>
+ * With the {@link Policy#SKIP} policy a share of the predicted misses ({@link #getReverifyRate()}) is searched
+ * for anyway, so the index is re-verified continuously. Only the results of the real lookups are recorded.
+ * The index is thread safe.
+ */
+public class NegativeIndex {
+
+	/** The name of the index file in the application directory. */
+	public static final String FILE_NAME = "negative.idx";
+
+	/** The default maximal age of the recorded misses in milliseconds (30 days). */
+	public static final long DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	/** The default rate of the cards which are wrongly predicted as misses. */
+	public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+	/** The default share of the predicted misses which are searched for anyway with the {@link Policy#SKIP} policy. */
+	public static final double DEFAULT_REVERIFY_RATE = 0.1;
+
+	/** The default number of the misses of a card finder the filter of one period is sized for. */
+	public static final int DEFAULT_EXPECTED_MISSES = 10000;
+
+	/**
+	 * What a search does with the lookups which are predicted to be misses.
+	 */
+	public enum Policy {
+		/** The predictions are not used. */
+		IGNORE,
+		/** The predicted misses are searched for after the other cards of the card finder. */
+		SEARCH_LAST,
+		/** The predicted misses are not searched for and left without a result, except for the re-verified ones. */
+		SKIP
+	}
+
+	static final int GENERATIONS = 4;
+	private static final int MAGIC = 0x4e494458; //"NIDX"
+	private static final int VERSION = 1;
+
+	private final Map<String, Misses> finders = new HashMap<>();
+	private Policy policy = Policy.SEARCH_LAST;
+	private double falsePositiveRate = DEFAULT_FALSE_POSITIVE_RATE;
+	private double reverifyRate = DEFAULT_REVERIFY_RATE;
+	private long maxAge = DEFAULT_MAX_AGE;
+	private int expectedMisses = DEFAULT_EXPECTED_MISSES;
+	private long skipped;
+	private long reverified;
+	private long contradicted;
+	private boolean modified;
+
+	/**
+	 * Loads the index from a file.
+	 * @param file the index file
+	 * @return the index or an empty index if the file does not exist
+	 * @throws IOException if the file cannot be read or it is not an index file
+	 */
+	public static NegativeIndex load(File file) throws IOException {
+		NegativeIndex index = new NegativeIndex();
+		if (!file.isFile())
+			return index;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a negative index file: " + file);
+			int finderCount = in.readInt();
+			for (int i = 0; i < finderCount; i++){
+				Misses misses = new Misses();
+				index.finders.put(in.readUTF(), misses);
+				int generationCount = in.readInt();
+				for (int g = 0; g < generationCount; g++){
+					long start = in.readLong();
+					int count = in.readInt();
+					int hashes = in.readInt();
+					long[] bits = new long[in.readInt()];
+					for (int w = 0; w < bits.length; w++)
+						bits[w] = in.readLong();
+					misses.generations.add(new Generation(start, count, hashes, bits));
+				}
+				int foundCount = in.readInt();
+				for (int f = 0; f < foundCount; f++)
+					misses.found.put(in.readUTF(), in.readLong());
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the index to a file. The file is replaced atomically, so it is never left half written.
+	 * @param file the index file
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save(File file) throws IOException {
+		File tmp = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))){
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(finders.size());
+			for (Map.Entry<String, Misses> e : finders.entrySet()){
+				out.writeUTF(e.getKey());
+				Misses misses = e.getValue();
+				out.writeInt(misses.generations.size());
+				for (Generation g : misses.generations){
+					out.writeLong(g.start);
+					out.writeInt(g.count);
+					out.writeInt(g.hashes);
+					out.writeInt(g.bits.length);
+					for (long w : g.bits)
+						out.writeLong(w);
+				}
+				out.writeInt(misses.found.size());
+				for (Map.Entry<String, Long> f : misses.found.entrySet()){
+					out.writeUTF(f.getKey());
+					out.writeLong(f.getValue());
+				}
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		modified = false;
+	}
+
+	/**
+	 * Returns whether the index has changed since it was loaded or saved.
+	 * @return <code>true</code> if the index should be saved
+	 */
+	public synchronized boolean isModified(){
+		return modified;
+	}
+
+	/**
+	 * Returns whether a card finder will most likely not find a card.
+	 * @param finder the card finder
+	 * @param card the card
+	 * @return <code>true</code> if the card finder did not find the card recently (or it is a false positive)
+	 */
+	public boolean isLikelyMissing(CardFinder finder, Card card){
+		return isLikelyMissing(finder, card, System.currentTimeMillis());
+	}
+
+	synchronized boolean isLikelyMissing(CardFinder finder, Card card, long now){
+		Misses misses = finders.get(finder.getName());
+		if (misses == null)
+			return false;
+		expire(misses, now);
+		String key = BatchPricing.normalizeName(card.getName());
+		return !misses.found.containsKey(key) && misses.mightContain(hash(key));
+	}
+
+	/**
+	 * Decides whether a lookup is skipped by a search with the {@link Policy#SKIP} policy.
+	 * A share of the predicted misses is not skipped, so they are re-verified.
+	 * @param finder the card finder
+	 * @param card the card
+	 * @return <code>true</code> if the card should not be searched for
+	 */
+	synchronized boolean shouldSkip(CardFinder finder, Card card){
+		if (policy != Policy.SKIP || !isLikelyMissing(finder, card))
+			return false;
+		if (ThreadLocalRandom.current().nextDouble() < reverifyRate){
+			reverified++;
+			return false;
+		}
+		skipped++;
+		return true;
+	}
+
+	/**
+	 * Records the result of a real lookup of a card finder.
+	 * @param finder the card finder
+	 * @param card the card
+	 * @param result the found card result or <code>null</code> if the card was not found
+	 */
+	void record(CardFinder finder, Card card, CardResult result){
+		if (result == null || result == CardResult.NULL_CARD_RESULT)
+			recordMiss(finder, card, System.currentTimeMillis());
+		else
+			recordFound(finder, card, System.currentTimeMillis());
+	}
+
+	synchronized void recordMiss(CardFinder finder, Card card, long now){
+		Misses misses = finders.get(finder.getName());
+		if (misses == null){
+			misses = new Misses();
+			finders.put(finder.getName(), misses);
+		}
+		expire(misses, now);
+		String key = BatchPricing.normalizeName(card.getName());
+		long hash = hash(key);
+		if (misses.found.remove(key) != null)
+			modified = true;
+		Generation current = misses.generations.isEmpty() ? null : misses.generations.get(misses.generations.size() - 1);
+		//A miss repeated in the same period is not counted again, so it does not fill the generation early.
+		if (current != null && now - current.start < maxAge / GENERATIONS && current.mightContain(hash))
+			return;
+		if (current == null || now - current.start >= maxAge / GENERATIONS || current.count >= expectedMisses){
+			current = new Generation(now, expectedMisses, falsePositiveRate / GENERATIONS);
+			misses.generations.add(current);
+			if (misses.generations.size() > GENERATIONS) //Started early because the previous ones are full.
+				misses.generations.remove(0);
+		}
+		current.add(hash);
+		modified = true;
+	}
+
+	synchronized void recordFound(CardFinder finder, Card card, long now){
+		Misses misses = finders.get(finder.getName());
+		if (misses == null)
+			return;
+		expire(misses, now);
+		String key = BatchPricing.normalizeName(card.getName());
+		if (!misses.found.containsKey(key) && misses.mightContain(hash(key))){
+			misses.found.put(key, now);
+			contradicted++;
+			modified = true;
+		}
+	}
+
+	/**
+	 * Drops the filters older than the maximal age and the found cards recorded before the oldest
+	 * of the remaining filters was started.
+	 */
+	private void expire(Misses misses, long now){
+		while (!misses.generations.isEmpty() && now - misses.generations.get(0).start > maxAge){
+			misses.generations.remove(0);
+			modified = true;
+		}
+		long oldest = misses.generations.isEmpty() ? Long.MAX_VALUE : misses.generations.get(0).start;
+		for (Iterator<Long> it = misses.found.values().iterator(); it.hasNext();)
+			if (it.next() < oldest){
+				it.remove();
+				modified = true;
+			}
+	}
+
+	/**
+	 * Returns the 64-bit hash of a normalized card name (FNV-1a with a final mix).
+	 */
+	private static long hash(String key){
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++){
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Returns the policy of the searches for the predicted misses.
+	 * @return the policy
+	 */
+	public synchronized Policy getPolicy(){
+		return policy;
+	}
+
+	/**
+	 * Sets the policy of the searches for the predicted misses.
+	 * @param policy the policy
+	 */
+	public synchronized void setPolicy(Policy policy){
+		if (policy == null)
+			throw new NullPointerException("The policy cannot be null");
+		this.policy = policy;
+	}
+
+	/**
+	 * Returns the rate of the cards wrongly predicted as misses.
+	 * @return the false positive rate
+	 */
+	public synchronized double getFalsePositiveRate(){
+		return falsePositiveRate;
+	}
+
+	/**
+	 * Sets the rate of the cards wrongly predicted as misses. The filters are sized for the rate when they
+	 * are started, so it applies to the new filters only.
+	 * @param rate the false positive rate, greater than 0 and less than 1
+	 */
+	public synchronized void setFalsePositiveRate(double rate){
+		if (!(rate > 0 && rate < 1))
+			throw new IllegalArgumentException("The false positive rate must be between 0 and 1: " + rate);
+		falsePositiveRate = rate;
+	}
+
+	/**
+	 * Returns the share of the predicted misses which are searched for anyway with the {@link Policy#SKIP} policy.
+	 * @return the re-verification rate
+	 */
+	public synchronized double getReverifyRate(){
+		return reverifyRate;
+	}
+
+	/**
+	 * Sets the share of the predicted misses which are searched for anyway with the {@link Policy#SKIP} policy.
+	 * @param rate the re-verification rate from 0 (never) to 1 (always)
+	 */
+	public synchronized void setReverifyRate(double rate){
+		if (!(rate >= 0 && rate <= 1))
+			throw new IllegalArgumentException("The re-verification rate must be from 0 to 1: " + rate);
+		reverifyRate = rate;
+	}
+
+	/**
+	 * Returns the maximal age of the recorded misses.
+	 * @return the maximal age in milliseconds
+	 */
+	public synchronized long getMaxAge(){
+		return maxAge;
+	}
+
+	/**
+	 * Sets the maximal age of the recorded misses. The misses are dropped in quarters of the maximal age.
+	 * @param maxAge the maximal age in milliseconds
+	 */
+	public synchronized void setMaxAge(long maxAge){
+		if (maxAge < GENERATIONS)
+			throw new IllegalArgumentException("The maximal age is too short: " + maxAge);
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Returns the number of the misses of a card finder the filter of one period is sized for.
+	 * @return the expected number of the misses
+	 */
+	public synchronized int getExpectedMisses(){
+		return expectedMisses;
+	}
+
+	/**
+	 * Sets the number of the misses of a card finder the filter of one period is sized for.
+	 * It applies to the new filters only.
+	 * @param misses the expected number of the misses
+	 */
+	public synchronized void setExpectedMisses(int misses){
+		if (misses < 1)
+			throw new IllegalArgumentException("The expected number of the misses must be positive: " + misses);
+		expectedMisses = misses;
+	}
+
+	/**
+	 * Returns the number of the lookups skipped because they were predicted to be misses.
+	 * @return the number of the skipped lookups
+	 */
+	public synchronized long getSkippedCount(){
+		return skipped;
+	}
+
+	/**
+	 * Returns the number of the predicted misses which were searched for to re-verify the index.
+	 * @return the number of the re-verified lookups
+	 */
+	public synchronized long getReverifiedCount(){
+		return reverified;
+	}
+
+	/**
+	 * Returns the number of the cards which were found although they were predicted to be misses.
+	 * @return the number of the contradicted predictions
+	 */
+	public synchronized long getContradictedCount(){
+		return contradicted;
+	}
+
+	/**
+	 * Returns the size of the filters in bytes.
+	 * @return the memory used by the filters
+	 */
+	public synchronized long getFilterBytes(){
+		long bytes = 0;
+		for (Misses misses : finders.values())
+			for (Generation g : misses.generations)
+				bytes += g.bits.length * 8L;
+		return bytes;
+	}
+
+	@Override
+	public synchronized String toString(){
+		int count = 0;
+		for (Misses misses : finders.values())
+			for (Generation g : misses.generations)
+				count += g.count;
+		return getClass().getSimpleName() + "[ " + policy + ", misses: " + count + ", bytes: " + getFilterBytes()
+				+ ", skipped: " + skipped + ", re-verified: " + reverified + ", contradicted: " + contradicted + "]";
+	}
+
+	/**
+	 * The recorded misses of one card finder.
+	 */
+	private static class Misses {
+
+		final List<Generation> generations = new ArrayList<>(GENERATIONS + 1);	//From the oldest
+		final Map<String, Long> found = new HashMap<>();	//Normalized name -> when found
+
+		boolean mightContain(long hash){
+			for (Generation g : generations)
+				if (g.mightContain(hash))
+					return true;
+			return false;
+		}
+	}
+
+	/**
+	 * The Bloom filter of the misses recorded in one period.
+	 */
+	private static class Generation {
+
+		final long start;
+		final int hashes;
+		final long[] bits;
+		int count;
+
+		Generation(long start, int expected, double falsePositiveRate){
+			this.start = start;
+			long m = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+			bits = new long[(int) Math.max(1, (m + 63) / 64)];
+			hashes = (int) Math.max(1, Math.round((double) bits.length * 64 / expected * Math.log(2)));
+		}
+
+		Generation(long start, int count, int hashes, long[] bits){
+			this.start = start;
+			this.count = count;
+			this.hashes = hashes;
+			this.bits = bits;
+		}
+
+		void add(long hash){
+			long size = bits.length * 64L;
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32) | 1;
+			for (int i = 0; i < hashes; i++){
+				long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+				bits[(int) (bit >>> 6)] |= 1L << bit;
+			}
+			count++;
+		}
+
+		boolean mightContain(long hash){
+			long size = bits.length * 64L;
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32) | 1;
+			for (int i = 0; i < hashes; i++){
+				long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+				if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+					return false;
+			}
+			return true;
+		}
+	}
+}
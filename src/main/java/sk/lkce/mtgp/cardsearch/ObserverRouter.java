@@ -0,0 +1,110 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A routing table of the search observers. The observers are subscribed to the events
+ * of a given card finder (or all of them) and of given event types, and the table
+ * resolves the observers interested in an event by an array lookup, so the dispatch
+ * costs only as much as the number of the interested observers.
+ * <br>
+ * The routes are rebuilt on each subscription and published as an immutable
+ * snapshot, so the dispatch on the search threads is lock-free.
+ */
+class ObserverRouter {
+
+	private static final int TYPE_COUNT = SearchEventType.values().length;
+	private static final SearchObserver[] NONE = new SearchObserver[0];
+
+	private final int finderCount;
+	private final List<Subscription> subscriptions = new ArrayList<>();
+	//Slot (finderId + 1) * TYPE_COUNT + type; finderId -1 is used for the events not related to a finder.
+	private volatile SearchObserver[][] routes;
+
+	/**
+	 * Creates an empty routing table.
+	 * @param finderCount the number of card finders of the search (their ids are 0..finderCount-1)
+	 */
+	ObserverRouter(int finderCount){
+		this.finderCount = finderCount;
+		routes = buildRoutes();
+	}
+
+	/**
+	 * Subscribes an observer.
+	 * @param observer the observer
+	 * @param finderId the id of the card finder or -1 for all card finders
+	 * @param types the types of the events the observer is interested in
+	 * @return <code>false</code> if the observer has already been subscribed
+	 */
+	synchronized boolean add(SearchObserver observer, int finderId, Set<SearchEventType> types){
+		for (Subscription s : subscriptions)
+			if (s.observer == observer)
+				return false;
+		Set<SearchEventType> copy = EnumSet.noneOf(SearchEventType.class);
+		copy.addAll(types);
+		subscriptions.add(new Subscription(observer, finderId, copy));
+		routes = buildRoutes();
+		return true;
+	}
+
+	/**
+	 * Returns the observers interested in an event of a card finder.
+	 * @param finderId the id of the card finder
+	 * @param type the type of the event
+	 * @return the observers, must not be modified
+	 */
+	SearchObserver[] get(int finderId, SearchEventType type){
+		return routes[(finderId + 1) * TYPE_COUNT + type.ordinal()];
+	}
+
+	/**
+	 * Returns the observers interested in an event which is not related to a card finder.
+	 * @param type the type of the event
+	 * @return the observers, must not be modified
+	 */
+	SearchObserver[] get(SearchEventType type){
+		return routes[type.ordinal()];
+	}
+
+	private SearchObserver[][] buildRoutes(){
+		List<List<SearchObserver>> slots = new ArrayList<>();
+		for (int i = 0; i < (finderCount + 1) * TYPE_COUNT; i++)
+			slots.add(new ArrayList<SearchObserver>());
+
+		for (Subscription s : subscriptions)
+			for (SearchEventType type : s.types){
+				if (!type.isFinderEvent())
+					slots.get(type.ordinal()).add(s.observer);
+				else if (s.finderId >= 0)
+					slots.get((s.finderId + 1) * TYPE_COUNT + type.ordinal()).add(s.observer);
+				else
+					for (int f = 0; f < finderCount; f++)
+						slots.get((f + 1) * TYPE_COUNT + type.ordinal()).add(s.observer);
+			}
+
+		SearchObserver[][] result = new SearchObserver[slots.size()][];
+		for (int i = 0; i < result.length; i++)
+			result[i] = slots.get(i).isEmpty() ? NONE : slots.get(i).toArray(NONE);
+		return result;
+	}
+
+	/**
+	 * A subscription of one observer.
+	 */
+	private static class Subscription {
+
+		final SearchObserver observer;
+		final int finderId;
+		final Set<SearchEventType> types;
+
+		Subscription(SearchObserver observer, int finderId, Set<SearchEventType> types){
+			this.observer = observer;
+			this.finderId = finderId;
+			this.types = types;
+		}
+	}
+}
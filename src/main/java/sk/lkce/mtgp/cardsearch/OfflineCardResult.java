@@ -0,0 +1,70 @@
+package sk.lkce.mtgp.cardsearch;
+
+import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
+
+/**
+ * A card result which was not found on the web site of the card finder but taken from
+ * the local data of a {@link PricingEngine}, e.g. by an offline search. Besides the card it tells
+ * where the result comes from and when it was found on the web site.
+ * @see PricingEngine#setOffline(boolean)
+ */
+public class OfflineCardResult extends CardResult {
+
+	/**
+	 * The local data from which a result is taken.
+	 */
+	public enum Source {
+		/** The price cache of the engine, i.e. a search since the application was started. */
+		PRICE_CACHE,
+		/** The price history recorded by the previous runs of the application. */
+		PRICE_HISTORY
+	}
+
+	private final Source source;
+	private final long timestamp;
+
+	/**
+	 * Constructs an offline card result.
+	 * @param name name of the card
+	 * @param type type of the card, may be <code>null</code>
+	 * @param edition the edition of the card, may be <code>null</code>
+	 * @param price the price of the card in the currency of the card finder
+	 * @param source the local data from which the result is taken
+	 * @param timestamp the time when the result was found on the web site in milliseconds
+	 */
+	OfflineCardResult(String name, String type, String edition, Money price, Source source, long timestamp){
+		super(name, type, edition, price);
+		this.source = source;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Returns the local data from which this result is taken.
+	 * @return the source of the result
+	 */
+	public Source getSource(){
+		return source;
+	}
+
+	/**
+	 * Returns the time when this result was found on the web site of the card finder.
+	 * @return the time in milliseconds
+	 */
+	public long getTimestamp(){
+		return timestamp;
+	}
+
+	/**
+	 * Returns the age of this result.
+	 * @return the age in milliseconds
+	 */
+	public long getAge(){
+		return System.currentTimeMillis() - timestamp;
+	}
+
+	@Override
+	public String toString(){
+		return super.toString() + "[ " + source + ", " + timestamp + "]";
+	}
+}
@@ -0,0 +1,50 @@
+package sk.lkce.mtgp.cardsearch;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * Finds the card results in the local data of a {@link PricingEngine} without any network access:
+ * the latest result in the price cache regardless of its age or, if the card is not cached,
+ * the latest record of the price history. Thread safe.
+ */
+class OfflinePriceSource {
+
+	private final PriceCache cache;
+	private final PriceHistoryStore history;
+
+	/**
+	 * Creates a source of the local card results.
+	 * @param cache the price cache
+	 * @param history the price history or <code>null</code> if the prices are not recorded
+	 */
+	OfflinePriceSource(PriceCache cache, PriceHistoryStore history){
+		this.cache = cache;
+		this.history = history;
+	}
+
+	/**
+	 * Returns the latest known result of a card finder for a card.
+	 * @param finder the card finder
+	 * @param card the card
+	 * @return the result (not normalized) or <code>null</code> if the card was not found last time
+	 * 		or there is no local result
+	 */
+	OfflineCardResult find(CardFinder finder, Card card){
+		PriceCache.Entry e = cache.get(finder, card);
+		if (e != null){
+			CardResult r = e.getResult();
+			if (r == CardResult.NULL_CARD_RESULT)
+				return null;
+			return new OfflineCardResult(r.getName(), r.getType(), r.getEdition(), r.getPrice(),
+					OfflineCardResult.Source.PRICE_CACHE, e.getTimestamp());
+		}
+		if (history == null)
+			return null;
+		PriceHistoryStore.Record r = history.getLatest(card.getName(), finder.getName());
+		if (r == null)
+			return null;
+		return new OfflineCardResult(r.getCard(), null, r.getEdition(), r.getPrice(),
+				OfflineCardResult.Source.PRICE_HISTORY, r.getTimestamp());
+	}
+}
@@ -0,0 +1,150 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * A thread safe cache of the latest card results of each card finder, shared by the searches
+ * of a {@link PricingEngine}. Each entry remembers when the result was found, so the users
+ * of the cache decide how old results are still acceptable.
+ */
+public class PriceCache {
+
+	private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Stores the result of a card search.
+	 * @param finder the card finder
+	 * @param card the card
+	 * @param result the card result or {@link CardResult#NULL_CARD_RESULT} if the card was not found
+	 * @param timestamp the time when the result was found in milliseconds
+	 */
+	public void put(CardFinder finder, Card card, CardResult result, long timestamp){
+		if (result == null)
+			throw new NullPointerException("Card result cannot be null");
+		entries.put(new Key(finder.getName(), card.getName()), new Entry(result, timestamp));
+	}
+
+	/**
+	 * Returns the cached result of a card search.
+	 * @param finder the card finder
+	 * @param card the card
+	 * @return the cache entry or <code>null</code> if there is none
+	 */
+	public Entry get(CardFinder finder, Card card){
+		return entries.get(new Key(finder.getName(), card.getName()));
+	}
+
+	/**
+	 * Returns the cached result of a card search if it is not older than a given age.
+	 * @param finder the card finder
+	 * @param card the card
+	 * @param maxAge the maximal age of the result in milliseconds
+	 * @return the cache entry or <code>null</code> if there is no fresh enough entry
+	 */
+	public Entry getFresh(CardFinder finder, Card card, long maxAge){
+		Entry e = get(finder, card);
+		return (e == null || e.getAge() > maxAge) ? null : e;
+	}
+
+	/**
+	 * Returns the number of the cached results.
+	 * @return the size of the cache
+	 */
+	public int size(){
+		return entries.size();
+	}
+
+	/**
+	 * Removes all the cached results.
+	 */
+	public void clear(){
+		entries.clear();
+	}
+
+	/**
+	 * Returns an observer which stores all the results of a search in this cache.
+	 * @return the observer
+	 */
+	SearchObserver createRecorder(){
+		return new SearchObserverAdapter() {
+			@Override
+			public void cardSearchFinished(Card card, CardResult result, CardFinder finder) {
+				put(finder, card, (result == null) ? CardResult.NULL_CARD_RESULT : result, System.currentTimeMillis());
+			}
+		};
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ size: " + entries.size() + "]";
+	}
+
+	/**
+	 * A cached card result with the time it was found.
+	 */
+	public static class Entry {
+
+		private final CardResult result;
+		private final long timestamp;
+
+		Entry(CardResult result, long timestamp){
+			this.result = result;
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * Returns the cached result.
+		 * @return the card result or {@link CardResult#NULL_CARD_RESULT} if the card was not found
+		 */
+		public CardResult getResult(){
+			return result;
+		}
+
+		/**
+		 * Returns the time when the result was found.
+		 * @return the time in milliseconds
+		 */
+		public long getTimestamp(){
+			return timestamp;
+		}
+
+		/**
+		 * Returns the age of the result.
+		 * @return the age in milliseconds
+		 */
+		public long getAge(){
+			return System.currentTimeMillis() - timestamp;
+		}
+	}
+
+	/**
+	 * The key of a cache entry. The card finders and cards are identified by their names.
+	 */
+	private static class Key {
+
+		private final String finder;
+		private final String card;
+
+		Key(String finder, String card){
+			this.finder = finder;
+			this.card = card;
+		}
+
+		@Override
+		public int hashCode(){
+			return 31 * finder.hashCode() + card.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return k.finder.equals(finder) && k.card.equals(card);
+		}
+	}
+}
@@ -0,0 +1,640 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
+
+/**
+ * An append-only history of the found prices. The records are kept in segment files of a fixed size
+ * which are read and written through memory-mapped buffers, so neither appending nor querying copies
+ * the history to the heap. A record has a fixed size of {@value #RECORD_SIZE} bytes:
+ * <pre>
+ *  0  long   timestamp in milliseconds
+ *  8  long   position of the previous record of the same card, -1 if there is none
+ * 16  long   price in the minor units of the vendor's currency
+ * 24  int    card id
+ * 28  short  vendor id
+ * 30  short  edition id
+ * </pre>
+ * The names of the cards, vendors (card finder and currency) and editions are kept in small append-only
+ * dictionary files and the records refer to them by ids. The records of each card form a chain from
+ * the newest one backwards, so a range query of a card visits only the records of the card. The newest
+ * record of each card is checkpointed in an index file on {@link #flush()}, the records appended after
+ * the checkpoint are scanned when the store is opened.
+ * <br>
+ * Each segment starts with a header with the number of its committed records, which is updated after
+ * each record, so an incompletely written record is ignored. The timestamps never decrease, the history
+ * is kept in time order. Only one process can open a store at a time.
+ */
+public class PriceHistoryStore implements Closeable {
+
+	/** The name of the directory with the history in the application directory. */
+	public static final String DIRECTORY_NAME = "history";
+
+	/** The size of a record in bytes. */
+	public static final int RECORD_SIZE = 32;
+
+	/** The default size of a segment file in bytes. */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+	private static final int HEADER_SIZE = 32;
+	private static final int MAGIC = 0x4d545048;
+	private static final int VERSION = 1;
+	private static final int COUNT_OFFSET = 8;
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * A visitor of the records returned by a query.
+	 */
+	public interface Visitor {
+
+		/**
+		 * Visits a record.
+		 * @param record the record
+		 * @return <code>true</code> to continue with the next record, <code>false</code> to stop the query
+		 */
+		boolean visit(Record record);
+	}
+
+	private final File directory;
+	private final int segmentSize;
+	private final RandomAccessFile lockFile;
+	private final FileLock lock;
+	private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+	private final Dictionary cards;
+	private final Dictionary vendors;
+	private final Dictionary editions;
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private MappedByteBuffer active;	//The last segment, null when it is full
+	private int activeCount;
+	private int firstDirty = -1;	//The index of the oldest segment written since the last flush, -1 if none
+	private long[] heads = new long[64];	//Card id -> position of the newest record of the card
+	private long size;
+	private long lastTimestamp;
+	private boolean closed;
+
+	private PriceHistoryStore(File directory, int segmentSize, RandomAccessFile lockFile, FileLock lock)
+			throws IOException {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.lockFile = lockFile;
+		this.lock = lock;
+		cards = new Dictionary(new File(directory, "cards.dict"));
+		vendors = new Dictionary(new File(directory, "vendors.dict"));
+		editions = new Dictionary(new File(directory, "editions.dict"));
+		Arrays.fill(heads, -1);
+	}
+
+	/**
+	 * Opens the history in a given directory with the {@link #DEFAULT_SEGMENT_SIZE}.
+	 * The directory is created if it does not exist.
+	 * @param directory the directory of the history
+	 * @return the store
+	 * @throws IOException if the history cannot be opened or is open by another process
+	 */
+	public static PriceHistoryStore open(File directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens the history in a given directory. The segment size of an existing history is not changed.
+	 * @param directory the directory of the history
+	 * @param segmentSize the size of the new segment files in bytes
+	 * @return the store
+	 * @throws IOException if the history cannot be opened or is open by another process
+	 */
+	public static PriceHistoryStore open(File directory, int segmentSize) throws IOException {
+		if (segmentSize < HEADER_SIZE + RECORD_SIZE)
+			throw new IllegalArgumentException("The segment size is too small: " + segmentSize);
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create the directory " + directory);
+		RandomAccessFile lockFile = new RandomAccessFile(new File(directory, "lock"), "rw");
+		FileLock lock;
+		try {
+			lock = lockFile.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null){
+			lockFile.close();
+			throw new IOException("The price history " + directory + " is used by another application");
+		}
+		try {
+			PriceHistoryStore store = new PriceHistoryStore(directory, segmentSize, lockFile, lock);
+			store.load();
+			return store;
+		} catch (IOException | RuntimeException e) {
+			lockFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps the existing segments and restores the newest record of each card.
+	 */
+	private void load() throws IOException {
+		for (int i = 0; ; i++){
+			File f = segmentFile(i);
+			if (!f.isFile())
+				break;
+			MappedByteBuffer segment = map(f, -1);
+			if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION)
+				throw new IOException("Not a price history segment: " + f);
+			segments.add(segment);
+			int count = (int) segment.getLong(COUNT_OFFSET);
+			size += count;
+			if (count > 0)
+				lastTimestamp = Math.max(lastTimestamp, segment.getLong(offset(count - 1)));
+		}
+		if (!segments.isEmpty()){
+			MappedByteBuffer last = segments.get(segments.size() - 1);
+			int count = (int) last.getLong(COUNT_OFFSET);
+			if (count < capacity(last)){
+				active = last;
+				activeCount = count;
+			}
+		}
+
+		//The records after the checkpoint are scanned in the order they were appended.
+		long skip = loadHeads();
+		for (int s = 0; s < segments.size(); s++){
+			ByteBuffer segment = segments.get(s);
+			int count = (int) segment.getLong(COUNT_OFFSET);
+			int start = (int) Math.min(count, skip);
+			skip -= start;
+			for (int i = start; i < count; i++)
+				setHead(segment.getInt(offset(i) + 24), position(s, i));
+		}
+	}
+
+	/**
+	 * Loads the checkpoint of the newest records of the cards.
+	 * @return the number of the records covered by the checkpoint
+	 */
+	private long loadHeads() throws IOException {
+		File f = new File(directory, "heads.idx");
+		if (!f.isFile())
+			return 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))){
+			long covered = in.readLong();
+			int n = in.readInt();
+			if (covered > size)
+				return 0; //The checkpoint is newer than the segments, e.g. a segment was lost.
+			for (int card = 0; card < n; card++)
+				setHead(card, in.readLong());
+			return covered;
+		}
+	}
+
+	/**
+	 * Appends a card result. The results of the cards which were not found are not recorded.
+	 * @param finder the card finder which found the result
+	 * @param card the searched card
+	 * @param result the card result
+	 * @param timestamp the time when the result was found in milliseconds
+	 * @throws IOException if a new segment cannot be created
+	 * @throws IllegalArgumentException if the timestamp is older than the last record
+	 * @throws IllegalStateException if the store is closed
+	 */
+	public void append(CardFinder finder, Card card, CardResult result, long timestamp) throws IOException {
+		if (result == null || result == CardResult.NULL_CARD_RESULT)
+			return;
+		rwLock.writeLock().lock();
+		try {
+			if (timestamp < lastTimestamp)
+				throw new IllegalArgumentException("The history is in time order, the last record is from "
+						+ lastTimestamp + ": " + timestamp);
+			write(finder, card, result, timestamp);
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Appends a card result found just now. The timestamp is the current time, or the time of the last
+	 * record if the clock went back.
+	 */
+	private void appendNow(CardFinder finder, Card card, CardResult result) throws IOException {
+		if (result == null || result == CardResult.NULL_CARD_RESULT)
+			return;
+		rwLock.writeLock().lock();
+		try {
+			write(finder, card, result, Math.max(System.currentTimeMillis(), lastTimestamp));
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes a record. Invoked with the write lock held.
+	 */
+	private void write(CardFinder finder, Card card, CardResult result, long timestamp) throws IOException {
+		if (closed)
+			throw new IllegalStateException("The price history is closed");
+		Money price = result.getPrice();
+		int cardId = cards.id(card.getName());
+		int vendorId = vendors.id(finder.getName() + "\t" + price.getCurrency().getCurrencyCode());
+		int editionId = editions.id((result.getEdition() == null) ? "" : result.getEdition());
+		if (vendorId > 0xffff || editionId > 0xffff)
+			throw new IllegalStateException("Too many vendors or editions in the price history");
+
+		if (active == null){
+			active = map(segmentFile(segments.size()), segmentSize);
+			active.putInt(0, MAGIC);
+			active.putInt(4, VERSION);
+			active.putLong(COUNT_OFFSET, 0);
+			segments.add(active);
+			activeCount = 0;
+		}
+		if (firstDirty < 0)
+			firstDirty = segments.size() - 1;
+		long position = position(segments.size() - 1, activeCount);
+		int offset = offset(activeCount);
+		active.putLong(offset, timestamp);
+		active.putLong(offset + 8, head(cardId));
+		active.putLong(offset + 16, price.getMinorUnits());
+		active.putInt(offset + 24, cardId);
+		active.putShort(offset + 28, (short) vendorId);
+		active.putShort(offset + 30, (short) editionId);
+		active.putLong(COUNT_OFFSET, ++activeCount); //Commits the record.
+		if (activeCount == capacity(active))
+			active = null;
+
+		setHead(cardId, position);
+		lastTimestamp = timestamp;
+		size++;
+	}
+
+	/**
+	 * Visits the records of a card from the newest to the oldest.
+	 * @param card the card name
+	 * @param vendor the card finder name or <code>null</code> for all the card finders
+	 * @param from the start of the time range in milliseconds, inclusive
+	 * @param to the end of the time range in milliseconds, exclusive
+	 * @param visitor the visitor of the records
+	 */
+	public void forEach(String card, String vendor, long from, long to, Visitor visitor){
+		rwLock.readLock().lock();
+		try {
+			Integer cardId = cards.find(card);
+			if (cardId == null)
+				return;
+			for (long p = head(cardId); p >= 0; ){
+				ByteBuffer segment = segments.get(segmentOf(p));
+				int offset = offset(indexOf(p));
+				long timestamp = segment.getLong(offset);
+				if (timestamp < from)
+					return; //The older records are out of the range too.
+				if (timestamp < to){
+					String[] v = vendors.name(segment.getShort(offset + 28) & 0xffff).split("\t");
+					if (vendor == null || v[0].equalsIgnoreCase(vendor)){
+						Money price = new Money(segment.getLong(offset + 16), Currency.getInstance(v[1]));
+						String edition = editions.name(segment.getShort(offset + 30) & 0xffff);
+						if (!visitor.visit(new Record(cards.name(cardId), v[0], edition, price, timestamp)))
+							return;
+					}
+				}
+				p = segment.getLong(offset + 8);
+			}
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the records of a card in a time range.
+	 * @param card the card name
+	 * @param vendor the card finder name or <code>null</code> for all the card finders
+	 * @param from the start of the time range in milliseconds, inclusive
+	 * @param to the end of the time range in milliseconds, exclusive
+	 * @return the records from the oldest to the newest
+	 */
+	public List<Record> query(String card, String vendor, long from, long to){
+		final List<Record> records = new ArrayList<>();
+		forEach(card, vendor, from, to, new Visitor() {
+			@Override
+			public boolean visit(Record record) {
+				records.add(record);
+				return true;
+			}
+		});
+		Collections.reverse(records);
+		return records;
+	}
+
+	/**
+	 * Returns the newest record of a card.
+	 * @param card the card name
+	 * @param vendor the card finder name or <code>null</code> for any card finder
+	 * @return the record or <code>null</code> if there is none
+	 */
+	public Record getLatest(String card, String vendor){
+		final Record[] latest = new Record[1];
+		forEach(card, vendor, Long.MIN_VALUE, Long.MAX_VALUE, new Visitor() {
+			@Override
+			public boolean visit(Record record) {
+				latest[0] = record;
+				return false;
+			}
+		});
+		return latest[0];
+	}
+
+	/**
+	 * Returns the number of the records.
+	 * @return the size of the history
+	 */
+	public long size(){
+		rwLock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the records appended since the last flush to the disk and checkpoints the newest record
+	 * of each card. Nothing is written if no record was appended.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void flush() throws IOException {
+		rwLock.writeLock().lock();
+		try {
+			if (closed || firstDirty < 0)
+				return;
+			//Including the segments which filled up since the last flush.
+			for (int s = firstDirty; s < segments.size(); s++)
+				segments.get(s).force();
+			File f = new File(directory, "heads.idx");
+			File tmp = new File(directory, "heads.idx.tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))){
+				out.writeLong(size);
+				out.writeInt(cards.size());
+				for (int card = 0; card < cards.size(); card++)
+					out.writeLong(head(card));
+			}
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			firstDirty = -1;
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes and closes the store. The further appends fail.
+	 * @throws IOException if an I/O error occurs
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+		rwLock.writeLock().lock();
+		try {
+			if (closed)
+				return;
+			closed = true;
+			cards.close();
+			vendors.close();
+			editions.close();
+			lock.release();
+			lockFile.close();
+			segments.clear();
+			active = null;
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns an observer which appends all the results found by a search to this store
+	 * and flushes the store when the search is finished.
+	 * @return the observer
+	 */
+	SearchObserver createRecorder(){
+		return new SearchObserverAdapter() {
+			@Override
+			public void cardSearchFinished(Card card, CardResult result, CardFinder finder) {
+				try {
+					appendNow(finder, card, result);
+				} catch (IOException | RuntimeException e) {
+					//The history is a by-product, the search goes on without it.
+					System.err.println("Could not record the price of " + card.getName() + ": " + e.getMessage());
+				}
+			}
+
+			@Override
+			public void searchingFinished(boolean interrupted) {
+				try {
+					flush();
+				} catch (IOException e) {
+					System.err.println("Could not flush the price history: " + e.getMessage());
+				}
+			}
+		};
+	}
+
+	private File segmentFile(int index){
+		return new File(directory, String.format("segment-%05d.dat", index));
+	}
+
+	/**
+	 * Maps a segment file.
+	 * @param size the size of a new file or -1 to map an existing file as it is
+	 */
+	private static MappedByteBuffer map(File f, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")){
+			if (size >= 0)
+				raf.setLength(size);
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+	}
+
+	private static int capacity(ByteBuffer segment){
+		return (segment.capacity() - HEADER_SIZE) / RECORD_SIZE;
+	}
+
+	private static int offset(int index){
+		return HEADER_SIZE + index * RECORD_SIZE;
+	}
+
+	private static long position(int segment, int index){
+		return ((long) segment << 32) | index;
+	}
+
+	private static int segmentOf(long position){
+		return (int) (position >>> 32);
+	}
+
+	private static int indexOf(long position){
+		return (int) position;
+	}
+
+	private long head(int card){
+		return (card < heads.length) ? heads[card] : -1;
+	}
+
+	private void setHead(int card, long position){
+		if (card >= heads.length){
+			int old = heads.length;
+			heads = Arrays.copyOf(heads, Math.max(card + 1, old * 2));
+			Arrays.fill(heads, old, heads.length, -1);
+		}
+		heads[card] = position;
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + directory + ", records: " + size() + "]";
+	}
+
+	/**
+	 * A record of the price history.
+	 */
+	public static class Record {
+
+		private final String card;
+		private final String vendor;
+		private final String edition;
+		private final Money price;
+		private final long timestamp;
+
+		Record(String card, String vendor, String edition, Money price, long timestamp){
+			this.card = card;
+			this.vendor = vendor;
+			this.edition = edition;
+			this.price = price;
+			this.timestamp = timestamp;
+		}
+
+		public String getCard(){
+			return card;
+		}
+
+		/**
+		 * Returns the name of the card finder which found the price.
+		 * @return the vendor name
+		 */
+		public String getVendor(){
+			return vendor;
+		}
+
+		public String getEdition(){
+			return edition;
+		}
+
+		/**
+		 * Returns the price in the vendor's currency.
+		 * @return the price
+		 */
+		public Money getPrice(){
+			return price;
+		}
+
+		/**
+		 * Returns the time when the price was found.
+		 * @return the time in milliseconds
+		 */
+		public long getTimestamp(){
+			return timestamp;
+		}
+
+		@Override
+		public String toString(){
+			return getClass().getSimpleName() + "[ " + card + ", " + vendor + ", " + edition + ", "
+					+ price.format() + ", " + timestamp + "]";
+		}
+	}
+
+	/**
+	 * An append-only file of names, the id of a name is its line number. The card names
+	 * are recognized by their normalized form ({@link BatchPricing#normalizeName(String)}).
+	 */
+	private static class Dictionary {
+
+		private final Map<String, Integer> ids = new HashMap<>();
+		private final Map<String, Integer> exactIds = new HashMap<>();	//The spellings seen, avoids normalizing
+		private final List<String> names = new ArrayList<>();
+		private final Writer writer;
+
+		Dictionary(File file) throws IOException {
+			if (file.isFile())
+				try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))){
+					String line;
+					while ((line = br.readLine()) != null){
+						ids.put(BatchPricing.normalizeName(line), names.size());
+						names.add(line);
+					}
+				}
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), CHARSET));
+		}
+
+		Integer find(String name){
+			return ids.get(BatchPricing.normalizeName(name));
+		}
+
+		int id(String name) throws IOException {
+			Integer id = exactIds.get(name);
+			if (id == null){
+				String key = BatchPricing.normalizeName(name);
+				id = ids.get(key);
+				if (id == null){
+					String line = name.replace('\n', ' ').replace('\r', ' ');
+					//Written before any record refers to it.
+					writer.write(line);
+					writer.write('\n');
+					writer.flush();
+					id = names.size();
+					ids.put(key, id);
+					names.add(line);
+				}
+				exactIds.put(name, id);
+			}
+			return id;
+		}
+
+		String name(int id){
+			return names.get(id);
+		}
+
+		int size(){
+			return names.size();
+		}
+
+		void close() throws IOException {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread safe streaming histogram of non-negative values (e.g. prices in minor units) which
+ * answers the percentile and histogram queries without holding the values. The values are counted
+ * in log-linear buckets in the style of the HDR histogram: the values below {@link #SUB_BUCKETS}
+ * are counted exactly and each higher power of two is split into {@link #SUB_BUCKETS} buckets
+ * of the same width, so the relative error of a returned percentile is below 2 %.
+ * <br>
+ * The buckets of a power of two are allocated when its first value is added, so the memory
+ * is bounded by the range of the values (at most a few kilobytes) regardless of their number.
+ * The values are added lock-free and the sketch can be queried while it is being updated,
+ * the queries then see a consistent subset of the added values.
+ */
+public class PriceSketch {
+
+	/** The number of the buckets of each power of two. */
+	public static final int SUB_BUCKETS = 32;
+
+	/** The largest value which is counted exactly, the larger values are counted as this value. */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+	private static final int BLOCKS = 64 - Long.numberOfLeadingZeros(MAX_VALUE) - SUB_BITS + 1;
+
+	//Block 0 are the exact values below SUB_BUCKETS, block b > 0 the values in [2^(b+SUB_BITS-1), 2^(b+SUB_BITS)).
+	private final AtomicReferenceArray<AtomicLongArray> blocks = new AtomicReferenceArray<>(BLOCKS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Adds a value.
+	 * @param value the value
+	 * @throws IllegalArgumentException if the value is negative
+	 */
+	public void add(long value){
+		add(value, 1);
+	}
+
+	/**
+	 * Adds a value several times.
+	 * @param value the value
+	 * @param times how many times the value is added
+	 * @throws IllegalArgumentException if the value or the number of times is negative
+	 */
+	public void add(long value, long times){
+		if (value < 0)
+			throw new IllegalArgumentException("The value cannot be negative: " + value);
+		if (times < 0)
+			throw new IllegalArgumentException("The number of times cannot be negative: " + times);
+		if (times == 0)
+			return;
+		value = Math.min(value, MAX_VALUE);
+		long m;
+		//The bounds first, so the values of the buckets are always within the bounds.
+		while (value < (m = min.get()) && !min.compareAndSet(m, value));
+		while (value > (m = max.get()) && !max.compareAndSet(m, value));
+		int block = blockOf(value);
+		block(block).addAndGet(subBucketOf(value, block), times);
+		sum.addAndGet(value * times);
+		count.addAndGet(times); //Last, so the count never exceeds the counted values.
+	}
+
+	/**
+	 * Adds all the values of another sketch to this sketch.
+	 * @param other the other sketch
+	 */
+	public void add(PriceSketch other){
+		long m;
+		long otherMin = other.min.get();
+		while (otherMin < (m = min.get()) && !min.compareAndSet(m, otherMin));
+		long otherMax = other.max.get();
+		while (otherMax > (m = max.get()) && !max.compareAndSet(m, otherMax));
+		for (int b = 0; b < BLOCKS; b++){
+			AtomicLongArray counts = other.blocks.get(b);
+			if (counts == null)
+				continue;
+			for (int i = 0; i < SUB_BUCKETS; i++){
+				long c = counts.get(i);
+				if (c > 0)
+					block(b).addAndGet(i, c);
+			}
+		}
+		sum.addAndGet(other.sum.get());
+		count.addAndGet(other.count.get());
+	}
+
+	private AtomicLongArray block(int block){
+		AtomicLongArray counts = blocks.get(block);
+		if (counts == null){
+			blocks.compareAndSet(block, null, new AtomicLongArray(SUB_BUCKETS));
+			counts = blocks.get(block);
+		}
+		return counts;
+	}
+
+	private static int blockOf(long value){
+		if (value < SUB_BUCKETS)
+			return 0;
+		return 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+	}
+
+	private static int subBucketOf(long value, int block){
+		if (block == 0)
+			return (int) value;
+		return (int) (value >>> (block - 1)) - SUB_BUCKETS;
+	}
+
+	/**
+	 * Returns the lowest value of a bucket.
+	 */
+	private static long lowestOf(int block, int subBucket){
+		if (block == 0)
+			return subBucket;
+		return (long) (SUB_BUCKETS + subBucket) << (block - 1);
+	}
+
+	/**
+	 * Returns the number of the values of a bucket.
+	 */
+	private static long widthOf(int block){
+		return (block == 0) ? 1 : 1L << (block - 1);
+	}
+
+	/**
+	 * Copies the current counts of the buckets.
+	 * @return the counts indexed by block * SUB_BUCKETS + sub-bucket
+	 */
+	private long[] snapshot(){
+		long[] counts = new long[BLOCKS * SUB_BUCKETS];
+		for (int b = 0; b < BLOCKS; b++){
+			AtomicLongArray block = blocks.get(b);
+			if (block != null)
+				for (int i = 0; i < SUB_BUCKETS; i++)
+					counts[b * SUB_BUCKETS + i] = block.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the number of the added values.
+	 * @return the count
+	 */
+	public long getCount(){
+		return count.get();
+	}
+
+	/**
+	 * Returns whether no value has been added yet.
+	 * @return <code>true</code> if the sketch is empty
+	 */
+	public boolean isEmpty(){
+		return count.get() == 0;
+	}
+
+	/**
+	 * Returns the lowest added value.
+	 * @return the minimum or -1 if the sketch is empty
+	 */
+	public long getMin(){
+		return isEmpty() ? -1 : min.get();
+	}
+
+	/**
+	 * Returns the highest added value.
+	 * @return the maximum or -1 if the sketch is empty
+	 */
+	public long getMax(){
+		return isEmpty() ? -1 : max.get();
+	}
+
+	/**
+	 * Returns the exact arithmetic mean of the added values.
+	 * @return the mean or -1 if the sketch is empty
+	 */
+	public double getMean(){
+		long n = count.get();
+		return (n == 0) ? -1 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the value at a given quantile, e.g. 0.5 for the median or 0.9 for the 90th percentile.
+	 * The value is the middle of the bucket of the value with the rank <code>ceil(quantile * count)</code>,
+	 * so it is within 2 % of the real value. The quantiles 0 and 1 are the exact minimum and maximum.
+	 * @param quantile the quantile from 0 to 1
+	 * @return the value or -1 if the sketch is empty
+	 * @throws IllegalArgumentException if the quantile is not from 0 to 1
+	 */
+	public long getQuantile(double quantile){
+		if (!(quantile >= 0 && quantile <= 1))
+			throw new IllegalArgumentException("The quantile must be from 0 to 1: " + quantile);
+		long[] counts = snapshot();
+		long total = 0;
+		for (long c : counts)
+			total += c;
+		if (total == 0)
+			return -1;
+		long lowest = min.get();
+		long highest = max.get();
+		if (quantile == 0)
+			return lowest;
+		if (quantile == 1)
+			return highest;
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++){
+			seen += counts[i];
+			if (seen >= rank){
+				int block = i / SUB_BUCKETS;
+				long value = lowestOf(block, i % SUB_BUCKETS) + (widthOf(block) - 1) / 2;
+				return Math.max(lowest, Math.min(highest, value));
+			}
+		}
+		return highest;
+	}
+
+	/**
+	 * Returns the approximate number of the added values lower than a given value. The values
+	 * in the bucket of the given value are counted in proportion to its position in the bucket.
+	 * @param value the value
+	 * @return the number of the lower values
+	 */
+	public long getCountBelow(long value){
+		return countBelow(snapshot(), value);
+	}
+
+	private static long countBelow(long[] counts, long value){
+		if (value <= 0)
+			return 0;
+		value = Math.min(value, MAX_VALUE);
+		int block = blockOf(value);
+		int bucket = block * SUB_BUCKETS + subBucketOf(value, block);
+		long below = 0;
+		for (int i = 0; i < bucket; i++)
+			below += counts[i];
+		long offset = value - lowestOf(block, bucket % SUB_BUCKETS);
+		return below + counts[bucket] * offset / widthOf(block);
+	}
+
+	/**
+	 * Returns the approximate histogram of the added values with given bounds of the bins.
+	 * The bin <code>i</code> counts the values from <code>bounds[i - 1]</code> (inclusive)
+	 * to <code>bounds[i]</code> (exclusive), the first bin counts the values below
+	 * <code>bounds[0]</code> and the last bin the values from the last bound up.
+	 * @param bounds the ascending bounds of the bins
+	 * @return the counts of the <code>bounds.length + 1</code> bins
+	 * @throws IllegalArgumentException if the bounds are not ascending
+	 */
+	public long[] getHistogram(long... bounds){
+		for (int i = 1; i < bounds.length; i++)
+			if (bounds[i] <= bounds[i - 1])
+				throw new IllegalArgumentException("The bounds must be ascending: " + bounds[i - 1] + ", " + bounds[i]);
+		long[] counts = snapshot();
+		long total = 0;
+		for (long c : counts)
+			total += c;
+		long[] bins = new long[bounds.length + 1];
+		long previous = 0;
+		for (int i = 0; i < bounds.length; i++){
+			long below = countBelow(counts, bounds[i]);
+			bins[i] = below - previous;
+			previous = below;
+		}
+		bins[bounds.length] = total - previous;
+		return bins;
+	}
+
+	@Override
+	public String toString(){
+		if (isEmpty())
+			return getClass().getSimpleName() + "[ empty]";
+		return getClass().getSimpleName() + "[ count: " + getCount() + ", min: " + getMin()
+				+ ", median: " + getQuantile(0.5) + ", p90: " + getQuantile(0.9) + ", max: " + getMax() + "]";
+	}
+}
@@ -0,0 +1,262 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.Currency;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * The distribution of the prices found by one search, kept in {@link PriceSketch}es which are
+ * updated by the {@link SearchExecutor} as the results arrive. There are sketches of the prices
+ * of each card finder, of each card finder and value of a card attribute (e.g. the median price
+ * of the rare cards or the 90th percentile of an edition) and of the premium of each card finder
+ * versus the cheapest card finder of a card. The prices are in the display currency of the search.
+ * <br>
+ * The memory does not depend on the number of the results: the number of the distinct values
+ * of each attribute is limited to {@link #MAX_ATTRIBUTE_VALUES} per card finder, the further values
+ * are counted together as {@link #OTHER_VALUE}. The statistics can be queried at any time during
+ * and after the search.
+ */
+public class PriceStatistics {
+
+	/** The maximal number of the distinct values of an attribute kept for each card finder. */
+	public static final int MAX_ATTRIBUTE_VALUES = 64;
+
+	/** The value of an attribute which stands for all the values over the limit. */
+	public static final String OTHER_VALUE = "(other)";
+
+	/** The premium of the cheapest card finder of a card, see {@link #getPremiums(CardFinder)}. */
+	public static final int NO_PREMIUM = 1000;
+
+	/**
+	 * An attribute of the found cards by which the prices are grouped.
+	 */
+	public enum Attribute {
+		/** The edition of the card. */
+		EDITION,
+		/** The rarity of the card (common, uncommon etc.), only some card finders find it. */
+		RARITY;
+
+		/**
+		 * Returns the value of this attribute of a card result.
+		 * @param result the card result
+		 * @return the trimmed value or <code>null</code> if the result does not have it
+		 */
+		public String valueOf(CardResult result){
+			String value = (this == EDITION) ? result.getEdition() : result.getType();
+			if (value == null || (value = value.trim()).isEmpty())
+				return null;
+			return value;
+		}
+	}
+
+	private final ResultMatrix matrix;
+	private final Currency currency;
+	private final FinderStatistics[] finders;
+	private final AtomicIntegerArray pendingFinders;	//Card id -> the number of the finders without a result
+	private final AtomicLong comparedCards = new AtomicLong();
+
+	/**
+	 * Creates empty statistics of a search.
+	 * @param matrix the result matrix of the search
+	 * @param currency the display currency of the search
+	 */
+	PriceStatistics(ResultMatrix matrix, Currency currency){
+		this.matrix = matrix;
+		this.currency = currency;
+		finders = new FinderStatistics[matrix.getFinderCount()];
+		for (int i = 0; i < finders.length; i++)
+			finders[i] = new FinderStatistics();
+		pendingFinders = new AtomicIntegerArray(matrix.getCardCount());
+		for (int i = 0; i < matrix.getCardCount(); i++)
+			pendingFinders.set(i, matrix.getFinderCount());
+	}
+
+	/**
+	 * Records a result of the search. Must be invoked once for each card and card finder, after the result
+	 * was normalized and stored in the result matrix. When the card has a result from all the card finders,
+	 * the premiums of the card finders which found it are recorded.
+	 * @param cardId the id of the card
+	 * @param finderId the id of the card finder
+	 * @param result the card result or <code>null</code> / {@link CardResult#NULL_CARD_RESULT} if the card was not found
+	 */
+	void record(int cardId, int finderId, CardResult result){
+		if (result != null && result != CardResult.NULL_CARD_RESULT)
+			finders[finderId].record(result);
+		if (pendingFinders.decrementAndGet(cardId) == 0)
+			recordPremiums(cardId);
+	}
+
+	/**
+	 * Records the premium of each card finder which found a card versus the cheapest one.
+	 * The cards found by less than two card finders are not compared.
+	 */
+	private void recordPremiums(int cardId){
+		int finderCount = matrix.getFinderCount();
+		long[] prices = new long[finderCount];
+		long cheapest = Long.MAX_VALUE;
+		int found = 0;
+		for (int f = 0; f < finderCount; f++){
+			CardResult result = matrix.get(cardId, f);
+			if (result == null || result == CardResult.NULL_CARD_RESULT){
+				prices[f] = -1;
+				continue;
+			}
+			prices[f] = result.getNormalizedPrice().getMinorUnits();
+			cheapest = Math.min(cheapest, prices[f]);
+			found++;
+		}
+		if (found < 2 || cheapest <= 0)
+			return;
+		for (int f = 0; f < finderCount; f++)
+			if (prices[f] >= 0)
+				finders[f].premiums.add((prices[f] * NO_PREMIUM + cheapest / 2) / cheapest);
+		comparedCards.incrementAndGet();
+	}
+
+	/**
+	 * Returns the currency of the prices.
+	 * @return the display currency of the search
+	 */
+	public Currency getCurrency(){
+		return currency;
+	}
+
+	/**
+	 * Returns the prices found by a card finder.
+	 * @param finder the card finder or <code>null</code> for all the card finders of the search
+	 * @return the sketch of the prices in the minor units, a merged copy if the finder is <code>null</code>
+	 * @throws IllegalArgumentException if the card finder is not part of the search
+	 */
+	public PriceSketch getPrices(CardFinder finder){
+		if (finder != null)
+			return finders[checkFinder(finder)].prices;
+		PriceSketch all = new PriceSketch();
+		for (FinderStatistics fs : finders)
+			all.add(fs.prices);
+		return all;
+	}
+
+	/**
+	 * Returns the prices of the cards with a given value of an attribute found by a card finder,
+	 * e.g. the prices of the rare cards.
+	 * @param finder the card finder or <code>null</code> for all the card finders of the search
+	 * @param attribute the attribute
+	 * @param value the value of the attribute, the case is ignored
+	 * @return the sketch of the prices in the minor units, empty if there is no such value
+	 * @throws IllegalArgumentException if the card finder is not part of the search
+	 */
+	public PriceSketch getPrices(CardFinder finder, Attribute attribute, String value){
+		String key = value.trim().toLowerCase(Locale.ROOT);
+		if (finder != null){
+			PriceSketch sketch = finders[checkFinder(finder)].values.get(attribute).get(key);
+			return (sketch == null) ? new PriceSketch() : sketch;
+		}
+		PriceSketch all = new PriceSketch();
+		for (FinderStatistics fs : finders){
+			PriceSketch sketch = fs.values.get(attribute).get(key);
+			if (sketch != null)
+				all.add(sketch);
+		}
+		return all;
+	}
+
+	/**
+	 * Returns the distinct values of an attribute of the cards found by any card finder.
+	 * @param attribute the attribute
+	 * @return the sorted values in lower case, including {@link #OTHER_VALUE} if the limit was exceeded
+	 */
+	public Set<String> getValues(Attribute attribute){
+		Set<String> values = new TreeSet<>();
+		for (FinderStatistics fs : finders)
+			values.addAll(fs.values.get(attribute).keySet());
+		return values;
+	}
+
+	/**
+	 * Returns the premiums of a card finder versus the cheapest card finder of each card. The premium
+	 * is the price of the card finder divided by the lowest price of the card in thousandths, so
+	 * {@link #NO_PREMIUM} (1000) means the card finder was the cheapest and e.g. 1150 means it was
+	 * 15 % more expensive. Only the cards found by at least two card finders are compared and only
+	 * when all the card finders have searched for them, so the cards of a stopped search or
+	 * a failed card finder are not compared.
+	 * @param finder the card finder
+	 * @return the sketch of the premiums
+	 * @throws IllegalArgumentException if the card finder is not part of the search
+	 */
+	public PriceSketch getPremiums(CardFinder finder){
+		return finders[checkFinder(finder)].premiums;
+	}
+
+	/**
+	 * Returns the number of the cards whose prices were compared for the premiums.
+	 * @return the number of the compared cards
+	 */
+	public long getComparedCardCount(){
+		return comparedCards.get();
+	}
+
+	private int checkFinder(CardFinder finder){
+		int finderId = matrix.getFinderId(finder);
+		if (finderId < 0)
+			throw new IllegalArgumentException("No such finder in the search: " + finder);
+		return finderId;
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + getPrices(null) + ", compared cards: " + comparedCards + "]";
+	}
+
+	/**
+	 * The sketches of one card finder.
+	 */
+	private static class FinderStatistics {
+
+		final PriceSketch prices = new PriceSketch();
+		final PriceSketch premiums = new PriceSketch();
+		final Map<Attribute, ConcurrentMap<String, PriceSketch>> values = new EnumMap<>(Attribute.class);
+
+		FinderStatistics(){
+			for (Attribute a : Attribute.values())
+				values.put(a, new ConcurrentHashMap<String, PriceSketch>());
+		}
+
+		void record(CardResult result){
+			long price = result.getNormalizedPrice().getMinorUnits();
+			prices.add(price);
+			for (Map.Entry<Attribute, ConcurrentMap<String, PriceSketch>> e : values.entrySet()){
+				String value = e.getKey().valueOf(result);
+				if (value != null)
+					sketchOf(e.getValue(), value.toLowerCase(Locale.ROOT)).add(price);
+			}
+		}
+
+		private static PriceSketch sketchOf(ConcurrentMap<String, PriceSketch> sketches, String value){
+			PriceSketch sketch = sketches.get(value);
+			if (sketch != null)
+				return sketch;
+			synchronized (sketches) {
+				sketch = sketches.get(value);
+				if (sketch == null){
+					if (sketches.size() >= MAX_ATTRIBUTE_VALUES)
+						value = OTHER_VALUE;
+					sketch = sketches.get(value);
+					if (sketch == null){
+						sketch = new PriceSketch();
+						sketches.put(value, sketch);
+					}
+				}
+			}
+			return sketch;
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CurrencyConverter;
+import sk.lkce.mtgp.domain.ExchangeRates;
+
+/**
+ * A long-lived pricing engine which is independent of any user interface. It owns everything
+ * which is worth keeping between the searches: the card finders, the pool of the search workers,
+ * the currency converter, the cache of the found prices and the price history. Each search is a lightweight session
+ * ({@link SearchExecutor}) created by the engine, so all the front ends of the application
+ * can share one warmed-up engine.
+ */
+public class PricingEngine {
+
+	/**
+	 * The default directory with the application data and local configuration.
+	 */
+	public static final File APPLICATION_DIRECTORY = new File(System.getProperty("user.home"), ".mtg-pricer");
+
+	/** The default maximal age of the cached prices reused by a new search in milliseconds. */
+	public static final long DEFAULT_CACHE_MAX_AGE = 15 * 60 * 1000L;
+
+	private final File directory;
+	private final List<CardFinder> finders;
+	private final ForkJoinPool pool;
+	private final CurrencyConverter converter;
+	private final PriceCache priceCache = new PriceCache();
+	private final SearchObserver cacheRecorder = priceCache.createRecorder();
+	private final PriceHistoryStore history;
+	private final SearchObserver historyRecorder;
+	private final OfflinePriceSource offlineSource;
+	private final NegativeIndex negativeIndex;
+	private final FinderSelector finderSelector;
+	private final SearchObserver negativeIndexSaver = new SearchObserverAdapter() {
+		@Override
+		public void searchingFinished(boolean interrupted) {
+			saveNegativeIndex();
+			saveFinderSelector();
+		}
+	};
+	private volatile long cacheMaxAge = DEFAULT_CACHE_MAX_AGE;
+	private volatile boolean offline;
+
+	/**
+	 * Creates an engine with the {@link #APPLICATION_DIRECTORY} and the default parallelism.
+	 */
+	public PricingEngine(){
+		this(APPLICATION_DIRECTORY, SearchExecutor.DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * Creates an engine.
+	 * @param directory the directory with the application data (exchange rates, journals)
+	 * @param parallelism the number of the worker threads of the searches
+	 * @throws IllegalArgumentException if the parallelism is not positive
+	 */
+	public PricingEngine(File directory, int parallelism){
+		if (parallelism < 1)
+			throw new IllegalArgumentException("The parallelism must be positive: " + parallelism);
+		this.directory = directory;
+		//The kept-alive HTTP connections are pooled by the platform, let it keep one for each worker.
+		if (System.getProperty("http.maxConnections") == null)
+			System.setProperty("http.maxConnections", String.valueOf(Math.max(5, parallelism)));
+		finders = Collections.unmodifiableList(CardFinderFactory.allCardFinders());
+		pool = new ForkJoinPool(parallelism);
+		ExchangeRates rates = ExchangeRates.loadOrDefaults(directory);
+		converter = new CurrencyConverter(rates, rates.getBase());
+		history = openHistory(new File(directory, PriceHistoryStore.DIRECTORY_NAME));
+		historyRecorder = (history == null) ? null : history.createRecorder();
+		offlineSource = new OfflinePriceSource(priceCache, history);
+		negativeIndex = loadNegativeIndex(new File(directory, NegativeIndex.FILE_NAME));
+		finderSelector = loadFinderSelector(new File(directory, FinderSelector.FILE_NAME));
+	}
+
+	/**
+	 * Opens the price history. The engine works without the history if it cannot be opened,
+	 * e.g. when another instance of the application is running.
+	 */
+	private static PriceHistoryStore openHistory(File dir){
+		try {
+			return PriceHistoryStore.open(dir);
+		} catch (IOException e) {
+			System.err.println("The prices are not recorded: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Loads the index of the misses. The engine starts with an empty index if it cannot be read.
+	 */
+	private static NegativeIndex loadNegativeIndex(File file){
+		try {
+			return NegativeIndex.load(file);
+		} catch (IOException e) {
+			System.err.println("The negative index is not used: " + e.getMessage());
+			return new NegativeIndex();
+		}
+	}
+
+	/**
+	 * Loads the history of the card finder selector. The engine starts without any history if it cannot be read.
+	 */
+	private static FinderSelector loadFinderSelector(File file){
+		try {
+			return FinderSelector.load(file);
+		} catch (IOException e) {
+			System.err.println("The card finder history is not used: " + e.getMessage());
+			return new FinderSelector();
+		}
+	}
+
+	/**
+	 * Saves the index of the misses if it has changed.
+	 */
+	private void saveNegativeIndex(){
+		if (!negativeIndex.isModified())
+			return;
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create the directory " + directory);
+			negativeIndex.save(new File(directory, NegativeIndex.FILE_NAME));
+		} catch (IOException e) {
+			System.err.println("Could not save the negative index: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Saves the history of the card finder selector if it has changed.
+	 */
+	private void saveFinderSelector(){
+		if (!finderSelector.isModified())
+			return;
+		try {
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("Could not create the directory " + directory);
+			finderSelector.save(new File(directory, FinderSelector.FILE_NAME));
+		} catch (IOException e) {
+			System.err.println("Could not save the card finder history: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates a new search session for given cards and card finders. The fresh results
+	 * from the price cache are reused, so only the rest is searched for. The results found
+	 * by the session are stored in the price cache.
+	 * @param cards the cards for which the price should be found
+	 * @param finders the finders which should look price of the cards
+	 * @return the search executor of the session, not started yet
+	 * @throws IllegalArgumentException if the converter does not support currency of any of the finders
+	 */
+	public SearchExecutor newSession(Collection<Card> cards, Collection<CardFinder> finders){
+		return newSession(cards, finders, cacheMaxAge);
+	}
+
+	/**
+	 * Creates a new search session for given cards and card finders which reuses the cached results
+	 * not older than a given age. The results found by the session are stored in the price cache.
+	 * The lookups which are almost certainly misses are postponed or skipped according to the policy
+	 * of the negative index, see {@link #getNegativeIndex()}. In the economy mode each card is searched for
+	 * only by the card finders which are likely to have its best price, see {@link #getFinderSelector()}.
+	 * If the engine is offline, the session does not search at all but takes the latest local result
+	 * of each card regardless of its age, see {@link #setOffline(boolean)}.
+	 * @param cards the cards for which the price should be found
+	 * @param finders the finders which should look price of the cards
+	 * @param maxAge the maximal age of the reused results in milliseconds, 0 to search for all the cards
+	 * @return the search executor of the session, not started yet
+	 * @throws IllegalArgumentException if the converter does not support currency of any of the finders
+	 */
+	public SearchExecutor newSession(Collection<Card> cards, Collection<CardFinder> finders, long maxAge){
+		return newSession(cards, finders, maxAge, true);
+	}
+
+	/**
+	 * Creates a new search session which checks the current prices of watched cards by one card finder.
+	 * Nothing is reused from the price cache and the lookups are neither postponed nor skipped by
+	 * the negative index, so each card is really searched for. The found results are stored in the price
+	 * cache and the price history as by the other sessions.
+	 * @param cards the watched cards
+	 * @param finder the card finder
+	 * @return the search executor of the session, not started yet
+	 * @see WatchlistScheduler
+	 */
+	SearchExecutor newWatchlistSession(Collection<Card> cards, CardFinder finder){
+		return newSession(cards, Collections.singletonList(finder), 0, false);
+	}
+
+	private SearchExecutor newSession(Collection<Card> cards, Collection<CardFinder> finders, long maxAge,
+			boolean predict){
+		SearchExecutor executor = new SearchExecutor(cards, finders, converter, pool);
+		if (offline){
+			//The local results are not stored again, they would look like the new ones.
+			executor.setOfflineSource(offlineSource);
+			return executor;
+		}
+		if (maxAge > 0){
+			ResultMatrix matrix = executor.getResultMatrix();
+			for (CardFinder finder : matrix.getFinders())
+				for (Card card : matrix.getCards()){
+					PriceCache.Entry e = priceCache.getFresh(finder, card, maxAge);
+					if (e != null)
+						executor.reuseResult(card, finder, e.getResult());
+				}
+		}
+		if (predict){
+			executor.setNegativeIndex(negativeIndex);
+			executor.setFinderSelector(finderSelector);
+			executor.addSearchObserver(negativeIndexSaver, null, EnumSet.of(SearchEventType.SEARCHING_FINISHED));
+		}
+		executor.addSearchObserver(cacheRecorder, null, EnumSet.of(SearchEventType.CARD_SEARCH_FINISHED));
+		if (historyRecorder != null)
+			executor.addSearchObserver(historyRecorder, null, EnumSet.of(SearchEventType.CARD_SEARCH_FINISHED,
+					SearchEventType.SEARCHING_FINISHED));
+		return executor;
+	}
+
+	/**
+	 * Takes a snapshot of the last known prices of the cards of a search which do not have a result yet,
+	 * regardless of their age. Should be invoked just before the search is started, after the results
+	 * of the previous searches were reused.
+	 * @param matrix the result matrix of the search
+	 * @return the last known prices
+	 */
+	public LastKnownPrices getLastKnownPrices(ResultMatrix matrix){
+		return new LastKnownPrices(matrix, offlineSource, converter);
+	}
+
+	/**
+	 * Returns all the card finders of this engine.
+	 * @return an unmodifiable list of the card finders
+	 */
+	public List<CardFinder> getCardFinders(){
+		return finders;
+	}
+
+	/**
+	 * Returns the card finder with a given name. The case of the name is ignored.
+	 * @param name the name of the card finder
+	 * @return the card finder or <code>null</code> if there is no such finder
+	 */
+	public CardFinder getCardFinder(String name){
+		for (CardFinder f : finders)
+			if (f.getName().equalsIgnoreCase(name.trim()))
+				return f;
+		return null;
+	}
+
+	/**
+	 * Returns the converter of the prices to the display currency used by the searches.
+	 * @return the currency converter
+	 */
+	public CurrencyConverter getCurrencyConverter(){
+		return converter;
+	}
+
+	/**
+	 * Returns the cache of the prices found by the searches of this engine.
+	 * @return the price cache
+	 */
+	public PriceCache getPriceCache(){
+		return priceCache;
+	}
+
+	/**
+	 * Returns the history of the prices found by the searches of this engine.
+	 * @return the price history or <code>null</code> if the prices are not recorded
+	 */
+	public PriceHistoryStore getPriceHistory(){
+		return history;
+	}
+
+	/**
+	 * Returns the index of the recent misses of the card finders. Its policy decides whether
+	 * the new searches postpone or skip the lookups which are almost certainly misses.
+	 * @return the negative index
+	 */
+	public NegativeIndex getNegativeIndex(){
+		return negativeIndex;
+	}
+
+	/**
+	 * Returns the selector of the card finders which learns which card finders have the best prices
+	 * of which cards. If it is enabled, the new searches are in the economy mode.
+	 * @return the card finder selector
+	 */
+	public FinderSelector getFinderSelector(){
+		return finderSelector;
+	}
+
+	/**
+	 * Returns the maximal age of the cached prices which are reused by a new search.
+	 * @return the maximal age in milliseconds
+	 */
+	public long getCacheMaxAge(){
+		return cacheMaxAge;
+	}
+
+	/**
+	 * Sets the maximal age of the cached prices which are reused by a new search.
+	 * @param maxAge the maximal age in milliseconds, 0 to search for all the prices again
+	 */
+	public void setCacheMaxAge(long maxAge){
+		if (maxAge < 0)
+			throw new IllegalArgumentException("The maximal age cannot be negative: " + maxAge);
+		cacheMaxAge = maxAge;
+	}
+
+	/**
+	 * Returns whether the new search sessions are offline.
+	 * @return <code>true</code> if the engine is offline
+	 */
+	public boolean isOffline(){
+		return offline;
+	}
+
+	/**
+	 * Sets whether the new search sessions are offline. An offline session makes no network
+	 * connections, each card finder answers from the local data only: the latest result in the price cache
+	 * or in the price history. The results are {@link OfflineCardResult}s with their source and age,
+	 * the cards without any local result are reported as not found. The running sessions are not affected.
+	 * @param offline <code>true</code> to make the new sessions offline
+	 */
+	public void setOffline(boolean offline){
+		this.offline = offline;
+	}
+
+	/**
+	 * Returns the directory with the application data.
+	 * @return the application directory
+	 */
+	public File getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * Returns the directory with the journals of the searches.
+	 * @return the journal directory
+	 * @see SearchJournal
+	 */
+	public File getJournalDirectory(){
+		return new File(directory, SearchJournal.DIRECTORY_NAME);
+	}
+
+	/**
+	 * Returns the number of the worker threads of the searches.
+	 * @return the parallelism
+	 */
+	public int getParallelism(){
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Shuts the engine down. The running searches are given a few seconds to finish, then the negative
+	 * index and the card finder history are saved and the price history is closed. No new search can be started.
+	 */
+	public void shutdown(){
+		pool.shutdown();
+		try {
+			pool.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		saveNegativeIndex();
+		saveFinderSelector();
+		if (history == null)
+			return;
+		try {
+			history.close();
+		} catch (IOException e) {
+			System.err.println("Could not close the price history: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + directory + ", parallelism: " + pool.getParallelism()
+				+ ", " + priceCache + "]";
+	}
+}
@@ -0,0 +1,136 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * A dense card &times; card finder matrix of the card results of one search.
+ * Each card and each card finder of the search is assigned a dense integer id (its
+ * position in the search) and the results are stored in a flat array indexed by these ids,
+ * so the results can be read by ids in constant time without any hashing.
+ * <br>
+ * The results are published lock-free: each stored result is immediately visible to
+ * the reading threads. Has read-only public interface.
+ */
+public class ResultMatrix {
+
+	private final List<Card> cards;
+	private final List<CardFinder> finders;
+	private final Map<Card, Integer> cardIds = new HashMap<>();
+	private final Map<CardFinder, Integer> finderIds = new HashMap<>();
+	private final AtomicReferenceArray<CardResult> results;
+
+	/**
+	 * Creates an empty result matrix for the given cards and finders. The ids
+	 * are assigned in the iteration order of the collections.
+	 * @param cards the cards of the search
+	 * @param finders the card finders of the search
+	 */
+	ResultMatrix(Collection<Card> cards, Collection<CardFinder> finders){
+		this.cards = Collections.unmodifiableList(new ArrayList<>(cards));
+		this.finders = Collections.unmodifiableList(new ArrayList<>(finders));
+		for (int i = 0; i < this.cards.size(); i++)
+			cardIds.put(this.cards.get(i), i);
+		for (int i = 0; i < this.finders.size(); i++)
+			finderIds.put(this.finders.get(i), i);
+		results = new AtomicReferenceArray<>(this.cards.size() * this.finders.size());
+	}
+
+	/**
+	 * Returns a card result for the given card and card finder ids. If there is no
+	 * corresponding card result yet, <code>null</code> is returned. If the
+	 * search for a given card was attempted but with no result,
+	 * {@link CardResult#NULL_CARD_RESULT} is returned.
+	 * @param cardId the id of the card
+	 * @param finderId the id of the card finder
+	 * @return the card result or <code>null</code>
+	 */
+	public CardResult get(int cardId, int finderId){
+		return results.get(cardId * finders.size() + finderId);
+	}
+
+	/**
+	 * Stores a card result for the given card and card finder ids.
+	 */
+	void set(int cardId, int finderId, CardResult result){
+		results.set(cardId * finders.size() + finderId, result);
+	}
+
+	/**
+	 * Returns the id of a card.
+	 * @param card the card
+	 * @return the id of the card or -1 if the card is not part of the search
+	 */
+	public int getCardId(Card card){
+		Integer id = cardIds.get(card);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * Returns the id of a card finder.
+	 * @param finder the card finder
+	 * @return the id of the card finder or -1 if the finder is not part of the search
+	 */
+	public int getFinderId(CardFinder finder){
+		Integer id = finderIds.get(finder);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * Returns the card with a given id.
+	 * @param cardId the id of the card
+	 * @return the card
+	 */
+	public Card getCard(int cardId){
+		return cards.get(cardId);
+	}
+
+	/**
+	 * Returns the card finder with a given id.
+	 * @param finderId the id of the card finder
+	 * @return the card finder
+	 */
+	public CardFinder getFinder(int finderId){
+		return finders.get(finderId);
+	}
+
+	/**
+	 * Returns the unmodifiable list of the cards ordered by their ids.
+	 * @return the cards of the search
+	 */
+	public List<Card> getCards(){
+		return cards;
+	}
+
+	/**
+	 * Returns the unmodifiable list of the card finders ordered by their ids.
+	 * @return the card finders of the search
+	 */
+	public List<CardFinder> getFinders(){
+		return finders;
+	}
+
+	/**
+	 * Returns the number of the cards in this matrix.
+	 * @return the number of the cards
+	 */
+	public int getCardCount(){
+		return cards.size();
+	}
+
+	/**
+	 * Returns the number of the card finders in this matrix.
+	 * @return the number of the card finders
+	 */
+	public int getFinderCount(){
+		return finders.size();
+	}
+}
@@ -0,0 +1,126 @@
+package sk.lkce.mtgp.cardsearch;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * An immutable event fired during the card search, as delivered by {@link SearchEventPublisher}.
+ * Each event corresponds to an invocation of one of the {@link SearchObserver} methods,
+ * the attributes which are not relevant for the event type are <code>null</code>.
+ */
+public class SearchEvent {
+
+	private final SearchEventType type;
+	private final CardFinder finder;
+	private final Card card;
+	private final CardResult result;
+	private final CardSearchResultSet results;
+	private final Throwable cause;
+	private final int numberOfCards;
+	private final boolean interrupted;
+
+	private SearchEvent(SearchEventType type, CardFinder finder, Card card, CardResult result,
+			CardSearchResultSet results, Throwable cause, int numberOfCards, boolean interrupted){
+		this.type = type;
+		this.finder = finder;
+		this.card = card;
+		this.result = result;
+		this.results = results;
+		this.cause = cause;
+		this.numberOfCards = numberOfCards;
+		this.interrupted = interrupted;
+	}
+
+	static SearchEvent searchStarted(int numberOfCards){
+		return new SearchEvent(SearchEventType.SEARCH_STARTED, null, null, null, null, null, numberOfCards, false);
+	}
+
+	static SearchEvent cardSearchStarted(Card card, CardFinder finder){
+		return new SearchEvent(SearchEventType.CARD_SEARCH_STARTED, finder, card, null, null, null, 0, false);
+	}
+
+	static SearchEvent cardSearchFinished(Card card, CardResult result, CardFinder finder){
+		return new SearchEvent(SearchEventType.CARD_SEARCH_FINISHED, finder, card, result, null, null, 0, false);
+	}
+
+	static SearchEvent searchThreadFinished(CardFinder finder, CardSearchResultSet results){
+		return new SearchEvent(SearchEventType.SEARCH_THREAD_FINISHED, finder, null, null, results, null, 0, false);
+	}
+
+	static SearchEvent searchThreadFailed(CardFinder finder, Throwable cause){
+		return new SearchEvent(SearchEventType.SEARCH_THREAD_FAILED, finder, null, null, null, cause, 0, false);
+	}
+
+	static SearchEvent searchingFinished(boolean interrupted){
+		return new SearchEvent(SearchEventType.SEARCHING_FINISHED, null, null, null, null, null, 0, interrupted);
+	}
+
+	/**
+	 * Returns the type of this event.
+	 * @return the event type
+	 */
+	public SearchEventType getType(){
+		return type;
+	}
+
+	/**
+	 * Returns the card finder involved.
+	 * @return the card finder or <code>null</code> for the events not related to a card finder
+	 */
+	public CardFinder getFinder(){
+		return finder;
+	}
+
+	/**
+	 * Returns the card involved.
+	 * @return the card or <code>null</code> for the events not related to a card
+	 */
+	public Card getCard(){
+		return card;
+	}
+
+	/**
+	 * Returns the result of the card search for the {@link SearchEventType#CARD_SEARCH_FINISHED} events.
+	 * @return the card result, <code>null</code> if the card was not found or for the other event types
+	 */
+	public CardResult getResult(){
+		return result;
+	}
+
+	/**
+	 * Returns the results of the card finder for the {@link SearchEventType#SEARCH_THREAD_FINISHED} events.
+	 * @return the card search result set or <code>null</code> for the other event types
+	 */
+	public CardSearchResultSet getResults(){
+		return results;
+	}
+
+	/**
+	 * Returns the cause of the failure for the {@link SearchEventType#SEARCH_THREAD_FAILED} events.
+	 * @return the cause or <code>null</code> for the other event types
+	 */
+	public Throwable getCause(){
+		return cause;
+	}
+
+	/**
+	 * Returns the number of the cards in the search for the {@link SearchEventType#SEARCH_STARTED} events.
+	 * @return the number of the cards or 0 for the other event types
+	 */
+	public int getNumberOfCards(){
+		return numberOfCards;
+	}
+
+	/**
+	 * Returns whether the search was interrupted for the {@link SearchEventType#SEARCHING_FINISHED} events.
+	 * @return <code>true</code> if the search was interrupted by the user
+	 */
+	public boolean isInterrupted(){
+		return interrupted;
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + type + ", " + finder + ", " + card + ", " + result + "]";
+	}
+}
@@ -0,0 +1,326 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import sk.lkce.mtgp.cardsearch.Flow.Subscriber;
+import sk.lkce.mtgp.cardsearch.Flow.Subscription;
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * A publisher of the search events as a backpressured stream. It observes the search
+ * and buffers the events for each subscriber separately, so a slow subscriber does not
+ * hold up the others. The events are delivered to a subscriber in order, only as many as it
+ * has requested, on the shared dispatch threads (never on the search threads).
+ * <br>
+ * When the buffer of a subscriber is full, the {@link OverflowPolicy} decides whether the search
+ * thread waits for the subscriber or the event is dropped. The events which finish a card finder
+ * or the whole search are never dropped and do not count to the capacity. The stream completes
+ * after the {@link SearchEventType#SEARCHING_FINISHED} event is delivered.
+ * @see SearchExecutor#createEventPublisher(int, OverflowPolicy)
+ */
+public class SearchEventPublisher implements Flow.Publisher<SearchEvent>, SearchObserver {
+
+	/**
+	 * What to do with an event when the buffer of a subscriber is full.
+	 */
+	public enum OverflowPolicy{
+		/** The new event is dropped and counted in {@link SearchEventPublisher#getDroppedCount()}. */
+		DROP,
+		/**
+		 * The search thread waits until the subscriber requests more events. A worker of a fork join pool
+		 * waits as a managed blocker, so the pool runs the other searches on a spare thread meanwhile.
+		 */
+		BLOCK
+	}
+
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final List<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile boolean completed;
+
+	/**
+	 * Creates a new publisher.
+	 * @param capacity the capacity of the buffer of each subscriber
+	 * @param policy the policy applied when the buffer is full
+	 * @throws IllegalArgumentException if the capacity is not positive
+	 */
+	public SearchEventPublisher(int capacity, OverflowPolicy policy){
+		if (capacity < 1)
+			throw new IllegalArgumentException("The capacity must be positive: " + capacity);
+		if (policy == null)
+			throw new NullPointerException("Overflow policy cannot be null");
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super SearchEvent> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("Subscriber cannot be null");
+		for (BufferedSubscription s : subscriptions)
+			if (s.subscriber == subscriber){
+				subscriber.onError(new IllegalStateException("Already subscribed: " + subscriber));
+				return;
+			}
+		BufferedSubscription subscription = new BufferedSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscriptions.add(subscription);
+		//Added first and checked then, so either this or searchingFinished() sees the other.
+		//The one which removes the subscription completes it.
+		if (completed && subscriptions.remove(subscription))
+			subscription.complete();
+	}
+
+	/**
+	 * Returns the number of the events dropped so far because of the full buffers (over all subscribers).
+	 * @return the number of the dropped events
+	 */
+	public long getDroppedCount(){
+		return droppedCount.get();
+	}
+
+	@Override
+	public void searchStarted(int numberOfCards) {
+		publish(SearchEvent.searchStarted(numberOfCards), false);
+	}
+
+	@Override
+	public void cardSearchStarted(Card card, CardFinder finder) {
+		publish(SearchEvent.cardSearchStarted(card, finder), false);
+	}
+
+	@Override
+	public void cardSearchFinished(Card card, CardResult result, CardFinder finder) {
+		publish(SearchEvent.cardSearchFinished(card, result, finder), false);
+	}
+
+	@Override
+	public void searchThreadFinished(CardFinder finder, CardSearchResultSet results) {
+		publish(SearchEvent.searchThreadFinished(finder, results), true);
+	}
+
+	@Override
+	public void searchThreadFailed(CardFinder finder, Throwable t) {
+		publish(SearchEvent.searchThreadFailed(finder, t), true);
+	}
+
+	@Override
+	public void searchingFinished(boolean interrupted) {
+		publish(SearchEvent.searchingFinished(interrupted), true);
+		completed = true;
+		for (BufferedSubscription s : subscriptions)
+			if (subscriptions.remove(s))
+				s.complete();
+	}
+
+	private void publish(SearchEvent event, boolean mandatory){
+		for (BufferedSubscription s : subscriptions)
+			s.offer(event, mandatory);
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ capacity: " + capacity + ", " + policy
+				+ ", subscribers: " + subscriptions.size() + "]";
+	}
+
+	/**
+	 * A subscription with its own bounded buffer of the events and the demand of the subscriber.
+	 */
+	private class BufferedSubscription implements Subscription, Runnable, ForkJoinPool.ManagedBlocker {
+
+		private final Subscriber<? super SearchEvent> subscriber;
+		private final Queue<SearchEvent> buffer = new ArrayDeque<>();
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition notFull = lock.newCondition();
+		//Guarded by lock
+		private long demand;
+		private boolean draining;
+		private boolean completing;
+		private boolean cancelled;
+		private Throwable error;
+
+		BufferedSubscription(Subscriber<? super SearchEvent> subscriber){
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			lock.lock();
+			try {
+				if (cancelled)
+					return;
+				if (n <= 0)
+					error = new IllegalArgumentException("The requested number of events must be positive: " + n);
+				else
+					demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+				scheduleDrain();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			lock.lock();
+			try {
+				cancelled = true;
+				buffer.clear();
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			subscriptions.remove(this);
+		}
+
+		/**
+		 * Adds an event to the buffer, applying the overflow policy if it is full.
+		 * @param mandatory whether the event must be delivered regardless of the capacity
+		 */
+		void offer(SearchEvent event, boolean mandatory){
+			lock.lock();
+			try {
+				while (!mandatory && policy == OverflowPolicy.BLOCK && !cancelled && buffer.size() >= capacity){
+					//The search threads belong to the shared pool of the engine, it must not lose them.
+					lock.unlock();
+					try {
+						ForkJoinPool.managedBlock(this);
+					} finally {
+						lock.lock();
+					}
+				}
+				if (cancelled || completing)
+					return;
+				if (!mandatory && buffer.size() >= capacity){
+					droppedCount.incrementAndGet();
+					return;
+				}
+				buffer.add(event);
+				scheduleDrain();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Waits until there is room in the buffer or the subscription is cancelled.
+		 */
+		@Override
+		public boolean block() throws InterruptedException {
+			lock.lock();
+			try {
+				while (!cancelled && buffer.size() >= capacity)
+					notFull.await();
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean isReleasable() {
+			if (!lock.tryLock())
+				return false;
+			try {
+				return cancelled || buffer.size() < capacity;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Completes the stream after the buffered events are delivered.
+		 */
+		void complete(){
+			lock.lock();
+			try {
+				completing = true;
+				scheduleDrain();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Starts the delivery unless it is already running. Must be invoked while holding the lock.
+		 */
+		private void scheduleDrain(){
+			if (!draining && !cancelled){
+				draining = true;
+				AsyncSearchObserver.DISPATCH_POOL.execute(this);
+			}
+		}
+
+		/**
+		 * Delivers the buffered events to the subscriber as long as it has demand.
+		 * Only one delivery runs at a time, so the subscriber is invoked sequentially.
+		 */
+		@Override
+		public void run() {
+			while (true){
+				SearchEvent event = null;
+				Throwable failure = null;
+				boolean done = false;
+				lock.lock();
+				try {
+					if (cancelled){
+						draining = false;
+						return;
+					}
+					if (error != null){
+						failure = error;
+						cancelled = true;
+					} else if (demand > 0 && !buffer.isEmpty()){
+						event = buffer.poll();
+						demand--;
+						notFull.signal();
+					} else if (completing && buffer.isEmpty()){
+						done = true;
+						cancelled = true;
+					} else {
+						draining = false;
+						return;
+					}
+				} finally {
+					lock.unlock();
+				}
+
+				try {
+					if (failure != null){
+						subscriber.onError(failure);
+					} else if (done){
+						subscriber.onComplete();
+					} else {
+						subscriber.onNext(event);
+						continue;
+					}
+				} catch (RuntimeException e) {
+					//A failing subscriber must not stop the dispatch thread.
+					e.printStackTrace();
+				}
+				//Terminated, no more signals for this subscriber.
+				subscriptions.remove(this);
+				lock.lock();
+				try {
+					buffer.clear();
+					notFull.signalAll();
+					draining = false;
+				} finally {
+					lock.unlock();
+				}
+				return;
+			}
+		}
+	}
+}
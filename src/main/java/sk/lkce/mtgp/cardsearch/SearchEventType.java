@@ -0,0 +1,35 @@
+package sk.lkce.mtgp.cardsearch;
+
+/**
+ * A type of the event fired during the card search. There is one event type
+ * for each method of {@link SearchObserver}.
+ * @see SearchExecutor#addSearchObserver(SearchObserver, CardFinder, java.util.Set)
+ */
+public enum SearchEventType {
+	
+	/** See {@link SearchObserver#searchStarted(int)}. Not related to any particular card finder. */
+	SEARCH_STARTED,
+	
+	/** See {@link SearchObserver#cardSearchStarted(sk.lkce.mtgp.domain.Card, CardFinder)}. */
+	CARD_SEARCH_STARTED,
+	
+	/** See {@link SearchObserver#cardSearchFinished(sk.lkce.mtgp.domain.Card, sk.lkce.mtgp.domain.CardResult, CardFinder)}. */
+	CARD_SEARCH_FINISHED,
+	
+	/** See {@link SearchObserver#searchThreadFinished(CardFinder, CardSearchResultSet)}. */
+	SEARCH_THREAD_FINISHED,
+	
+	/** See {@link SearchObserver#searchThreadFailed(CardFinder, Throwable)}. */
+	SEARCH_THREAD_FAILED,
+	
+	/** See {@link SearchObserver#searchingFinished(boolean)}. Not related to any particular card finder. */
+	SEARCHING_FINISHED;
+	
+	/**
+	 * Returns whether the events of this type are related to a particular card finder.
+	 * @return <code>true</code> if the events are fired for a card finder
+	 */
+	public boolean isFinderEvent(){
+		return this != SEARCH_STARTED && this != SEARCHING_FINISHED;
+	}
+}
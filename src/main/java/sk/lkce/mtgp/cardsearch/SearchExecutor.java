@@ -2,56 +2,310 @@ package sk.lkce.mtgp.cardsearch;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import sk.lkce.mtgp.domain.Card;
 import sk.lkce.mtgp.domain.CardResult;
-import sk.lkce.mtgp.gui.Controller.Phase;
+import sk.lkce.mtgp.domain.CurrencyConverter;
+import sk.lkce.mtgp.domain.Phase;
 
 /**
  * An executor of card search process. Searches for prices of {@link Card} with
- * collection of {@link CardFinder} objects. When started, each card finder runs
- * its job in a separate thread. All notifications to observers are therefore on
- * various worker threads and <b>NOT</b> on the EDT.
+ * collection of {@link CardFinder} objects. When started, the search of each card
+ * by each card finder is scheduled as a task on a shared work-stealing pool. Each card finder
+ * searches for one card at a time and the order of the tasks is given by the {@link SearchOrder}.
+ * All notifications to observers are therefore on various worker threads and <b>NOT</b> on the EDT.
  */
 public class SearchExecutor{
 
-	//To prevent concurrent modification exception when iterating 
-	//concurrently we use concurrent hash set - a set backed by 
-	private Set<SearchObserver> observers =
-			Collections.newSetFromMap(new ConcurrentHashMap <SearchObserver,Boolean>());
-	
+	/** The parallelism of the default pool shared by the search executors. */
+	public static final int DEFAULT_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+	/** The number of the cards a lane can be ahead of the slowest lane in the card major orders. */
+	private static final int MAX_LANE_LEAD = 2;
+
+	private static ForkJoinPool defaultPool;
+	private static ScheduledExecutorService pacingTimer;
+
 	private volatile boolean interruped;
-	private volatile int findersLeft;
-	private volatile Map<CardFinder, CardSearchResultSet> results;
+	private final AtomicInteger findersLeft = new AtomicInteger();
+	private final Map<CardFinder, CardSearchResultSet> results;
 	
 	private final Collection<CardFinder> finders;
 	private final Collection<Card> cards;
-	private Phase currentPhase;
+	private final CurrencyConverter converter;
+	private final ResultMatrix matrix;
+	private final PriceStatistics statistics;
+	private final ObserverRouter observers;
+	private final ForkJoinPool pool;
+	private volatile OfflinePriceSource offlineSource;	//Answers instead of the card finders if set
+	private volatile NegativeIndex negativeIndex;	//Predicts the misses, may be null
+	private volatile FinderSelector finderSelector;	//Selects the card finders of each card, may be null
+	private volatile FinderSelector.Plan plan;
+	private volatile Phase currentPhase;
+	private SearchOrder order = SearchOrder.FINDER_MAJOR;
+	private Map<Card, Long> cardWeights = Collections.emptyMap();
+	private long lookupSpacing;
+	private final Object laneLock = new Object();
+	private Queue<Lane> readyLanes;		//Guarded by laneLock
+	private final boolean[] pausedFinders;	//Guarded by laneLock
+	private final Lane[] parkedLanes;		//The lanes of the paused finders, guarded by laneLock
+	private final List<Lane> heldLanes = new ArrayList<>();	//The lanes too far ahead, guarded by laneLock
+	private Lane[] lanes;		//Guarded by laneLock
+	private int[] cardRanks;	//The positions of the cards in the common card order
+	private final Runnable stepTask = new Runnable() {
+		@Override
+		public void run() {
+			step();
+		}
+	};
 	
 	/**
 	 * Constructs a search executor which will execute search for a given list
-	 * of cards using the specified card finders.
+	 * of cards using the specified card finders. Each found card result is converted to the
+	 * display currency of the converter before it is stored.
+	 * @param cards the cards for which the price should be found
+	 * @param finders the finders which should look price of the cards
+	 * @param converter the converter of the prices to the display currency
+	 * @throws IllegalArgumentException if the converter does not support currency of any of the finders
+	 */
+	public SearchExecutor(Collection<Card> cards, Collection<CardFinder> finders, CurrencyConverter converter){
+		this(cards, finders, converter, getDefaultPool());
+	}
+
+	/**
+	 * Constructs a search executor which runs the search on a given pool.
 	 * @param cards the cards for which the price should be found
 	 * @param finders the finders which should look price of the cards
+	 * @param converter the converter of the prices to the display currency
+	 * @param pool the pool which runs the search tasks
+	 * @throws IllegalArgumentException if the converter does not support currency of any of the finders
 	 */
-	public SearchExecutor(Collection<Card> cards, Collection<CardFinder> finders){
+	public SearchExecutor(Collection<Card> cards, Collection<CardFinder> finders, CurrencyConverter converter,
+			ForkJoinPool pool){
+		for (CardFinder f : finders)
+			if (!converter.supports(f.getCurrency()))
+				throw new IllegalArgumentException("No exchange rate for the currency of " + f);
 		this.cards = cards;
 		this.finders = finders;
+		this.converter = converter;
+		this.pool = pool;
+		matrix = new ResultMatrix(cards, finders);
+		statistics = new PriceStatistics(matrix, converter.getDisplayCurrency());
+		observers = new ObserverRouter(matrix.getFinderCount());
+		pausedFinders = new boolean[matrix.getFinderCount()];
+		parkedLanes = new Lane[matrix.getFinderCount()];
 		currentPhase = Phase.SETTING;
-		results = new HashMap<>();
+		//Created up front and never modified, so the search threads can read it without locking.
+		Map<CardFinder, CardSearchResultSet> resultSets = new HashMap<>();
+		for (CardFinder f : finders)
+			resultSets.put(f, new CardSearchResultSet(f, matrix));
+		results = Collections.unmodifiableMap(resultSets);
+	}
+	
+	/**
+	 * Returns the pool shared by the search executors created without an explicit pool.
+	 * @return the default pool
+	 */
+	private static synchronized ForkJoinPool getDefaultPool(){
+		if (defaultPool == null)
+			defaultPool = new ForkJoinPool(DEFAULT_PARALLELISM);
+		return defaultPool;
+	}
+
+	/**
+	 * Returns the timer which returns the paced lanes to the ready queue.
+	 */
+	private static synchronized ScheduledExecutorService getPacingTimer(){
+		if (pacingTimer == null)
+			pacingTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "search-pacing");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return pacingTimer;
+	}
+
+	/**
+	 * Sets the minimal time between the starts of two lookups of one card finder. A card finder which
+	 * answers sooner waits for the rest of the time without holding a worker thread. The default is 0.
+	 * @param spacing the minimal time in milliseconds
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SETTING}
+	 */
+	public void setLookupSpacing(long spacing){
+		if (currentPhase != Phase.SETTING)
+			throw new IllegalStateException("The current phase is not " + Phase.SETTING);
+		if (spacing < 0)
+			throw new IllegalArgumentException("The spacing must not be negative: " + spacing);
+		lookupSpacing = spacing;
+	}
+
+	/**
+	 * Sets the order in which the cards are searched for. The default is {@link SearchOrder#FINDER_MAJOR}.
+	 * @param order the search order
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SETTING}
+	 */
+	public void setSearchOrder(SearchOrder order){
+		if (currentPhase != Phase.SETTING)
+			throw new IllegalStateException("The current phase is not " + Phase.SETTING);
+		if (order == null)
+			throw new NullPointerException("Search order cannot be null");
+		this.order = order;
+	}
+
+	/**
+	 * Returns the order in which the cards are searched for.
+	 * @return the search order
+	 */
+	public SearchOrder getSearchOrder(){
+		return order;
+	}
+
+	/**
+	 * Sets the weights of the cards for the {@link SearchOrder#PRIORITY} order. The cards with higher
+	 * weight are searched for first, the cards without weight are searched for last in their original order.
+	 * @param weights the card - weight map
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SETTING}
+	 * @see SearchOrder#computeWeights(sk.lkce.mtgp.domain.PricingSettings, Map)
+	 */
+	public void setCardWeights(Map<Card, Long> weights){
+		if (currentPhase != Phase.SETTING)
+			throw new IllegalStateException("The current phase is not " + Phase.SETTING);
+		cardWeights = new HashMap<>(weights);
+	}
+	
+	/**
+	 * Reuses the results of a previous search, so only the missing (card, card finder) pairs are searched for.
+	 * The results of the cards or card finders which are not part of this search are ignored.
+	 * The reused results are shared with the previous search, so they are never modified: the results
+	 * normalized to another display currency are copied and the copies are normalized with the converter of this search.
+	 * @param previousResults the result sets of the previous search
+	 * @return the number of the reused results
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SETTING}
+	 */
+	public int reuseResults(Collection<CardSearchResultSet> previousResults){
+		if (currentPhase != Phase.SETTING)
+			throw new IllegalStateException("The current phase is not " + Phase.SETTING);
+		int reused = 0;
+		for (CardSearchResultSet previous : previousResults)
+			for (Map.Entry<Card, CardResult> e : previous.getCardResults().entrySet())
+				if (reuseResult(e.getKey(), previous.getFinder(), e.getValue()))
+					reused++;
+		return reused;
+	}
+
+	/**
+	 * Reuses a result of a previous search unless the card or the card finder is not part of this search
+	 * or there is already a result for them.
+	 * @param card the card
+	 * @param finder the card finder
+	 * @param result the card result or {@link CardResult#NULL_CARD_RESULT} if the card was not found
+	 * @return <code>true</code> if the result was reused
+	 */
+	boolean reuseResult(Card card, CardFinder finder, CardResult result){
+		assert currentPhase == Phase.SETTING;
+		int cardId = matrix.getCardId(card);
+		int finderId = matrix.getFinderId(finder);
+		if (cardId < 0 || finderId < 0 || matrix.get(cardId, finderId) != null)
+			return false;
+		CardSearchResultSet theResults = results.get(finder);
+		if (result == CardResult.NULL_CARD_RESULT)
+			theResults.addNotFound(cardId);
+		else{
+			if (!converter.isNormalized(result)){
+				result = copyOf(result);
+				converter.normalize(result);
+			}
+			theResults.addCardResult(cardId, result);
+		}
+		statistics.record(cardId, finderId, result);
+		return true;
 	}
 	
+	/**
+	 * Returns an unpublished copy of a card result, so it can be normalized.
+	 */
+	private static CardResult copyOf(CardResult result){
+		if (result instanceof OfflineCardResult){
+			OfflineCardResult offline = (OfflineCardResult) result;
+			return new OfflineCardResult(offline.getName(), offline.getType(), offline.getEdition(), offline.getPrice(),
+					offline.getSource(), offline.getTimestamp());
+		}
+		return new CardResult(result.getName(), result.getType(), result.getEdition(), result.getPrice());
+	}
+
+	/**
+	 * Makes this search offline: the card finders are not asked at all, the results are taken
+	 * from the local data instead.
+	 * @param source the source of the local results
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SETTING}
+	 */
+	void setOfflineSource(OfflinePriceSource source){
+		if (currentPhase != Phase.SETTING)
+			throw new IllegalStateException("The current phase is not " + Phase.SETTING);
+		offlineSource = source;
+	}
+
+	/**
+	 * Sets the index of the recent misses which is used (according to its policy) to postpone or skip
+	 * the lookups which are almost certainly misses. The results of the real lookups are recorded in the index.
+	 * @param index the negative index
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SETTING}
+	 */
+	void setNegativeIndex(NegativeIndex index){
+		if (currentPhase != Phase.SETTING)
+			throw new IllegalStateException("The current phase is not " + Phase.SETTING);
+		negativeIndex = index;
+	}
+
+	/**
+	 * Sets the selector of the card finders which records the best prices of the cards and, in the economy mode,
+	 * decides which card finders search for which cards. The cards a card finder was not selected for
+	 * are left without its result, like after a stopped search.
+	 * @param selector the card finder selector
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SETTING}
+	 */
+	void setFinderSelector(FinderSelector selector){
+		if (currentPhase != Phase.SETTING)
+			throw new IllegalStateException("The current phase is not " + Phase.SETTING);
+		finderSelector = selector;
+	}
+
+	/**
+	 * Returns whether this search is offline, i.e. the results are taken from the local data
+	 * instead of the web sites of the card finders.
+	 * @return <code>true</code> if the search is offline
+	 * @see PricingEngine#setOffline(boolean)
+	 */
+	public boolean isOffline(){
+		return offlineSource != null;
+	}
+
 	/**
 	 * Stars the search. The current phase must be {@link Phase#SETTING } (first phase).
-	 * For each set {@link CardFiner} the search process is started
-	 * in separate thread.
+	 * For each set {@link CardFiner} a lane of the card searches is scheduled on the pool.
+	 * The cards which already have a result (see {@link #reuseResults(Collection)}) are skipped.
 	 * 
 	 * @throws IllegalStateException if the current phase is not {@link Phase#SETTING}
 	 */
@@ -60,12 +314,121 @@ public class SearchExecutor{
 			throw new IllegalStateException("The search cannot be started"
 					+ " because the current phase is not " + Phase.SETTING);
 		currentPhase = Phase.SEARCHING;
-		findersLeft = finders.size();
+		findersLeft.set(finders.size());
 		fireSearchStarted(cards.size());
-		for (CardFinder f : finders){
-			results.put(f, new CardSearchResultSet(f));
-			new Thread(new SearchRunnable(f)).start();
+
+		FinderSelector selector = finderSelector;
+		if (selector != null && offlineSource == null && matrix.getFinderCount() > 1)
+			plan = selector.plan(matrix);
+		int[] cardOrder = createCardOrder();
+		cardRanks = new int[cardOrder.length];
+		for (int i = 0; i < cardOrder.length; i++)
+			cardRanks[cardOrder[i]] = i;
+		readyLanes = new PriorityQueue<>(Math.max(1, matrix.getFinderCount()), createLaneComparator());
+		long startTime = System.currentTimeMillis();
+		Lane[] newLanes = new Lane[matrix.getFinderCount()];
+		for (int finderId = 0; finderId < newLanes.length; finderId++)
+			newLanes[finderId] = new Lane(finderId, createFinderOrder(cardOrder, finderId), startTime);
+		synchronized (laneLock) {
+			//All the lanes are ranked before any of them is scheduled, so none of them waits for an unranked one.
+			for (Lane lane : newLanes)
+				lane.rank = lane.nextRank();
+			lanes = newLanes;
+		}
+		for (Lane lane : newLanes)
+			schedule(lane);
+	}
+
+	/**
+	 * Returns the card ids in the order in which each card finder should search for them.
+	 */
+	private int[] createCardOrder(){
+		Integer[] ids = new Integer[matrix.getCardCount()];
+		for (int cardId = 0; cardId < ids.length; cardId++)
+			ids[cardId] = cardId;
+		if (order == SearchOrder.PRIORITY){
+			final long[] weights = new long[ids.length];
+			for (int cardId = 0; cardId < ids.length; cardId++){
+				Long weight = cardWeights.get(matrix.getCard(cardId));
+				weights[cardId] = (weight == null) ? Long.MIN_VALUE : weight;
+			}
+			//Stable, so the cards with equal weight keep their original order.
+			Arrays.sort(ids, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(weights[b], weights[a]);
+				}
+			});
+		}
+		int[] cardOrder = new int[ids.length];
+		for (int i = 0; i < ids.length; i++)
+			cardOrder[i] = ids[i];
+		return cardOrder;
+	}
+
+	/**
+	 * Returns the card order of a card finder. The cards the card finder was not selected for by the plan
+	 * and, with the {@link NegativeIndex.Policy#SKIP} policy, the skipped predicted misses are left out,
+	 * so their cells stay empty. With the {@link NegativeIndex.Policy#SEARCH_LAST} policy the predicted misses
+	 * of the card finder are moved to the end, otherwise it is the common order.
+	 */
+	private int[] createFinderOrder(int[] cardOrder, int finderId){
+		FinderSelector.Plan plan = this.plan;
+		NegativeIndex index = (offlineSource == null) ? negativeIndex : null;
+		CardFinder finder = matrix.getFinder(finderId);
+		boolean skipMisses = index != null && index.getPolicy() == NegativeIndex.Policy.SKIP;
+		if (plan != null || skipMisses){
+			int n = 0;
+			int[] selected = new int[cardOrder.length];
+			for (int cardId : cardOrder){
+				if (matrix.get(cardId, finderId) == null){
+					if (plan != null && plan.isSkipped(cardId, finderId))
+						continue;
+					if (skipMisses && index.shouldSkip(finder, matrix.getCard(cardId)))
+						continue;
+				}
+				selected[n++] = cardId;
+			}
+			cardOrder = Arrays.copyOf(selected, n);
 		}
+		if (index == null || index.getPolicy() != NegativeIndex.Policy.SEARCH_LAST)
+			return cardOrder;
+		int[] finderOrder = new int[cardOrder.length];
+		int first = 0;
+		int last = cardOrder.length;
+		//Stable for the likely hits, the likely misses are collected from the end and reversed back.
+		for (int cardId : cardOrder)
+			if (matrix.get(cardId, finderId) == null && index.isLikelyMissing(finder, matrix.getCard(cardId)))
+				finderOrder[--last] = cardId;
+			else
+				finderOrder[first++] = cardId;
+		for (int i = last, j = cardOrder.length - 1; i < j; i++, j--){
+			int t = finderOrder[i];
+			finderOrder[i] = finderOrder[j];
+			finderOrder[j] = t;
+		}
+		return finderOrder;
+	}
+
+	/**
+	 * Returns the comparator of the lanes which decides which lane gets the next free worker.
+	 */
+	private Comparator<Lane> createLaneComparator(){
+		if (order == SearchOrder.FINDER_MAJOR)
+			return new Comparator<Lane>() {
+				@Override
+				public int compare(Lane a, Lane b) {
+					return Integer.compare(a.finderId, b.finderId);
+				}
+			};
+		//The lanes which are behind go first, so the rows are completed one by one.
+		return new Comparator<Lane>() {
+			@Override
+			public int compare(Lane a, Lane b) {
+				int c = Integer.compare(a.rank, b.rank);
+				return (c != 0) ? c : Integer.compare(a.finderId, b.finderId);
+			}
+		};
 	}
 	
 	/**
@@ -77,6 +440,79 @@ public class SearchExecutor{
 		if (currentPhase != Phase.SEARCHING)
 			throw new IllegalStateException("The current phase is not " + Phase.SEARCHING);
 		interruped = true;
+		//The lanes of the paused finders need to finish as well.
+		List<Lane> parked = new ArrayList<>();
+		int released;
+		synchronized (laneLock) {
+			for (int finderId = 0; finderId < parkedLanes.length; finderId++){
+				if (parkedLanes[finderId] != null)
+					parked.add(parkedLanes[finderId]);
+				parkedLanes[finderId] = null;
+			}
+			released = releaseHeldLanes();
+		}
+		submitSteps(released);
+		for (Lane lane : parked)
+			schedule(lane);
+	}
+
+	/**
+	 * Pauses the search of a given card finder. The card which is being searched for is finished,
+	 * the rest of the cards stay queued until the card finder is resumed. The other card finders
+	 * go on and the search as a whole stays in the {@link Phase#SEARCHING} phase.
+	 * @param finder the card finder to be paused
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SEARCHING}
+	 * @throws IllegalArgumentException if the card finder is not part of this search
+	 */
+	public void pauseFinder(CardFinder finder){
+		int finderId = checkSearchingFinder(finder);
+		int released;
+		synchronized (laneLock) {
+			pausedFinders[finderId] = true;
+			//The other lanes do not wait for a paused one.
+			released = releaseHeldLanes();
+		}
+		submitSteps(released);
+	}
+
+	/**
+	 * Resumes the search of a paused card finder from the next card which has not been searched for yet.
+	 * Does nothing if the card finder is not paused.
+	 * @param finder the card finder to be resumed
+	 * @throws IllegalStateException if the current phase is not {@link Phase#SEARCHING}
+	 * @throws IllegalArgumentException if the card finder is not part of this search
+	 */
+	public void resumeFinder(CardFinder finder){
+		int finderId = checkSearchingFinder(finder);
+		Lane lane;
+		synchronized (laneLock) {
+			pausedFinders[finderId] = false;
+			lane = parkedLanes[finderId];
+			parkedLanes[finderId] = null;
+		}
+		if (lane != null)
+			schedule(lane);
+	}
+
+	/**
+	 * Returns whether the search of a given card finder is paused.
+	 * @param finder the card finder
+	 * @return <code>true</code> if the card finder is paused
+	 */
+	public boolean isFinderPaused(CardFinder finder){
+		int finderId = matrix.getFinderId(finder);
+		synchronized (laneLock) {
+			return finderId >= 0 && pausedFinders[finderId];
+		}
+	}
+
+	private int checkSearchingFinder(CardFinder finder){
+		if (currentPhase != Phase.SEARCHING)
+			throw new IllegalStateException("The current phase is not " + Phase.SEARCHING);
+		int finderId = matrix.getFinderId(finder);
+		if (finderId < 0)
+			throw new IllegalArgumentException("No such finder registered with this search executor: " + finder);
+		return finderId;
 	}
 	
 	/**
@@ -87,6 +523,14 @@ public class SearchExecutor{
 		return currentPhase;
 	}
 	
+	/**
+	 * Returns the converter of the prices to the display currency used by this search executor.
+	 * @return the currency converter
+	 */
+	public CurrencyConverter getCurrencyConverter(){
+		return converter;
+	}
+	
 	/**
 	 * Returns a collection of card finders assigned to this search executor.
 	 * @return assigned card finders  
@@ -95,6 +539,25 @@ public class SearchExecutor{
 		return Collections.unmodifiableCollection(finders);
 	}
 	
+	/**
+	 * Returns the dense card &times; card finder matrix of the results of this search.
+	 * The ids of the cards and finders in the matrix are their positions in the collections
+	 * passed to this search executor.
+	 * @return the result matrix
+	 */
+	public ResultMatrix getResultMatrix(){
+		return matrix;
+	}
+
+	/**
+	 * Returns the distribution of the prices found by this search. The statistics are updated
+	 * as the results arrive (including the reused ones) and can be queried at any time.
+	 * @return the price statistics
+	 */
+	public PriceStatistics getPriceStatistics(){
+		return statistics;
+	}
+
 	/**
 	 * Returns <strike>copy of</strike>  search results object for specific card finder.
 	 * @param cardFinder
@@ -126,52 +589,151 @@ public class SearchExecutor{
 	
 	
 	/**
-	 * Contains code invoked by search thread (with {@link SearchRunnable}.
-	 * This is not run on event dispatch thread.
-	 * @param finder card finder for the search
-	 * @throws IOException
+	 * Makes a lane ready for its next step and submits a step task to the pool, or parks it
+	 * if its card finder is paused. A lane is never in the ready queue more than once, so each
+	 * card finder searches for one card at a time. In the card major orders a lane which is more than
+	 * {@link #MAX_LANE_LEAD} cards ahead of the slowest lane is held until the slower lanes catch up.
 	 */
-	private void doSearch(CardFinder finder) throws IOException {
-		long timeStart = System.currentTimeMillis();
-		CardSearchResultSet theResults = this.results.get(finder);
-		
-		for (Card card : cards){
-			//Test if stopped.
-			if (interruped){
-				System.out.println("interrupted " + finder);
-				fireSearchThreadFinished(finder,results.get(finder)); //Finishing just this finder's worker thread.
-				
-				//If this is the last running thread consider the search to be finished.
-				if (--findersLeft < 1){ //TODO put in one method with the other part
-					assert currentPhase == Phase.SEARCHING;
-					currentPhase = Phase.PRICING_FINISHED;
-					System.out.println("interrupted " + finder);
-					fireSearchFinished(true);
-				}
-				return;
+	private void schedule(Lane lane){
+		int rank = lane.nextRank();
+		int steps = 0;
+		synchronized (laneLock) {
+			lane.rank = rank;
+			if (pausedFinders[lane.finderId] && !interruped)
+				parkedLanes[lane.finderId] = lane; //Stays parked until resumed.
+			else if (isTooFarAhead(lane))
+				heldLanes.add(lane);
+			else {
+				readyLanes.add(lane);
+				steps = 1 + releaseHeldLanes();
 			}
-			
-			//Starting...
-			fireCardSearchStarted(card, finder);
-			CardResult result = finder.findCheapestCard(card.getName());
-			
-			if (result == null)
-				theResults.addNotFound(card);
-			else
-				theResults.addCardResult(card, result);
-			//Ending...
-			fireCardSearchEnded(card, result, finder);
 		}
-		
-		theResults.setSearchTime(System.currentTimeMillis() - timeStart);
-		
-		fireSearchThreadFinished(finder,results.get(finder));
-		
-		//If this was the last search thread then mark the search as finished.
-		if (--findersLeft < 1){
+		submitSteps(steps);
+	}
+
+	/**
+	 * Returns whether a lane is too far ahead of the slowest lane which is neither finished nor paused.
+	 * The lanes which have no more cards are never held, so they can finish.
+	 */
+	private boolean isTooFarAhead(Lane lane){
+		assert Thread.holdsLock(laneLock);
+		if (order == SearchOrder.FINDER_MAJOR || interruped || lane.rank == Integer.MAX_VALUE)
+			return false;
+		int slowest = Integer.MAX_VALUE;
+		for (Lane l : lanes)
+			if (!pausedFinders[l.finderId])
+				slowest = Math.min(slowest, l.rank);
+		return lane.rank - slowest > MAX_LANE_LEAD;
+	}
+
+	/**
+	 * Moves the held lanes which are no longer too far ahead to the ready queue.
+	 * @return the number of the released lanes
+	 */
+	private int releaseHeldLanes(){
+		assert Thread.holdsLock(laneLock);
+		int released = 0;
+		for (Iterator<Lane> it = heldLanes.iterator(); it.hasNext(); ){
+			Lane lane = it.next();
+			if (!isTooFarAhead(lane)){
+				it.remove();
+				readyLanes.add(lane);
+				released++;
+			}
+		}
+		return released;
+	}
+
+	/**
+	 * Submits the step tasks of the lanes added to the ready queue.
+	 */
+	private void submitSteps(int count){
+		for (int i = 0; i < count; i++)
+			pool.execute(stepTask);
+	}
+
+	/**
+	 * Runs one step of the lane which is first in the search order.
+	 * Contains code invoked by the worker threads of the pool, not on event dispatch thread.
+	 */
+	private void step(){
+		Lane lane;
+		synchronized (laneLock) {
+			//The lanes which were paused while queued are parked.
+			while ((lane = readyLanes.poll()) != null && pausedFinders[lane.finderId] && !interruped)
+				parkedLanes[lane.finderId] = lane;
+		}
+		if (lane == null)
+			return;
+
+		CardSearchResultSet theResults = results.get(matrix.getFinder(lane.finderId));
+		if (interruped || !lane.hasNext()){
+			//Finishing just this finder's lane.
+			theResults.setSearchTime(System.currentTimeMillis() - lane.startTime);
+			fireSearchThreadFinished(lane.finderId, theResults);
+			laneDone(lane);
+			return;
+		}
+
+		long lookupStart = System.currentTimeMillis();
+		int cardId = lane.next();
+		Card card = matrix.getCard(cardId);
+		CardFinder finder = matrix.getFinder(lane.finderId);
+		fireCardSearchStarted(card, lane.finderId);
+		CardResult result;
+		OfflinePriceSource offline = offlineSource;
+		NegativeIndex index = (offline == null) ? negativeIndex : null;
+		try {
+			result = (offline != null) ? offline.find(finder, card) : finder.findCheapestCard(card.getName());
+		} catch (IOException | RuntimeException e) {
+			//The rest of the finder's cards are dropped.
+			System.err.println("Exception during search for " + finder + ": " + e.getMessage());
+			e.printStackTrace();
+			fireSearchThreadFailed(lane.finderId, e);
+			laneDone(lane);
+			return;
+		}
+
+		if (result == null)
+			theResults.addNotFound(cardId);
+		else{
+			converter.normalize(result);
+			theResults.addCardResult(cardId, result);
+		}
+		if (index != null)
+			index.record(finder, card, result);
+		statistics.record(cardId, lane.finderId, result);
+		FinderSelector.Plan plan = this.plan;
+		if (plan != null)
+			plan.lookupDone(cardId);
+		fireCardSearchEnded(card, result, lane.finderId);
+		long delay = lookupSpacing - (System.currentTimeMillis() - lookupStart);
+		if (delay > 0 && !interruped && lane.hasNext()){
+			final Lane paced = lane;
+			getPacingTimer().schedule(new Runnable() {
+				@Override
+				public void run() {
+					schedule(paced);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} else
+			schedule(lane);
+	}
+
+	/**
+	 * Marks one of the lanes as done, so the other lanes do not wait for it.
+	 * If this was the last lane then marks the search as finished.
+	 */
+	private void laneDone(Lane lane){
+		int released;
+		synchronized (laneLock) {
+			lane.rank = Integer.MAX_VALUE;
+			released = releaseHeldLanes();
+		}
+		submitSteps(released);
+		if (findersLeft.decrementAndGet() < 1){
 			currentPhase = Phase.PRICING_FINISHED;
-			System.out.println("Finishhing search");
-			fireSearchFinished(false);
+			fireSearchFinished(interruped);
 		}
 	}
 
@@ -181,48 +743,87 @@ public class SearchExecutor{
 	 */
 	
 	/**
-	 * Registers an observer to receive the notifications from the ongoing search. <p>
-	 * For each card finder, the observer's methods (with the exception of {@link SearchObserver#searchStarted(int)})
-	 * are invoked on a  separate worker thread <b>which is not the event dispatch thread.</b> 
+	 * Registers an observer to receive all the notifications from the ongoing search. <p>
+	 * The observer's methods (with the exception of {@link SearchObserver#searchStarted(int)})
+	 * are invoked on the worker threads of the pool <b>which are not the event dispatch thread.</b>
+	 * The notifications related to one card finder are never invoked concurrently.
 	 * @param observer the observer object
 	 * @see {@link CardFinder}
 	 */
 	public void addSearchObserver(SearchObserver observer){
-		boolean isNew = observers.add(observer);
+		addSearchObserver(observer, null, EnumSet.allOf(SearchEventType.class));
+	}
+	
+	/**
+	 * Registers an observer to receive only the notifications of given types and related to 
+	 * a given card finder. The observer is not invoked at all for the other events, so
+	 * it does not need to filter them. The events which are not related to any particular card finder
+	 * ({@link SearchEventType#SEARCH_STARTED}, {@link SearchEventType#SEARCHING_FINISHED}) are delivered
+	 * if their type is requested.<p>
+	 * The observer's methods are invoked on the search threads. A slow observer should be wrapped
+	 * in {@link AsyncSearchObserver} so it does not hold up the search.
+	 * @param observer the observer object
+	 * @param finder the card finder or <code>null</code> for all card finders of this search
+	 * @param types the types of the events to be delivered
+	 * @throws IllegalArgumentException if the card finder is not part of this search
+	 */
+	public void addSearchObserver(SearchObserver observer, CardFinder finder, Set<SearchEventType> types){
+		int finderId = -1;
+		if (finder != null){
+			finderId = matrix.getFinderId(finder);
+			if (finderId < 0)
+				throw new IllegalArgumentException("No such finder registered with this search executor: " + finder);
+		}
+		boolean isNew = observers.add(observer, finderId, types);
 		assert isNew;
 	}
 	
 
+	/**
+	 * Creates a publisher of the events of this search as a backpressured stream and registers it
+	 * to receive all the notifications. The subscribers receive the events on the dispatch threads
+	 * and only as many as they have requested.
+	 * @param capacity the capacity of the event buffer of each subscriber
+	 * @param policy the policy applied when the buffer of a subscriber is full
+	 * @return the event publisher
+	 * @see SearchEventPublisher
+	 */
+	public SearchEventPublisher createEventPublisher(int capacity, SearchEventPublisher.OverflowPolicy policy){
+		SearchEventPublisher publisher = new SearchEventPublisher(capacity, policy);
+		addSearchObserver(publisher);
+		return publisher;
+	}
+	
+
 	private void fireSearchStarted(int numberOfCards){
-		for (SearchObserver o : observers)
+		for (SearchObserver o : observers.get(SearchEventType.SEARCH_STARTED))
 			o.searchStarted(numberOfCards);
 	}
 	
 
-	private void fireCardSearchStarted(Card card, CardFinder finder){
-		for (SearchObserver o : observers){
-			o.cardSearchStarted(card, finder);
-		}
+	private void fireCardSearchStarted(Card card, int finderId){
+		for (SearchObserver o : observers.get(finderId, SearchEventType.CARD_SEARCH_STARTED))
+			o.cardSearchStarted(card, matrix.getFinder(finderId));
 	}
 	
-	private void fireCardSearchEnded(Card card, CardResult result, CardFinder finder){
-		for (SearchObserver o : observers)
-			o.cardSearchFinished(card, result, finder);
+	private void fireCardSearchEnded(Card card, CardResult result, int finderId){
+		for (SearchObserver o : observers.get(finderId, SearchEventType.CARD_SEARCH_FINISHED))
+			o.cardSearchFinished(card, result, matrix.getFinder(finderId));
 	}
 	
 
-	private void fireSearchThreadFinished(CardFinder finder, CardSearchResultSet theResults){
-		for (SearchObserver o : observers)
-				o.searchThreadFinished(finder, theResults);
+	private void fireSearchThreadFinished(int finderId, CardSearchResultSet theResults){
+		for (SearchObserver o : observers.get(finderId, SearchEventType.SEARCH_THREAD_FINISHED))
+				o.searchThreadFinished(matrix.getFinder(finderId), theResults);
 	}
 
-	private void fireSearchThreadFailed(CardFinder finder, Throwable t){
-		for (SearchObserver o : observers)
-				o.searchThreadFailed(finder, t);
+	private void fireSearchThreadFailed(int finderId, Throwable t){
+		for (SearchObserver o : observers.get(finderId, SearchEventType.SEARCH_THREAD_FAILED))
+				o.searchThreadFailed(matrix.getFinder(finderId), t);
 	}
 	
 	private void fireSearchFinished(boolean interrupted){
-		for (SearchObserver o : observers)
+		for (SearchObserver o : observers.get(SearchEventType.SEARCHING_FINISHED))
 				o.searchingFinished(interrupted);
 	}
 	
@@ -232,28 +833,43 @@ public class SearchExecutor{
 	
 	
 	/**
-	 * Runnable executed on a search thread. 
+	 * The sequence of the card searches of one card finder. Only one thread works with a lane at a time,
+	 * it is handed over between the threads through the ready queue.
 	 */
-	private class SearchRunnable implements Runnable {
+	private class Lane {
 
-		CardFinder finder;
+		final int finderId;
+		final int[] cardOrder;
+		final long startTime;
+		int position;
+		int rank;	//The rank of the card the lane searches for next, guarded by laneLock
 
-		SearchRunnable(CardFinder s) {
-			finder = s;
+		Lane(int finderId, int[] cardOrder, long startTime) {
+			this.finderId = finderId;
+			this.cardOrder = cardOrder;
+			this.startTime = startTime;
 		}
 
-		@Override
-		public void run() {
-			try {
-				doSearch(finder);
-			} catch (final IOException e) {
-				System.out.println("IO exception during search for " + finder
-						+ ": " + e.getMessage());
-				e.printStackTrace();
-				fireSearchThreadFailed(finder, e);
-			}
+		boolean hasNext(){
+			//Skip the cards with a reused result.
+			while (position < cardOrder.length && matrix.get(cardOrder[position], finderId) != null)
+				position++;
+			return position < cardOrder.length;
+		}
+
+		int next(){
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return cardOrder[position++];
+		}
+
+		/**
+		 * Returns the position of the next card in the common card order or {@link Integer#MAX_VALUE}
+		 * if there are no more cards. Moves past the reused results, so the lane is ordered by its real position.
+		 */
+		int nextRank(){
+			return hasNext() ? cardRanks[cardOrder[position]] : Integer.MAX_VALUE;
 		}
 	}
-		
 	
 }
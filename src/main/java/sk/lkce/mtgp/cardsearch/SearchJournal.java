@@ -0,0 +1,343 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
+
+/**
+ * An append-only journal of a search which allows to resume the search after it was stopped
+ * or the application was closed. There is one journal file for each combination of the cards
+ * and card finders. The header of the journal lists the cards and card finders of the search,
+ * so the cards which are still pending for each card finder are those without a result record.
+ * <br>
+ * The journal observes the search and only queues a record for each searched card, the records
+ * are written to the file in batches by a background thread every {@link #CHECKPOINT_INTERVAL}
+ * milliseconds. When the search finishes completely, the journal file is deleted.
+ * <br>
+ * The records are lines of tab separated fields:
+ * <pre>
+ * C  card name                                        (header: a card of the search)
+ * F  finder name                                      (header: a card finder of the search)
+ * R  finder name  card name  name  type  edition  price in minor units  currency
+ * N  finder name  card name                           (the card was not found)
+ * </pre>
+ */
+public class SearchJournal implements SearchObserver {
+
+	/** The name of the directory with the journals in the application directory. */
+	public static final String DIRECTORY_NAME = "journal";
+
+	/** The delay between two writes of the queued records in milliseconds. */
+	public static final int CHECKPOINT_INTERVAL = 1000;
+
+	private static final String SUFFIX = ".journal";
+	private static final String VERSION = "# mtg-pricer journal 1";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	private static final String END = new String("END"); //Unique instance, marks the end of the records.
+
+	private final File file;
+	private final Writer writer;	//Guarded by itself
+	private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+	private final Thread shutdownHook;
+	private volatile boolean failed;
+	private volatile boolean complete;
+
+	private SearchJournal(File file, Writer writer){
+		this.file = file;
+		this.writer = writer;
+		shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeQueued();
+			}
+		}, "search-journal-shutdown");
+	}
+
+	/**
+	 * Returns the journal file for a given search.
+	 * @param directory the directory with the journals
+	 * @param cards the cards of the search
+	 * @param finders the card finders of the search
+	 * @return the journal file (which may not exist)
+	 */
+	public static File getJournalFile(File directory, Collection<Card> cards, Collection<CardFinder> finders){
+		List<String> names = new ArrayList<>();
+		for (Card c : cards)
+			names.add("C" + c.getName());
+		for (CardFinder f : finders)
+			names.add("F" + f.getName());
+		Collections.sort(names); //The same deck gives the same journal regardless of the order.
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			for (String name : names){
+				digest.update(name.getBytes(CHARSET));
+				digest.update((byte) 0);
+			}
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest.digest())
+				sb.append(String.format("%02x", b));
+			return new File(directory, sb + SUFFIX);
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e); //SHA-1 is supported by every Java platform.
+		}
+	}
+
+	/**
+	 * Returns whether there is a journal of an unfinished search with given cards and card finders.
+	 * @param directory the directory with the journals
+	 * @param cards the cards of the search
+	 * @param finders the card finders of the search
+	 * @return <code>true</code> if the search can be resumed
+	 */
+	public static boolean exists(File directory, Collection<Card> cards, Collection<CardFinder> finders){
+		return getJournalFile(directory, cards, finders).isFile();
+	}
+
+	/**
+	 * Deletes the journal of a search if there is any.
+	 * @param directory the directory with the journals
+	 * @param cards the cards of the search
+	 * @param finders the card finders of the search
+	 */
+	public static void discard(File directory, Collection<Card> cards, Collection<CardFinder> finders){
+		File f = getJournalFile(directory, cards, finders);
+		if (f.isFile() && !f.delete())
+			System.err.println("Could not delete the journal " + f);
+	}
+
+	/**
+	 * Reads the journal of a search and passes the journaled results to the search executor, so only
+	 * the remaining cards are searched for. Must be invoked before the search is started.
+	 * The incomplete records (e.g. when the application was killed while writing) are skipped.
+	 * @param directory the directory with the journals
+	 * @param executor the search executor of the resumed search
+	 * @return the number of the restored results
+	 * @throws IOException if an I/O error occurs while reading the journal
+	 */
+	public static int resume(File directory, SearchExecutor executor) throws IOException {
+		File f = getJournalFile(directory, executor.getResultMatrix().getCards(),
+				executor.getResultMatrix().getFinders());
+		Map<String, CardFinder> finders = new HashMap<>();
+		for (CardFinder finder : executor.getResultMatrix().getFinders())
+			finders.put(finder.getName(), finder);
+
+		int restored = 0;
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f), CHARSET))){
+			String line;
+			while ((line = br.readLine()) != null){
+				String[] fields = line.split("\t", -1);
+				if (fields.length < 3 || !(fields[0].equals("R") || fields[0].equals("N")))
+					continue;
+				CardFinder finder = finders.get(unescape(fields[1]));
+				if (finder == null)
+					continue;
+				Card card = new Card(unescape(fields[2]));
+				CardResult result;
+				if (fields[0].equals("N"))
+					result = CardResult.NULL_CARD_RESULT;
+				else if (fields.length == 8){
+					try {
+						Money price = new Money(Long.parseLong(fields[6]), Currency.getInstance(fields[7]));
+						result = new CardResult(unescape(fields[3]), unescape(fields[4]), unescape(fields[5]), price);
+					} catch (IllegalArgumentException e) {
+						continue;
+					}
+				} else
+					continue;
+				if (executor.reuseResult(card, finder, result))
+					restored++;
+			}
+		}
+		return restored;
+	}
+
+	/**
+	 * Opens the journal of a search for appending and registers it to observe the search.
+	 * If the journal does not exist yet, it is created with the header describing the search.
+	 * @param directory the directory with the journals
+	 * @param executor the search executor of the search
+	 * @return the journal
+	 * @throws IOException if the journal cannot be opened
+	 */
+	public static SearchJournal open(File directory, SearchExecutor executor) throws IOException {
+		ResultMatrix matrix = executor.getResultMatrix();
+		File f = getJournalFile(directory, matrix.getCards(), matrix.getFinders());
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Could not create the directory " + directory);
+		boolean isNew = !f.isFile();
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f, true), CHARSET));
+		final SearchJournal journal = new SearchJournal(f, writer);
+		if (!isNew)
+			journal.queue.add(""); //Terminates the last record in case it was not written completely.
+		else{
+			journal.queue.add(VERSION);
+			for (Card c : matrix.getCards())
+				journal.queue.add("C\t" + escape(c.getName()));
+			for (CardFinder finder : matrix.getFinders())
+				journal.queue.add("F\t" + escape(finder.getName()));
+		}
+		Runtime.getRuntime().addShutdownHook(journal.shutdownHook);
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				journal.writeLoop();
+			}
+		}, "search-journal-writer");
+		t.setDaemon(true);
+		t.start();
+		executor.addSearchObserver(journal, null, EnumSet.of(SearchEventType.CARD_SEARCH_FINISHED,
+				SearchEventType.SEARCH_THREAD_FAILED, SearchEventType.SEARCHING_FINISHED));
+		return journal;
+	}
+
+	/**
+	 * Returns the journal file.
+	 * @return the file
+	 */
+	public File getFile(){
+		return file;
+	}
+
+	@Override
+	public void searchStarted(int numberOfCards) {
+		// Empty
+	}
+
+	@Override
+	public void cardSearchStarted(Card card, CardFinder finder) {
+		// Empty
+	}
+
+	@Override
+	public void cardSearchFinished(Card card, CardResult result, CardFinder finder) {
+		StringBuilder sb = new StringBuilder();
+		sb.append((result == null) ? "N" : "R").append('\t').append(escape(finder.getName()))
+			.append('\t').append(escape(card.getName()));
+		if (result != null){
+			Money price = result.getPrice();
+			sb.append('\t').append(escape(result.getName()))
+				.append('\t').append(escape(result.getType()))
+				.append('\t').append(escape(result.getEdition()))
+				.append('\t').append(price.getMinorUnits())
+				.append('\t').append(price.getCurrency().getCurrencyCode());
+		}
+		queue.add(sb.toString());
+	}
+
+	@Override
+	public void searchThreadFinished(CardFinder finder, CardSearchResultSet results) {
+		// Empty
+	}
+
+	@Override
+	public void searchThreadFailed(CardFinder finder, Throwable t) {
+		failed = true;
+	}
+
+	@Override
+	public void searchingFinished(boolean interrupted) {
+		complete = !interrupted && !failed;
+		queue.add(END);
+	}
+
+	/**
+	 * Writes the queued records in batches until the end of the search.
+	 * Runs on the writer thread.
+	 */
+	private void writeLoop(){
+		try {
+			while (!writeQueued())
+				Thread.sleep(CHECKPOINT_INTERVAL);
+		} catch (InterruptedException e) {
+			writeQueued();
+		}
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			//The application is exiting, the hook runs anyway.
+		}
+		synchronized (writer) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (complete && !file.delete())
+			System.err.println("Could not delete the journal " + file);
+	}
+
+	/**
+	 * Writes and flushes all the queued records.
+	 * @return <code>true</code> if the end of the records was reached
+	 */
+	private boolean writeQueued(){
+		List<String> batch = new ArrayList<>();
+		queue.drainTo(batch);
+		boolean end = false;
+		synchronized (writer) {
+			try {
+				for (String record : batch){
+					if (record == END){
+						end = true;
+						continue;
+					}
+					writer.write(record);
+					writer.write('\n');
+				}
+				writer.flush();
+			} catch (IOException e) {
+				//The journal is only a safety net, the search goes on without it.
+				System.err.println("Could not write to the journal " + file + ": " + e.getMessage());
+			}
+		}
+		return end;
+	}
+
+	private static String escape(String s){
+		if (s == null)
+			return "";
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String s){
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++){
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()){
+				char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+			} else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + file + "]";
+	}
+}
@@ -0,0 +1,36 @@
+package sk.lkce.mtgp.cardsearch;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * An abstract adapter class for receiving search events. The methods in this class are empty,
+ * it exists as convenience for creating observers interested in a few events only.
+ * @see SearchObserver
+ */
+public abstract class SearchObserverAdapter implements SearchObserver {
+
+	@Override
+	public void searchStarted(int numberOfCards) {
+	}
+
+	@Override
+	public void cardSearchStarted(Card card, CardFinder finder) {
+	}
+
+	@Override
+	public void cardSearchFinished(Card card, CardResult result, CardFinder finder) {
+	}
+
+	@Override
+	public void searchThreadFinished(CardFinder finder, CardSearchResultSet results) {
+	}
+
+	@Override
+	public void searchThreadFailed(CardFinder finder, Throwable t) {
+	}
+
+	@Override
+	public void searchingFinished(boolean interrupted) {
+	}
+}
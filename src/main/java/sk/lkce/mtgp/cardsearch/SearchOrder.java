@@ -0,0 +1,79 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.Money;
+import sk.lkce.mtgp.domain.PricingSettings;
+
+/**
+ * The order in which {@link SearchExecutor} schedules the (card, card finder) searches.
+ * Each card finder searches for one card at a time, the order decides which card it searches
+ * for next and which card finder gets a worker thread first when there are not enough of them.
+ */
+public enum SearchOrder {
+
+	/**
+	 * Each card finder walks the cards from the first to the last one and the card finders
+	 * are served in their order. The results fill the grid column by column.
+	 */
+	FINDER_MAJOR,
+
+	/**
+	 * The card finders which are behind with the cards are served first and a card finder does not
+	 * get more than a couple of cards ahead of the slowest one which is not paused, even if there are
+	 * free worker threads. The rows of the grid are completed one by one at the pace of the slowest card finder.
+	 */
+	CARD_MAJOR,
+
+	/**
+	 * Like {@link #CARD_MAJOR} but the cards with the highest weight (quantity &times; expected price)
+	 * are searched for first, so the deck totals are mostly known early in a long search.
+	 * @see SearchExecutor#setCardWeights(Map)
+	 */
+	PRIORITY;
+
+	/**
+	 * Computes the weights of the cards for the {@link #PRIORITY} order as the quantity of the card
+	 * multiplied by its expected price in minor units. The cards without an expected price
+	 * are given the average expected price of the others, so they are ordered by the quantity.
+	 * @param settings the pricing settings with the cards and their quantities
+	 * @param expectedPrices the expected prices of the cards in a single currency, can be empty
+	 * @return the card - weight map
+	 */
+	public static Map<Card, Long> computeWeights(PricingSettings settings, Map<Card, Money> expectedPrices){
+		Map<Card, Integer> quantities = new LinkedHashMap<>();
+		for (Card c : settings.getCards())
+			quantities.put(c, settings.getQuantity(c));
+		return computeWeights(quantities, expectedPrices);
+	}
+
+	/**
+	 * Computes the weights of the cards for the {@link #PRIORITY} order, see {@link #computeWeights(PricingSettings, Map)}.
+	 * @param quantities the card - card quantity map
+	 * @param expectedPrices the expected prices of the cards in a single currency, can be empty
+	 * @return the card - weight map
+	 */
+	public static Map<Card, Long> computeWeights(Map<Card, Integer> quantities, Map<Card, Money> expectedPrices){
+		long sum = 0;
+		int count = 0;
+		for (Card c : quantities.keySet()){
+			Money price = expectedPrices.get(c);
+			if (price != null){
+				sum += price.getMinorUnits();
+				count++;
+			}
+		}
+		long average = (count == 0) ? 1 : Math.max(1, sum / count);
+
+		Map<Card, Long> weights = new HashMap<>();
+		for (Map.Entry<Card, Integer> e : quantities.entrySet()){
+			Money price = expectedPrices.get(e.getKey());
+			long unitPrice = (price == null) ? average : price.getMinorUnits();
+			weights.put(e.getKey(), e.getValue() * unitPrice);
+		}
+		return weights;
+	}
+}
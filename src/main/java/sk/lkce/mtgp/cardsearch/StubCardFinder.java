@@ -0,0 +1,87 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
+
+/**
+ * A card finder of a local stub vendor which never connects to any web site. It finds every card
+ * after a fixed latency, the price depends only on the card name, so the measurements of the searches
+ * (see {@link sk.lkce.mtgp.server.PricingServerBenchmark}) are repeatable and do not load the real vendors.
+ */
+public class StubCardFinder extends CardFinder {
+
+	private final String name;
+	private final Currency currency;
+	private final long latency;
+	private final AtomicLong lookupCount = new AtomicLong();
+
+	/**
+	 * Creates a stub card finder.
+	 * @param name the name of the card finder
+	 * @param currency the currency of the prices
+	 * @param latency the time of each lookup in milliseconds
+	 */
+	public StubCardFinder(String name, Currency currency, long latency){
+		if (latency < 0)
+			throw new IllegalArgumentException("The latency must not be negative: " + latency);
+		this.name = name;
+		this.currency = currency;
+		this.latency = latency;
+	}
+
+	@Override
+	List<CardResult> getCardResults(String normalizedCardName) throws IOException {
+		lookupCount.incrementAndGet();
+		try {
+			Thread.sleep(latency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("The lookup of " + normalizedCardName + " was interrupted");
+		}
+		List<CardResult> results = new ArrayList<>();
+		long price = 10 + (normalizedCardName.toLowerCase().hashCode() & 0x7fffffff) % 1000;
+		results.add(new CardResult(normalizedCardName, "C", "Stub", new Money(price, currency)));
+		return results;
+	}
+
+	/**
+	 * Returns the number of the lookups made by this card finder.
+	 * @return the number of the lookups
+	 */
+	public long getLookupCount(){
+		return lookupCount.get();
+	}
+
+	@Override
+	public String getURL() {
+		return "http://localhost/" + name;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public Currency getCurrency() {
+		return currency;
+	}
+
+	@Override
+	public URL getURLForCard(String cardName) {
+		try {
+			return new URL(getURL() + "?card=" + cardName.replace(' ', '+'));
+		} catch (MalformedURLException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
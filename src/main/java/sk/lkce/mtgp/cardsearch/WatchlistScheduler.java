@@ -0,0 +1,538 @@
+package sk.lkce.mtgp.cardsearch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * Keeps the prices of a watchlist of cards fresh by re-searching each card by each card finder
+ * on its own schedule. The refresh interval of each card and card finder follows the observed
+ * volatility of the price: the relative price change per unit of time since the price was last seen
+ * is smoothed by an exponentially weighted moving average and the next check is planned when the price
+ * is expected to move by half of the change threshold. The interval is kept between the minimal and
+ * maximal interval and grows at most twice per check, so the cards with stable prices are checked
+ * less and less often while the moving ones are checked often.
+ * <br>
+ * The checks of each card finder are made in batches: when a check is due, the checks which come due
+ * within the {@link #BATCH_WINDOW} are made with it by one search session, at most as many as the rate budget
+ * (requests per minute) of the card finder allows per minute. The lookups of a batch are spaced evenly
+ * by the budget (see {@link SearchExecutor#setLookupSpacing(long)}) and the next batch of the card finder starts
+ * after the previous one is finished and its last slot has passed, so the web site never gets more than
+ * its rate budget. The first checks of the watched cards are spread over the initial interval.
+ * <br>
+ * The checks run as search sessions of the pricing engine which bypass its price cache and its negative
+ * index, and the found prices refresh the cache. A {@link PriceChange} is sent to the listeners when a price moves by more than
+ * the change threshold or the card appears or disappears at the web site.
+ */
+public class WatchlistScheduler {
+
+	/** The default minimal refresh interval in milliseconds. */
+	public static final long DEFAULT_MIN_INTERVAL = 15 * 60 * 1000L;
+	/** The default refresh interval of the cards without any history in milliseconds. */
+	public static final long DEFAULT_INITIAL_INTERVAL = 6 * 60 * 60 * 1000L;
+	/** The default maximal refresh interval in milliseconds. */
+	public static final long DEFAULT_MAX_INTERVAL = 7 * 24 * 60 * 60 * 1000L;
+	/** The default relative price change which is reported, 5 %. */
+	public static final double DEFAULT_CHANGE_THRESHOLD = 0.05;
+	/** The default number of the checks of one card finder per minute. */
+	public static final int DEFAULT_RATE_BUDGET = 30;
+	/**
+	 * The time in milliseconds within which the checks of a card finder which come due are made together,
+	 * at most a quarter of the minimal interval.
+	 */
+	public static final long BATCH_WINDOW = 60 * 1000L;
+
+	//The weight of the newest observation in the volatility average.
+	private static final double ALPHA = 0.3;
+
+	/**
+	 * A listener of the significant price changes of the watched cards.
+	 */
+	public interface Listener {
+
+		/**
+		 * Invoked when a watched price changed by more than the change threshold.
+		 * Invoked on the worker threads of the pricing engine.
+		 * @param change the price change
+		 */
+		void priceChanged(PriceChange change);
+	}
+
+	private final PricingEngine engine;
+	private final Object lock = new Object();
+	private final Map<Card, List<Entry>> entries = new HashMap<>();		//Guarded by lock
+	private final Map<CardFinder, Vendor> vendors = new HashMap<>();	//Guarded by lock
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final Random random = new Random();
+	private long minInterval = DEFAULT_MIN_INTERVAL;
+	private long initialInterval = DEFAULT_INITIAL_INTERVAL;
+	private long maxInterval = DEFAULT_MAX_INTERVAL;
+	private volatile double changeThreshold = DEFAULT_CHANGE_THRESHOLD;
+	private Thread thread;	//Guarded by lock
+
+	/**
+	 * Creates a scheduler which searches by a given engine. The scheduler is not started yet.
+	 * @param engine the pricing engine
+	 */
+	public WatchlistScheduler(PricingEngine engine){
+		this.engine = engine;
+	}
+
+	/**
+	 * Sets the bounds of the refresh intervals. Applies to the intervals planned from now on.
+	 * @param min the minimal interval in milliseconds
+	 * @param initial the interval of the cards without any history in milliseconds
+	 * @param max the maximal interval in milliseconds
+	 * @throws IllegalArgumentException if the intervals are not positive and ordered
+	 */
+	public void setIntervals(long min, long initial, long max){
+		if (min < 1 || initial < min || max < initial)
+			throw new IllegalArgumentException("Invalid intervals: " + min + ", " + initial + ", " + max);
+		synchronized (lock) {
+			minInterval = min;
+			initialInterval = initial;
+			maxInterval = max;
+		}
+	}
+
+	/**
+	 * Sets the relative price change which is reported to the listeners and drives the intervals.
+	 * @param threshold the threshold, e.g. 0.05 for 5 %
+	 */
+	public void setChangeThreshold(double threshold){
+		if (!(threshold > 0))
+			throw new IllegalArgumentException("The threshold must be positive: " + threshold);
+		changeThreshold = threshold;
+	}
+
+	/**
+	 * Sets how many checks a card finder can get per minute.
+	 * @param finder the card finder
+	 * @param requestsPerMinute the rate budget
+	 */
+	public void setRateBudget(CardFinder finder, int requestsPerMinute){
+		if (requestsPerMinute < 1)
+			throw new IllegalArgumentException("The rate budget must be positive: " + requestsPerMinute);
+		synchronized (lock) {
+			vendor(finder).spacing = 60000L / requestsPerMinute;
+			lock.notifyAll();
+		}
+	}
+
+	public void addListener(Listener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Adds a card to the watchlist of all the card finders of the engine.
+	 * @param card the card
+	 */
+	public void watch(Card card){
+		watch(card, engine.getCardFinders());
+	}
+
+	/**
+	 * Adds a card to the watchlist of given card finders. The card finders which already watch the card
+	 * keep their schedule.
+	 * @param card the card
+	 * @param finders the card finders
+	 */
+	public void watch(Card card, Collection<CardFinder> finders){
+		synchronized (lock) {
+			List<Entry> list = entries.get(card);
+			if (list == null)
+				entries.put(card, list = new ArrayList<>());
+			long now = System.currentTimeMillis();
+			outer:
+			for (CardFinder finder : finders){
+				for (Entry e : list)
+					if (e.finder.equals(finder))
+						continue outer;
+				Entry e = new Entry(card, finder, initialInterval);
+				//The first checks are spread, so a large watchlist does not come due at once.
+				e.nextDue = now + (long) (random.nextDouble() * initialInterval);
+				list.add(e);
+				vendor(finder).due.add(e);
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Removes a card from the watchlist.
+	 * @param card the card
+	 */
+	public void unwatch(Card card){
+		synchronized (lock) {
+			List<Entry> list = entries.remove(card);
+			if (list == null)
+				return;
+			for (Entry e : list){
+				e.removed = true;
+				vendor(e.finder).due.remove(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of the watched cards.
+	 * @return the watchlist size
+	 */
+	public int size(){
+		synchronized (lock) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns the current refresh interval of a card and card finder.
+	 * @param card the card
+	 * @param finder the card finder
+	 * @return the interval in milliseconds or -1 if the card is not watched by the card finder
+	 */
+	public long getInterval(Card card, CardFinder finder){
+		synchronized (lock) {
+			Entry e = entry(card, finder);
+			return (e == null) ? -1 : e.interval;
+		}
+	}
+
+	/**
+	 * Returns the last result of a card and card finder.
+	 * @param card the card
+	 * @param finder the card finder
+	 * @return the card result, {@link CardResult#NULL_CARD_RESULT} if the card was not found or
+	 * <code>null</code> if it was not checked yet or is not watched
+	 */
+	public CardResult getLastResult(Card card, CardFinder finder){
+		synchronized (lock) {
+			Entry e = entry(card, finder);
+			return (e == null) ? null : e.lastResult;
+		}
+	}
+
+	private Entry entry(Card card, CardFinder finder){
+		assert Thread.holdsLock(lock);
+		List<Entry> list = entries.get(card);
+		if (list != null)
+			for (Entry e : list)
+				if (e.finder.equals(finder))
+					return e;
+		return null;
+	}
+
+	/**
+	 * Starts checking the watched cards on a background thread.
+	 * @throws IllegalStateException if the scheduler is already running
+	 */
+	public void start(){
+		synchronized (lock) {
+			if (thread != null)
+				throw new IllegalStateException("The scheduler is already running");
+			thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					schedule();
+				}
+			}, "watchlist-scheduler");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops planning new checks. The checks in progress are finished.
+	 */
+	public void stop(){
+		synchronized (lock) {
+			if (thread != null)
+				thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Starts the due batches of the checks, each card finder one batch at a time, and sleeps until the next one.
+	 * Runs on the scheduler thread.
+	 */
+	private void schedule(){
+		try {
+			while (true){
+				List<List<Entry>> ready = new ArrayList<>();
+				synchronized (lock) {
+					if (thread != Thread.currentThread())
+						return;
+					long now = System.currentTimeMillis();
+					long wake = Long.MAX_VALUE;
+					for (Vendor v : vendors.values()){
+						Entry e = v.due.peek();
+						if (e == null || v.checking)
+							continue; //A running batch wakes the scheduler when it is finished.
+						if (Math.max(e.nextDue, v.nextSlot) <= now){
+							List<Entry> batch = new ArrayList<>();
+							int max = (int) Math.max(1, 60000L / v.spacing);
+							long until = now + Math.min(BATCH_WINDOW, minInterval / 4);
+							while ((e = v.due.peek()) != null && e.nextDue <= until && batch.size() < max)
+								batch.add(v.due.poll());
+							v.checking = true;
+							v.nextSlot = now + batch.size() * v.spacing;
+							ready.add(batch);
+							continue;
+						}
+						wake = Math.min(wake, Math.max(e.nextDue, v.nextSlot));
+					}
+					if (ready.isEmpty()){
+						if (wake == Long.MAX_VALUE)
+							lock.wait();
+						else
+							lock.wait(Math.max(1, wake - now));
+					}
+				}
+				for (List<Entry> batch : ready)
+					check(batch);
+			}
+		} catch (InterruptedException e) {
+			//Stopped.
+		}
+	}
+
+	/**
+	 * Searches for the cards of a batch of the entries of one card finder by one search session
+	 * whose lookups start at least the spacing of the card finder apart.
+	 */
+	private void check(List<Entry> batch){
+		final CardFinder finder = batch.get(0).finder;
+		long spacing;
+		synchronized (lock) {
+			spacing = vendor(finder).spacing;
+		}
+		final Map<Card, Entry> unchecked = new HashMap<>();
+		for (Entry e : batch)
+			unchecked.put(e.card, e);
+		try {
+			//The cached price is what is being checked, so it is never reused.
+			SearchExecutor executor = engine.newWatchlistSession(new ArrayList<>(unchecked.keySet()), finder);
+			executor.setLookupSpacing(spacing);
+			executor.addSearchObserver(new SearchObserverAdapter() {
+
+				private volatile long lastStart;
+
+				@Override
+				public void cardSearchStarted(Card card, CardFinder f) {
+					lastStart = System.currentTimeMillis();
+				}
+
+				@Override
+				public void cardSearchFinished(Card card, CardResult result, CardFinder f) {
+					Entry e;
+					synchronized (unchecked) {
+						e = unchecked.remove(card);
+					}
+					if (e != null)
+						checked(e, (result == null) ? CardResult.NULL_CARD_RESULT : result);
+				}
+
+				@Override
+				public void searchingFinished(boolean interrupted) {
+					batchFinished(finder, unchecked, lastStart);
+				}
+			}, null, EnumSet.of(SearchEventType.CARD_SEARCH_STARTED, SearchEventType.CARD_SEARCH_FINISHED,
+					SearchEventType.SEARCHING_FINISHED));
+			executor.startSearch();
+		} catch (RuntimeException e) {
+			//E.g. the engine was shut down, the checks are retried later.
+			System.err.println("Could not check the watched prices of " + finder + ": " + e);
+			batchFinished(finder, unchecked, 0);
+		}
+	}
+
+	/**
+	 * Plans the entries of a batch which were not checked (the search failed) again and lets the card finder
+	 * start its next batch, not sooner than the spacing after the last lookup of this one.
+	 * @param lastStart when the last lookup of the batch started, 0 if none did
+	 */
+	private void batchFinished(CardFinder finder, Map<Card, Entry> unchecked, long lastStart){
+		List<Entry> failed;
+		synchronized (unchecked) {
+			failed = new ArrayList<>(unchecked.values());
+			unchecked.clear();
+		}
+		for (Entry e : failed)
+			checked(e, null);
+		synchronized (lock) {
+			Vendor v = vendor(finder);
+			v.checking = false;
+			v.nextSlot = Math.max(v.nextSlot, lastStart + v.spacing);
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Updates the volatility and interval of an entry with the result of its check, plans the next check
+	 * and notifies the listeners about a significant change.
+	 * @param result the found result or <code>null</code> if the check failed
+	 */
+	private void checked(Entry entry, CardResult result){
+		PriceChange change = null;
+		synchronized (lock) {
+			long now = System.currentTimeMillis();
+			if (result != null){
+				CardResult old = entry.lastResult;
+				if (old != null){
+					double r = relativeChange(old, result);
+					double rate = r / Math.max(1, now - entry.lastSeen);
+					entry.volatility = (entry.volatility < 0) ? rate : ALPHA * rate + (1 - ALPHA) * entry.volatility;
+					long target = (entry.volatility > 0) ? (long) (changeThreshold / 2 / entry.volatility) : maxInterval;
+					entry.interval = Math.max(minInterval, Math.min(maxInterval, Math.min(target, 2 * entry.interval)));
+					if (r > changeThreshold)
+						change = new PriceChange(entry.card, entry.finder, old, result, r);
+				}
+				entry.lastResult = result;
+				entry.lastSeen = now;
+			}
+			//A failed check is retried after the same interval.
+			entry.nextDue = now + entry.interval;
+			if (!entry.removed){
+				vendor(entry.finder).due.add(entry);
+				lock.notifyAll();
+			}
+		}
+		if (change != null)
+			for (Listener l : listeners)
+				l.priceChanged(change);
+	}
+
+	/**
+	 * Returns the relative change between two results. A card which appeared or disappeared changed by 100 %.
+	 */
+	private static double relativeChange(CardResult old, CardResult now){
+		boolean wasFound = old != CardResult.NULL_CARD_RESULT;
+		boolean isFound = now != CardResult.NULL_CARD_RESULT;
+		if (!wasFound || !isFound)
+			return (wasFound == isFound) ? 0 : 1;
+		long a = old.getNormalizedPrice().getMinorUnits();
+		long b = now.getNormalizedPrice().getMinorUnits();
+		return (a == 0) ? ((b == 0) ? 0 : 1) : Math.abs(b - a) / (double) a;
+	}
+
+	private Vendor vendor(CardFinder finder){
+		Vendor v = vendors.get(finder);
+		if (v == null)
+			vendors.put(finder, v = new Vendor());
+		return v;
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ cards: " + size() + ", threshold: " + changeThreshold + "]";
+	}
+
+	/**
+	 * A price change of a watched card.
+	 */
+	public static class PriceChange {
+
+		private final Card card;
+		private final CardFinder finder;
+		private final CardResult oldResult;
+		private final CardResult newResult;
+		private final double relativeChange;
+
+		PriceChange(Card card, CardFinder finder, CardResult oldResult, CardResult newResult, double relativeChange){
+			this.card = card;
+			this.finder = finder;
+			this.oldResult = oldResult;
+			this.newResult = newResult;
+			this.relativeChange = relativeChange;
+		}
+
+		public Card getCard(){
+			return card;
+		}
+
+		public CardFinder getFinder(){
+			return finder;
+		}
+
+		/**
+		 * Returns the previous result.
+		 * @return the result or {@link CardResult#NULL_CARD_RESULT} if the card was not found
+		 */
+		public CardResult getOldResult(){
+			return oldResult;
+		}
+
+		/**
+		 * Returns the new result.
+		 * @return the result or {@link CardResult#NULL_CARD_RESULT} if the card is not found any more
+		 */
+		public CardResult getNewResult(){
+			return newResult;
+		}
+
+		/**
+		 * Returns the relative change of the price, 1 if the card appeared or disappeared.
+		 * @return the relative change, e.g. 0.1 for 10 %
+		 */
+		public double getRelativeChange(){
+			return relativeChange;
+		}
+
+		@Override
+		public String toString(){
+			return getClass().getSimpleName() + "[ " + card.getName() + ", " + finder.getName() + ": "
+					+ oldResult + " -> " + newResult + "]";
+		}
+	}
+
+	/**
+	 * The schedule of a card and card finder.
+	 */
+	private static class Entry {
+
+		private final Card card;
+		private final CardFinder finder;
+		private long interval;
+		private long nextDue;
+		private long lastSeen;
+		private double volatility = -1;	//Relative change per millisecond, negative when unknown
+		private CardResult lastResult;
+		private boolean removed;
+
+		Entry(Card card, CardFinder finder, long interval){
+			this.card = card;
+			this.finder = finder;
+			this.interval = interval;
+		}
+	}
+
+	/**
+	 * The queue of the checks of a card finder.
+	 */
+	private static class Vendor {
+
+		private final PriorityQueue<Entry> due = new PriorityQueue<>(16, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return Long.compare(a.nextDue, b.nextDue);
+			}
+		});
+		private long spacing = 60000L / DEFAULT_RATE_BUDGET;
+		private long nextSlot;
+		private boolean checking;	//Whether a batch of the checks is running
+	}
+}
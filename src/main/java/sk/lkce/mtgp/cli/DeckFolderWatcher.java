@@ -0,0 +1,159 @@
+package sk.lkce.mtgp.cli;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory for the new and modified deck files and prices them by the command line
+ * interface. The file events come in bursts (a deck is usually written in several steps, many decks
+ * are copied at once), so the changed decks are collected until the directory is quiet for
+ * {@link #getQuietPeriod()} milliseconds and then all of them are priced together by one batch
+ * search (see {@link MtgPricerCli#priceBatch(List)}). A continuous stream of events delays
+ * the pricing at most by {@link #getMaxDelay()} milliseconds.
+ * <br>
+ * The prices found before are reused as long as they are fresh in the price cache of the engine,
+ * so only the cards with the stale prices are searched for again.
+ */
+class DeckFolderWatcher {
+
+	/** The default time without file events after which the changed decks are priced, in milliseconds. */
+	static final long DEFAULT_QUIET_PERIOD = 2000;
+	/** The default maximal time from the first file event to the pricing, in milliseconds. */
+	static final long DEFAULT_MAX_DELAY = 30000;
+
+	private final MtgPricerCli cli;
+	private final File directory;
+	private final File reportDirectory;
+	private final long quietPeriod;
+	private final long maxDelay;
+
+	/**
+	 * Creates a watcher of a directory.
+	 * @param cli the command line interface which prices the decks and writes the reports
+	 * @param directory the directory with the decks
+	 * @param reportDirectory the directory of the reports, used to find the decks which were not priced yet
+	 * @param quietPeriod the time without file events after which the changed decks are priced
+	 * @param maxDelay the maximal time from the first file event to the pricing
+	 */
+	DeckFolderWatcher(MtgPricerCli cli, File directory, File reportDirectory, long quietPeriod, long maxDelay){
+		this.cli = cli;
+		this.directory = directory;
+		this.reportDirectory = reportDirectory;
+		this.quietPeriod = quietPeriod;
+		this.maxDelay = maxDelay;
+	}
+
+	long getQuietPeriod(){
+		return quietPeriod;
+	}
+
+	long getMaxDelay(){
+		return maxDelay;
+	}
+
+	/**
+	 * Prices the decks which have no up-to-date report and then watches the directory until
+	 * the thread is interrupted or the directory is deleted.
+	 * @throws IOException if the directory cannot be watched
+	 */
+	void run() throws IOException {
+		Path dir = directory.toPath();
+		try (WatchService watcher = dir.getFileSystem().newWatchService()){
+			//Registered before the first scan, so no deck written meanwhile is missed.
+			dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, OVERFLOW);
+			price(scan());
+
+			Set<File> changed = new TreeSet<>();
+			long firstEvent = 0;
+			long lastEvent = 0;
+			while (!Thread.currentThread().isInterrupted()){
+				WatchKey key;
+				if (changed.isEmpty())
+					key = watcher.take();
+				else {
+					long now = System.currentTimeMillis();
+					long wait = Math.min(lastEvent + quietPeriod, firstEvent + maxDelay) - now;
+					key = (wait > 0) ? watcher.poll(wait, TimeUnit.MILLISECONDS) : null;
+				}
+
+				if (key != null){
+					for (WatchEvent<?> event : key.pollEvents()){
+						if (event.kind() == OVERFLOW)
+							changed.addAll(scan()); //Some events were lost, any outdated deck may have changed.
+						else {
+							File f = dir.resolve((Path) event.context()).toFile();
+							if (MtgPricerCli.isDeckFile(f.getName()))
+								changed.add(f);
+						}
+					}
+					if (!key.reset()){
+						System.err.println("The directory " + directory + " is no longer accessible");
+						return;
+					}
+					if (!changed.isEmpty()){
+						lastEvent = System.currentTimeMillis();
+						if (firstEvent == 0)
+							firstEvent = lastEvent;
+					}
+					continue;
+				}
+
+				List<File> decks = new ArrayList<>();
+				for (File f : changed)
+					if (f.isFile()) //Skips the decks which were deleted or renamed meanwhile.
+						decks.add(f);
+				changed.clear();
+				firstEvent = 0;
+				price(decks);
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			//Stopped.
+		}
+	}
+
+	/**
+	 * Returns the deck files of the directory which have no report or which were modified
+	 * after their report was written.
+	 */
+	private List<File> scan(){
+		List<File> decks = new ArrayList<>();
+		File[] files = directory.listFiles();
+		if (files == null)
+			return decks;
+		for (File f : files){
+			if (!f.isFile() || !MtgPricerCli.isDeckFile(f.getName()))
+				continue;
+			File report = new File(reportDirectory, cli.reportName(f));
+			if (report.lastModified() < f.lastModified())
+				decks.add(f);
+		}
+		Collections.sort(decks);
+		return decks;
+	}
+
+	private void price(List<File> decks){
+		if (!decks.isEmpty())
+			cli.priceBatch(decks);
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + directory + ", quiet period: " + quietPeriod
+				+ " ms, max delay: " + maxDelay + " ms]";
+	}
+}
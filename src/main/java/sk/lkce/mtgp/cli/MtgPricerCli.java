@@ -0,0 +1,635 @@
+package sk.lkce.mtgp.cli;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import sk.lkce.mtgp.cardsearch.BatchPricing;
+import sk.lkce.mtgp.cardsearch.CardFinder;
+import sk.lkce.mtgp.cardsearch.CardParser;
+import sk.lkce.mtgp.cardsearch.FinderSelector;
+import sk.lkce.mtgp.cardsearch.LastKnownPrices;
+import sk.lkce.mtgp.cardsearch.NegativeIndex;
+import sk.lkce.mtgp.cardsearch.PricingEngine;
+import sk.lkce.mtgp.cardsearch.ResultMatrix;
+import sk.lkce.mtgp.cardsearch.SearchEventType;
+import sk.lkce.mtgp.cardsearch.SearchExecutor;
+import sk.lkce.mtgp.cardsearch.SearchObserverAdapter;
+import sk.lkce.mtgp.cardsearch.SearchOrder;
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.Money;
+import sk.lkce.mtgp.tablemodel.ReportCreator;
+import sk.lkce.mtgp.tablemodel.ResultMatrixTable;
+
+/**
+ * A headless entry class of the application which prices the decks given on the command line
+ * and prints the reports to the standard output or writes them to files. It never touches
+ * the AWT or Swing classes, so it runs on the servers without a display and starts fast.
+ * The distribution starts it by the <code>mtg-pricer-cli</code> script, which runs
+ * <code>java -cp "data/lib/*" sk.lkce.mtgp.cli.MtgPricerCli</code>.
+ * <br>
+ * All the decks are priced by one {@link PricingEngine}, so the prices of the cards shared
+ * by several decks are found only once and the connections to the web sites are kept alive.
+ * The directories are expanded to the deck files (<code>*.txt</code>, <code>*.dec</code>) they contain.
+ * In the batch mode all the decks are priced by one search of their unique cards, see {@link BatchPricing}.
+ * In the watch mode the directory is watched and the decks are priced as they arrive, see {@link DeckFolderWatcher}.
+ * In the offline mode the reports show the latest local prices with their age, see {@link PricingEngine#setOffline(boolean)}.
+ * In the economy mode each card is searched for only by the card finders likely to have its best price,
+ * see {@link FinderSelector}.
+ */
+public class MtgPricerCli {
+
+	/** The exit status when all the decks were priced. */
+	public static final int EXIT_OK = 0;
+	/** The exit status when some of the decks could not be read or priced. */
+	public static final int EXIT_FAILED = 1;
+	/** The exit status when the command line arguments are invalid. */
+	public static final int EXIT_USAGE = 2;
+
+	private static final String USAGE =
+			"Usage: mtg-pricer-cli [options] <deck file or directory>...\n"
+			+ "  -f, --finders <names>    comma separated names of the card finders (default: all)\n"
+			+ "  -t, --threads <n>        number of the search worker threads (default: "
+					+ SearchExecutor.DEFAULT_PARALLELISM + ")\n"
+			+ "  -j, --jobs <n>           number of the decks searched at the same time (default: 1)\n"
+			+ "  -b, --batch              search for the unique cards of all the decks at once\n"
+			+ "      --format <format>    report format: csv, txt or json (default: csv)\n"
+			+ "  -o, --output <dir>       write a report file for each deck into the directory\n"
+			+ "                           instead of printing the reports to the standard output\n"
+			+ "      --order <order>      card order of each finder: finder, card or priority (the most\n"
+			+ "                           valuable cards first) (default: finder)\n"
+			+ "      --max-age <minutes>  reuse the prices found at most this long ago (default: "
+					+ PricingEngine.DEFAULT_CACHE_MAX_AGE / 60000 + ")\n"
+			+ "      --misses <policy>    cards a finder did not find recently: ignore, last (search them\n"
+			+ "                           last) or skip (leave them without a price) (default: last)\n"
+			+ "      --economy            search for each card only by the card finders which had its best\n"
+			+ "                           price before, a share of the cards is still searched by all of them\n"
+			+ "      --offline            take the latest local prices regardless of their age,\n"
+			+ "                           do not connect to the web sites of the card finders\n"
+			+ "  -w, --watch              watch the deck directory and price the new and modified decks,\n"
+			+ "                           the reports are written next to the decks unless --output is given\n"
+			+ "  -q, --quiet              do not print the progress to the standard error\n"
+			+ "      --list-finders       print the names of the card finders and exit\n"
+			+ "  -h, --help               print this help and exit\n";
+
+	/** The infix of the report files, so they are not mistaken for decks when the directory is read again. */
+	private static final String REPORT_INFIX = ".prices.";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * The format of the reports.
+	 */
+	enum Format {CSV, TXT, JSON}
+
+	private final PricingEngine engine;
+	private final List<CardFinder> finders;
+	private final Format format;
+	private final File outputDirectory;
+	private final SearchOrder order;
+	private final int jobs;
+	private final boolean batch;
+	private final boolean quiet;
+	private final PrintStream out = System.out;
+	private final PrintStream err = System.err;
+
+	MtgPricerCli(PricingEngine engine, List<CardFinder> finders, Format format, File outputDirectory,
+			SearchOrder order, int jobs, boolean batch, boolean quiet){
+		this.engine = engine;
+		this.finders = finders;
+		this.format = format;
+		this.outputDirectory = outputDirectory;
+		this.order = order;
+		this.jobs = jobs;
+		this.batch = batch;
+		this.quiet = quiet;
+	}
+
+	public static void main(String[] args){
+		System.exit(run(args));
+	}
+
+	/**
+	 * Parses the command line arguments and prices the decks.
+	 * @param args the command line arguments
+	 * @return the exit status
+	 */
+	static int run(String[] args){
+		String finderNames = null;
+		int threads = SearchExecutor.DEFAULT_PARALLELISM;
+		int jobs = 1;
+		boolean batch = false;
+		boolean watch = false;
+		boolean offline = false;
+		boolean economy = false;
+		NegativeIndex.Policy misses = NegativeIndex.Policy.SEARCH_LAST;
+		long maxAge = PricingEngine.DEFAULT_CACHE_MAX_AGE;
+		Format format = Format.CSV;
+		File outputDirectory = null;
+		SearchOrder order = SearchOrder.FINDER_MAJOR;
+		boolean quiet = false;
+		boolean listFinders = false;
+		List<String> paths = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < args.length; i++){
+				String arg = args[i];
+				switch (arg) {
+				case "-f": case "--finders":
+					finderNames = value(args, ++i, arg);
+					break;
+				case "-t": case "--threads":
+					threads = positive(value(args, ++i, arg), arg);
+					break;
+				case "-j": case "--jobs":
+					jobs = positive(value(args, ++i, arg), arg);
+					break;
+				case "-b": case "--batch":
+					batch = true;
+					break;
+				case "--format":
+					format = parseFormat(value(args, ++i, arg));
+					break;
+				case "-o": case "--output":
+					outputDirectory = new File(value(args, ++i, arg));
+					break;
+				case "--order":
+					order = parseOrder(value(args, ++i, arg));
+					break;
+				case "--max-age":
+					maxAge = nonNegative(value(args, ++i, arg), arg) * 60000L;
+					break;
+				case "--misses":
+					misses = parseMisses(value(args, ++i, arg));
+					break;
+				case "--economy":
+					economy = true;
+					break;
+				case "--offline":
+					offline = true;
+					break;
+				case "-w": case "--watch":
+					watch = true;
+					break;
+				case "-q": case "--quiet":
+					quiet = true;
+					break;
+				case "--list-finders":
+					listFinders = true;
+					break;
+				case "-h": case "--help":
+					System.out.print(USAGE);
+					return EXIT_OK;
+				default:
+					if (arg.startsWith("-") && arg.length() > 1)
+						throw new IllegalArgumentException("Unknown option " + arg);
+					paths.add(arg);
+				}
+			}
+			if (paths.isEmpty() && !listFinders)
+				throw new IllegalArgumentException("No deck file given");
+			if (watch && (paths.size() != 1 || !new File(paths.get(0)).isDirectory()))
+				throw new IllegalArgumentException("The watch mode needs one deck directory");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			return EXIT_USAGE;
+		}
+
+		final PricingEngine engine = new PricingEngine(PricingEngine.APPLICATION_DIRECTORY, threads);
+		engine.setCacheMaxAge(maxAge);
+		engine.setOffline(offline);
+		engine.getNegativeIndex().setPolicy(misses);
+		engine.getFinderSelector().setEnabled(economy);
+		try {
+			if (listFinders){
+				for (CardFinder f : engine.getCardFinders())
+					System.out.println(f.getName());
+				return EXIT_OK;
+			}
+
+			List<CardFinder> finders;
+			List<File> decks;
+			try {
+				finders = selectFinders(engine, finderNames);
+				decks = listDecks(paths);
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				return EXIT_USAGE;
+			}
+			if (watch && outputDirectory == null)
+				outputDirectory = new File(paths.get(0));
+			if (outputDirectory != null && !outputDirectory.isDirectory() && !outputDirectory.mkdirs()){
+				System.err.println("Could not create the directory " + outputDirectory);
+				return EXIT_FAILED;
+			}
+			MtgPricerCli cli = new MtgPricerCli(engine, finders, format, outputDirectory, order, jobs, batch, quiet);
+			if (!watch)
+				return cli.priceDecks(decks);
+			//The watch mode runs until it is killed, so the engine is shut down by the hook.
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					engine.shutdown();
+				}
+			}, "mtg-pricer-cli-shutdown"));
+			try {
+				new DeckFolderWatcher(cli, new File(paths.get(0)), outputDirectory,
+						DeckFolderWatcher.DEFAULT_QUIET_PERIOD, DeckFolderWatcher.DEFAULT_MAX_DELAY).run();
+				return EXIT_OK;
+			} catch (IOException e) {
+				System.err.println("Could not watch the directory " + paths.get(0) + ": " + e.getMessage());
+				return EXIT_FAILED;
+			}
+		} finally {
+			if (economy && !quiet)
+				printEconomy(engine.getFinderSelector());
+			engine.shutdown();
+		}
+	}
+
+	/**
+	 * Prints the saved lookups and the measured quality of the economy mode to the standard error.
+	 */
+	private static void printEconomy(FinderSelector selector){
+		if (selector.getLookupCount() == 0)
+			return;
+		String quality = (selector.getEvaluatedCardCount() == 0) ? "not measured yet"
+				: String.format(Locale.ROOT, "best price found for %.1f %% of %d compared cards, %d lost",
+						selector.getBestFoundRate() * 100, selector.getEvaluatedCardCount(), selector.getLostCardCount());
+		System.err.println("Economy mode: saved " + selector.getSavedLookupCount() + " of " + selector.getLookupCount()
+				+ " lookups, " + quality);
+	}
+
+	private static String value(String[] args, int i, String option){
+		if (i >= args.length)
+			throw new IllegalArgumentException("Missing value of the option " + option);
+		return args[i];
+	}
+
+	private static int positive(String value, String option){
+		try {
+			int n = Integer.parseInt(value);
+			if (n > 0)
+				return n;
+		} catch (NumberFormatException e) {
+			//Reported below.
+		}
+		throw new IllegalArgumentException("The value of the option " + option + " must be a positive number: " + value);
+	}
+
+	private static int nonNegative(String value, String option){
+		try {
+			int n = Integer.parseInt(value);
+			if (n >= 0)
+				return n;
+		} catch (NumberFormatException e) {
+			//Reported below.
+		}
+		throw new IllegalArgumentException("The value of the option " + option + " must not be negative: " + value);
+	}
+
+	private static Format parseFormat(String value){
+		try {
+			return Format.valueOf(value.toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown report format " + value);
+		}
+	}
+
+	private static SearchOrder parseOrder(String value){
+		if (value.equalsIgnoreCase("finder"))
+			return SearchOrder.FINDER_MAJOR;
+		else if (value.equalsIgnoreCase("card"))
+			return SearchOrder.CARD_MAJOR;
+		else if (value.equalsIgnoreCase("priority"))
+			return SearchOrder.PRIORITY;
+		throw new IllegalArgumentException("Unknown search order " + value);
+	}
+
+	private static NegativeIndex.Policy parseMisses(String value){
+		if (value.equalsIgnoreCase("ignore"))
+			return NegativeIndex.Policy.IGNORE;
+		else if (value.equalsIgnoreCase("last"))
+			return NegativeIndex.Policy.SEARCH_LAST;
+		else if (value.equalsIgnoreCase("skip"))
+			return NegativeIndex.Policy.SKIP;
+		throw new IllegalArgumentException("Unknown misses policy " + value);
+	}
+
+	/**
+	 * Returns the card finders with given names.
+	 * @param engine the pricing engine
+	 * @param names the comma separated names or <code>null</code> for all the card finders
+	 * @return the card finders
+	 * @throws IllegalArgumentException if there is no card finder with one of the names
+	 */
+	static List<CardFinder> selectFinders(PricingEngine engine, String names){
+		if (names == null)
+			return engine.getCardFinders();
+		List<CardFinder> finders = new ArrayList<>();
+		for (String name : names.split(",")){
+			if (name.trim().isEmpty())
+				continue;
+			CardFinder f = engine.getCardFinder(name);
+			if (f == null)
+				throw new IllegalArgumentException("Unknown card finder " + name.trim()
+						+ ", use --list-finders to see the available ones");
+			if (!finders.contains(f))
+				finders.add(f);
+		}
+		if (finders.isEmpty())
+			throw new IllegalArgumentException("No card finder given");
+		return finders;
+	}
+
+	/**
+	 * Expands the directories to the deck files they contain, sorted by name.
+	 * @param paths the paths of the deck files and directories
+	 * @return the deck files
+	 * @throws IllegalArgumentException if a path does not exist
+	 */
+	static List<File> listDecks(List<String> paths){
+		List<File> decks = new ArrayList<>();
+		for (String path : paths){
+			File f = new File(path);
+			if (f.isFile())
+				decks.add(f);
+			else if (f.isDirectory()){
+				File[] files = f.listFiles();
+				if (files == null)
+					throw new IllegalArgumentException("Could not read the directory " + f);
+				Arrays.sort(files);
+				for (File file : files)
+					if (file.isFile() && isDeckFile(file.getName()))
+						decks.add(file);
+			} else
+				throw new IllegalArgumentException("No such file or directory: " + path);
+		}
+		return decks;
+	}
+
+	static boolean isDeckFile(String name){
+		String lower = name.toLowerCase(Locale.ROOT);
+		return !lower.startsWith(".") && !lower.contains(REPORT_INFIX)
+				&& (lower.endsWith(".txt") || lower.endsWith(".dec"));
+	}
+
+	/**
+	 * Prices the decks one after another, with up to {@link #jobs} decks searched at the same time.
+	 * The reports are written in the order of the decks as soon as each deck is priced.
+	 * @param decks the deck files
+	 * @return the exit status
+	 */
+	int priceDecks(List<File> decks){
+		if (batch)
+			return priceBatch(decks);
+		int status = EXIT_OK;
+		Deque<DeckSearch> running = new ArrayDeque<>();
+		int next = 0;
+		while (next < decks.size() || !running.isEmpty()){
+			while (next < decks.size() && running.size() < jobs){
+				DeckSearch search = start(decks.get(next++));
+				if (search != null)
+					running.add(search);
+				else
+					status = EXIT_FAILED;
+			}
+			if (running.isEmpty())
+				continue;
+			DeckSearch search = running.poll();
+			try {
+				search.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return EXIT_FAILED;
+			}
+			ResultMatrix matrix = search.executor.getResultMatrix();
+			if (!report(search.file, search.deck, matrix, decks.size() > 1) || search.failed)
+				status = EXIT_FAILED;
+			if (!quiet)
+				err.println(String.format("Priced %s: %d cards, %d finders in %.1f s%s", search.file.getPath(),
+						search.deck.size(), finders.size(), (System.currentTimeMillis() - search.startTime) / 1000.0,
+						search.failed ? " (some finders failed)" : ""));
+		}
+		return status;
+	}
+
+	/**
+	 * Prices all the decks by one search of their unique cards and writes the reports
+	 * when the search is finished.
+	 * @param decks the deck files
+	 * @return the exit status
+	 */
+	int priceBatch(List<File> decks){
+		int status = EXIT_OK;
+		List<File> files = new ArrayList<>();
+		List<Map<Card, Integer>> cards = new ArrayList<>();
+		for (File file : decks){
+			Map<Card, Integer> deck = read(file);
+			if (deck == null)
+				status = EXIT_FAILED;
+			else {
+				files.add(file);
+				cards.add(deck);
+			}
+		}
+		if (files.isEmpty())
+			return status;
+
+		BatchPricing pricing = new BatchPricing(engine, cards, finders);
+		Map<Card, Integer> quantities = new HashMap<>();
+		for (BatchPricing.DeckResult deck : pricing.getDecks())
+			for (Map.Entry<Card, Integer> e : deck.getCards().entrySet()){
+				Integer q = quantities.get(e.getKey());
+				quantities.put(e.getKey(), (q == null) ? e.getValue() : q + e.getValue());
+			}
+		setOrder(pricing.getSearchExecutor(), quantities);
+		DeckSearch search = new DeckSearch(null, null, pricing.getSearchExecutor());
+		pricing.getSearchExecutor().addSearchObserver(search, null, EnumSet.of(SearchEventType.SEARCH_THREAD_FAILED));
+		long startTime = System.currentTimeMillis();
+		pricing.start();
+		try {
+			pricing.awaitFinished();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return EXIT_FAILED;
+		}
+		if (!quiet)
+			err.println(String.format("Priced %d decks: %d unique cards of %d lines, %d finders in %.1f s%s",
+					files.size(), pricing.getUniqueCardCount(), pricing.getLineCount(), finders.size(),
+					(System.currentTimeMillis() - startTime) / 1000.0, search.failed ? " (some finders failed)" : ""));
+		if (search.failed)
+			status = EXIT_FAILED;
+
+		ResultMatrix matrix = pricing.getSearchExecutor().getResultMatrix();
+		for (int i = 0; i < files.size(); i++)
+			if (!report(files.get(i), pricing.getDecks().get(i).getCards(), matrix, files.size() > 1))
+				status = EXIT_FAILED;
+		return status;
+	}
+
+	/**
+	 * Reads a deck file and starts its search.
+	 * @param file the deck file
+	 * @return the started search or <code>null</code> if the deck could not be read
+	 */
+	private DeckSearch start(File file){
+		Map<Card, Integer> deck = read(file);
+		if (deck == null)
+			return null;
+		SearchExecutor executor = engine.newSession(deck.keySet(), finders);
+		setOrder(executor, deck);
+		DeckSearch search = new DeckSearch(file, deck, executor);
+		executor.addSearchObserver(search, null, EnumSet.of(SearchEventType.SEARCH_THREAD_FAILED,
+				SearchEventType.SEARCHING_FINISHED));
+		search.startTime = System.currentTimeMillis();
+		executor.startSearch();
+		return search;
+	}
+
+	/**
+	 * Sets the search order of a search. With the {@link SearchOrder#PRIORITY} order the cards are weighted
+	 * by their quantity and their lowest last known price.
+	 * @param executor the search, not started yet
+	 * @param quantities the card - card quantity map of the searched cards
+	 */
+	private void setOrder(SearchExecutor executor, Map<Card, Integer> quantities){
+		executor.setSearchOrder(order);
+		if (order != SearchOrder.PRIORITY)
+			return;
+		LastKnownPrices lastKnown = engine.getLastKnownPrices(executor.getResultMatrix());
+		Map<Card, Money> expectedPrices = new HashMap<>();
+		for (CardFinder finder : finders)
+			for (Map.Entry<Card, Money> e : lastKnown.getPrices(finder).entrySet()){
+				Money known = expectedPrices.get(e.getKey());
+				if (known == null || e.getValue().compareTo(known) < 0)
+					expectedPrices.put(e.getKey(), e.getValue());
+			}
+		executor.setCardWeights(SearchOrder.computeWeights(quantities, expectedPrices));
+	}
+
+	/**
+	 * Reads a deck file.
+	 * @param file the deck file
+	 * @return the card - card quantity map or <code>null</code> if the deck could not be read
+	 */
+	private Map<Card, Integer> read(File file){
+		try {
+			return CardParser.parseFromFile(file);
+		} catch (IOException | ParseException e) {
+			err.println("Could not read the deck " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the report of a deck.
+	 * @param file the deck file
+	 * @param deck the cards of the deck and their quantities
+	 * @param matrix the result matrix of the search which contains the cards of the deck
+	 * @param several whether there are several decks, so the reports printed to the standard output need a title
+	 * @return <code>true</code> if the report was written
+	 */
+	private boolean report(File file, Map<Card, Integer> deck, ResultMatrix matrix, boolean several){
+		ReportCreator report = new ReportCreator(new ResultMatrixTable(matrix, deck));
+		String text;
+		switch (format) {
+		case TXT:
+			text = report.generateTxtReport();
+			break;
+		case JSON:
+			text = "{\"deck\": " + ReportCreator.quoteJSON(file.getPath()) + ", \"cards\": "
+					+ report.createJSONReport() + "}\n";
+			break;
+		default:
+			text = report.createCSVReport(",");
+		}
+
+		boolean written = true;
+		if (outputDirectory == null){
+			if (several && format != Format.JSON)
+				text = "# " + file.getPath() + "\n" + text;
+			out.print(text);
+			out.flush();
+		} else {
+			//Written aside and renamed, so the readers of the directory never see a partial report.
+			File f = new File(outputDirectory, reportName(file));
+			File tmp = new File(outputDirectory, "." + f.getName() + ".tmp");
+			try {
+				try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), CHARSET)){
+					w.write(text);
+				}
+				Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				err.println("Could not write the report " + f + ": " + e.getMessage());
+				tmp.delete();
+				written = false;
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Returns the name of the report file of a deck, e.g. <code>deck.prices.csv</code> for <code>deck.txt</code>.
+	 */
+	String reportName(File deck){
+		String name = deck.getName();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0)
+			name = name.substring(0, dot);
+		return name + REPORT_INFIX + format.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * The search of one deck which observes when the search is finished. In the batch mode
+	 * it only observes the failures of the batch search and has no deck.
+	 */
+	private class DeckSearch extends SearchObserverAdapter {
+
+		private final File file;
+		private final Map<Card, Integer> deck;
+		private final SearchExecutor executor;
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private long startTime;
+		private volatile boolean failed;
+
+		DeckSearch(File file, Map<Card, Integer> deck, SearchExecutor executor){
+			this.file = file;
+			this.deck = deck;
+			this.executor = executor;
+		}
+
+		void await() throws InterruptedException {
+			finished.await();
+		}
+
+		@Override
+		public void searchThreadFailed(CardFinder finder, Throwable t) {
+			failed = true;
+			err.println("The card finder " + finder.getName() + " failed" + ((file == null) ? "" : " on " + file)
+					+ ": " + t);
+		}
+
+		@Override
+		public void searchingFinished(boolean interrupted) {
+			finished.countDown();
+		}
+	}
+}
@@ -16,9 +16,9 @@ public class CardResult{
 	private String name;
 	private String type;
 	private String edition;
-	private double price;
+	private Money price;
 	private String notFoundMsg;
-	private Currency currency;
+	private Money normalizedPrice;
 
 	/** Null object for no result*/
 	public static final CardResult NULL_CARD_RESULT = createNullCardResult();
@@ -31,17 +31,17 @@ public class CardResult{
 	 * @param name name of the card
 	 * @param type type of the card (common, uncommon etc.), is only sometimes included
 	 * @param edition the edition of the card
-	 * @param price the numeric part of the price of the card 
-	 * @param currency the currency part of the price
+	 * @param price the price of the card
 	 */
-	public CardResult(String name, String type, String edition,
-						double price,Currency currency){
+	public CardResult(String name, String type, String edition, Money price){
+		if (price == null)
+			throw new NullPointerException();
 		if (name != null)
 			this.name = name.replaceAll("[`�]", "'");
 		this.type = type;
 		this.edition = edition;
 		this.price = price;
-		this.currency = currency;
+		this.normalizedPrice = price;
 	}
 
 	/**
@@ -53,7 +53,6 @@ public class CardResult{
 		String na = "N/A";
 		
 		cr.name = na;
-		cr.price = -1;
 		cr.edition = na;
 		cr.type = na;
 		return cr;
@@ -88,10 +87,10 @@ public class CardResult{
 	}
 
 	/**
-	 * Returns the numeric part of card's price in this card search result.
-	 * @return the price of the card as numeric value
+	 * Returns the card's price in this card search result.
+	 * @return the price of the card or <code>null</code> for {@link #NULL_CARD_RESULT}
 	 */
-	public double getPrice() {
+	public Money getPrice() {
 		return price;
 	}
 	
@@ -100,9 +99,26 @@ public class CardResult{
 	 * @return the currency of the card's price
 	 */
 	public Currency getCurrency(){
-		return currency;
+		return (price == null) ? null : price.getCurrency();
+	}
+
+	/**
+	 * Returns the card's price converted to the display currency.
+	 * Until the card result is normalized it is the same as {@link #getPrice()}.
+	 * @return the price of the card in the display currency or <code>null</code> for {@link #NULL_CARD_RESULT}
+	 * @see CurrencyConverter
+	 */
+	public Money getNormalizedPrice() {
+		return normalizedPrice;
+	}
+
+	/**
+	 * Sets the price of the card converted to the display currency.
+	 * @param normalizedPrice the price in the display currency
+	 */
+	void setNormalizedPrice(Money normalizedPrice){
+		this.normalizedPrice = normalizedPrice;
 	}
-	
 	
 	@Override
 	public String toString(){
@@ -0,0 +1,140 @@
+package sk.lkce.mtgp.domain;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A service which converts the card prices to a single display currency so the prices
+ * from different card finders can be compared and summed up.
+ * <br>
+ * The conversion factors are derived from the current {@link ExchangeRates} table and cached.
+ * The cache is bound to the version of the table and is rebuilt when the table is replaced.
+ * The converter is thread safe.
+ */
+public class CurrencyConverter {
+
+	private final Currency displayCurrency;
+	private volatile FactorCache cache;
+
+	/**
+	 * Constructs a currency converter.
+	 * @param rates the exchange rates table
+	 * @param displayCurrency the currency to which the prices are converted
+	 * @throws IllegalArgumentException if the rates table does not contain the display currency
+	 */
+	public CurrencyConverter(ExchangeRates rates, Currency displayCurrency){
+		if (displayCurrency == null)
+			throw new NullPointerException();
+		this.displayCurrency = displayCurrency;
+		setRates(rates);
+	}
+
+	/**
+	 * Replaces the exchange rates table. The results normalized before the
+	 * change keep their normalized prices.
+	 * @param rates the new exchange rates table
+	 * @throws IllegalArgumentException if the rates table does not contain the display currency
+	 */
+	public void setRates(ExchangeRates rates){
+		if (!rates.contains(displayCurrency))
+			throw new IllegalArgumentException("No exchange rate for the display currency " + displayCurrency);
+		cache = new FactorCache(rates);
+	}
+
+	/**
+	 * Returns the current exchange rates table.
+	 * @return the exchange rates table
+	 */
+	public ExchangeRates getRates(){
+		return cache.rates;
+	}
+
+	/**
+	 * Returns the currency to which the prices are converted.
+	 * @return the display currency
+	 */
+	public Currency getDisplayCurrency(){
+		return displayCurrency;
+	}
+
+	/**
+	 * Returns whether prices in a given currency can be converted by this converter.
+	 * @param currency the currency
+	 * @return <code>true</code> if the currency can be converted
+	 */
+	public boolean supports(Currency currency){
+		return cache.rates.contains(currency);
+	}
+
+	/**
+	 * Returns whether the normalized price of a card result is in the display currency of this converter,
+	 * so the result can be shown without normalizing it again.
+	 * @param result the card result
+	 * @return <code>true</code> if the result is normalized for this converter or it is {@link CardResult#NULL_CARD_RESULT}
+	 */
+	public boolean isNormalized(CardResult result){
+		return result == CardResult.NULL_CARD_RESULT || result.getNormalizedPrice().getCurrency().equals(displayCurrency);
+	}
+
+	/**
+	 * Converts an amount of money to the display currency. The result is rounded
+	 * to the minor units of the display currency (half even).
+	 * @param amount the amount
+	 * @return the amount in the display currency
+	 * @throws IllegalArgumentException if there is no exchange rate for the currency of the amount
+	 */
+	public Money convert(Money amount){
+		if (amount.getCurrency().equals(displayCurrency))
+			return amount;
+		BigDecimal converted = BigDecimal.valueOf(amount.getMinorUnits())
+				.multiply(cache.getFactor(amount.getCurrency()))
+				.setScale(0, RoundingMode.HALF_EVEN);
+		return new Money(converted.longValueExact(), displayCurrency);
+	}
+
+	/**
+	 * Sets the normalized price of a card result, i.e. its price in the display currency.
+	 * This is supposed to be done once, before the card result is published to other threads.
+	 * @param result the card result
+	 * @throws IllegalArgumentException if there is no exchange rate for the currency of the result
+	 */
+	public void normalize(CardResult result){
+		if (result == CardResult.NULL_CARD_RESULT)
+			return;
+		result.setNormalizedPrice(convert(result.getPrice()));
+	}
+
+	/**
+	 * The conversion factors to the display currency computed from
+	 * one version of the exchange rates table. The factors convert the minor
+	 * units of a currency directly to the minor units of the display currency.
+	 * Immutable once constructed.
+	 */
+	private class FactorCache {
+
+		private final ExchangeRates rates;
+		private final Map<Currency, BigDecimal> factors = new HashMap<>();
+
+		FactorCache(ExchangeRates rates){
+			this.rates = rates;
+			BigDecimal displayRate = rates.getRate(displayCurrency);
+			int displayDigits = Money.getFractionDigits(displayCurrency);
+			for (Currency currency : rates.getCurrencies()){
+				BigDecimal factor = displayRate.divide(rates.getRate(currency), MathContext.DECIMAL64);
+				factors.put(currency, factor.scaleByPowerOfTen(displayDigits - Money.getFractionDigits(currency)));
+			}
+		}
+
+		BigDecimal getFactor(Currency currency){
+			BigDecimal factor = factors.get(currency);
+			if (factor == null)
+				throw new IllegalArgumentException("No exchange rate for " + currency
+						+ " in the table version " + rates.getVersion());
+			return factor;
+		}
+	}
+}
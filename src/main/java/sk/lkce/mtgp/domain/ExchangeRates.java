@@ -0,0 +1,173 @@
+package sk.lkce.mtgp.domain;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable table of exchange rates. All the rates are quoted against
+ * a single base currency, i.e. the rate of a currency says how many units of
+ * that currency equal one unit of the base currency (e.g. <i>CZK = 25</i> for the base EUR).
+ * <br>
+ * Each table carries a version which is unique within the running application and
+ * increases with each newly created table. It can be used to detect that the rates have changed.
+ * @see CurrencyConverter
+ */
+public class ExchangeRates {
+
+	/** The key of the base currency entry in the rates file. */
+	public static final String BASE_KEY = "base";
+
+	/** The name of the file with locally configured rates in the application directory. */
+	public static final String RATES_FILE_NAME = "fx-rates.properties";
+
+	private static final AtomicLong VERSION_COUNTER = new AtomicLong();
+
+	private final Currency base;
+	private final Map<Currency, BigDecimal> rates;
+	private final long version;
+
+	/**
+	 * Constructs an exchange rates table.
+	 * @param base the base currency of the table
+	 * @param rates the currency - rate map, the rates are quoted against the base currency
+	 * @throws IllegalArgumentException if any of the rates is not a positive number
+	 */
+	public ExchangeRates(Currency base, Map<Currency, BigDecimal> rates){
+		if (base == null)
+			throw new NullPointerException();
+
+		Map<Currency, BigDecimal> copy = new HashMap<>(rates);
+		for (Map.Entry<Currency, BigDecimal> e : copy.entrySet())
+			if (e.getValue().signum() <= 0)
+				throw new IllegalArgumentException("The rate for " + e.getKey() + " must be positive");
+		copy.put(base, BigDecimal.ONE);
+
+		this.base = base;
+		this.rates = Collections.unmodifiableMap(copy);
+		this.version = VERSION_COUNTER.incrementAndGet();
+	}
+
+	/**
+	 * Returns the built-in exchange rates table which is used when no rates
+	 * are configured locally.
+	 * @return the default exchange rates table
+	 */
+	public static ExchangeRates defaults(){
+		Map<Currency, BigDecimal> rates = new HashMap<>();
+		rates.put(Currency.getInstance("CZK"), new BigDecimal("25.00"));
+		rates.put(Currency.getInstance("USD"), new BigDecimal("1.08"));
+		return new ExchangeRates(Currency.getInstance("EUR"), rates);
+	}
+
+	/**
+	 * Loads the exchange rates from a properties file. The file contains the
+	 * {@value #BASE_KEY} entry with the code of the base currency and one entry for
+	 * each other currency, e.g.:
+	 * <pre>
+	 * base=EUR
+	 * CZK=25.00
+	 * USD=1.08
+	 * </pre>
+	 * @param file the file with the rates
+	 * @return the exchange rates table
+	 * @throws IOException if the file could not be read
+	 * @throws IllegalArgumentException if the file contains unknown currency or an invalid rate
+	 */
+	public static ExchangeRates load(File file) throws IOException{
+		Properties props = new Properties();
+		InputStream is = new FileInputStream(file);
+		try {
+			props.load(is);
+		} finally {
+			is.close();
+		}
+
+		String baseCode = props.getProperty(BASE_KEY);
+		if (baseCode == null)
+			throw new IllegalArgumentException("No '" + BASE_KEY + "' entry in " + file.getAbsolutePath());
+
+		Map<Currency, BigDecimal> rates = new HashMap<>();
+		for (String key : props.stringPropertyNames()){
+			if (key.equals(BASE_KEY))
+				continue;
+			rates.put(Currency.getInstance(key.trim()), new BigDecimal(props.getProperty(key).trim()));
+		}
+		return new ExchangeRates(Currency.getInstance(baseCode.trim()), rates);
+	}
+
+	/**
+	 * Returns the locally configured rates from the {@value #RATES_FILE_NAME} file
+	 * in a given directory or the {@link #defaults()} if there is no such file or it cannot be read.
+	 * @param directory the directory to look in
+	 * @return the configured or the default exchange rates
+	 */
+	public static ExchangeRates loadOrDefaults(File directory){
+		File file = new File(directory, RATES_FILE_NAME);
+		if (!file.isFile())
+			return defaults();
+		try {
+			return load(file);
+		} catch (IOException | IllegalArgumentException e) {
+			//Nothing to do here. Just print to err stream and go with the defaults.
+			e.printStackTrace();
+			return defaults();
+		}
+	}
+
+	/**
+	 * Returns the base currency of this table.
+	 * @return the base currency
+	 */
+	public Currency getBase(){
+		return base;
+	}
+
+	/**
+	 * Returns the rate of a currency against the base currency.
+	 * @param currency the currency
+	 * @return the rate or <code>null</code> if this table does not contain the currency
+	 */
+	public BigDecimal getRate(Currency currency){
+		return rates.get(currency);
+	}
+
+	/**
+	 * Returns all the currencies in this table including the base currency.
+	 * @return an unmodifiable set of currencies
+	 */
+	public Set<Currency> getCurrencies(){
+		return rates.keySet();
+	}
+
+	/**
+	 * Returns whether this table contains rate for a currency.
+	 * @param currency the currency
+	 * @return <code>true</code> if the rate is available
+	 */
+	public boolean contains(Currency currency){
+		return rates.containsKey(currency);
+	}
+
+	/**
+	 * Returns the version of this table.
+	 * @return the version
+	 */
+	public long getVersion(){
+		return version;
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ base: " + base + ", version: " + version + ", rates: " + rates + "]";
+	}
+}
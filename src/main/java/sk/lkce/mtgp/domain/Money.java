@@ -0,0 +1,149 @@
+package sk.lkce.mtgp.domain;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * An exact amount of money in a given currency. The amount is kept as
+ * a number of minor units of the currency (e.g. cents for EUR), so the amounts
+ * can be compared and summed up without any rounding errors.
+ * It can be used as value object.
+ */
+public class Money implements Comparable<Money>{
+
+	private final long minorUnits;
+	private final Currency currency;
+
+	/**
+	 * Constructs an amount of money.
+	 * @param minorUnits the amount in the minor units of the currency
+	 * @param currency the currency
+	 */
+	public Money(long minorUnits, Currency currency){
+		if (currency == null)
+			throw new NullPointerException();
+		this.minorUnits = minorUnits;
+		this.currency = currency;
+	}
+
+	/**
+	 * Creates an amount of money from a decimal number in the major units of the currency.
+	 * The number is rounded to the minor units of the currency (half up).
+	 * @param amount the amount in the major units of the currency, e.g. <i>12.5</i>
+	 * @param currency the currency
+	 * @return the amount of money
+	 * @throws NumberFormatException if the amount is not a valid decimal number
+	 */
+	public static Money parse(String amount, Currency currency){
+		BigDecimal value = new BigDecimal(amount);
+		return new Money(toMinorUnits(value, currency), currency);
+	}
+
+	/**
+	 * Converts a decimal number in the major units of a currency to the minor units
+	 * rounding half up.
+	 * @param amount the amount in the major units
+	 * @param currency the currency
+	 * @return the amount in the minor units
+	 * @throws ArithmeticException if the amount does not fit into the minor units range
+	 */
+	static long toMinorUnits(BigDecimal amount, Currency currency){
+		return amount.setScale(getFractionDigits(currency), RoundingMode.HALF_UP).unscaledValue().longValue();
+	}
+
+	/**
+	 * Returns the number of the fraction digits (minor units) of a currency. Pseudo currencies
+	 * without minor units are treated as having two.
+	 */
+	static int getFractionDigits(Currency currency){
+		int digits = currency.getDefaultFractionDigits();
+		return (digits < 0) ? 2 : digits;
+	}
+
+	/**
+	 * Returns the amount in the minor units of the currency.
+	 * @return the amount in the minor units
+	 */
+	public long getMinorUnits(){
+		return minorUnits;
+	}
+
+	/**
+	 * Returns the currency of this amount.
+	 * @return the currency
+	 */
+	public Currency getCurrency(){
+		return currency;
+	}
+
+	/**
+	 * Returns this amount as a decimal number in the major units of the currency.
+	 * @return the amount in the major units
+	 */
+	public BigDecimal toBigDecimal(){
+		return BigDecimal.valueOf(minorUnits, getFractionDigits(currency));
+	}
+
+	/**
+	 * Returns the sum of this and another amount.
+	 * @param other the amount to be added
+	 * @return the sum of the amounts
+	 * @throws IllegalArgumentException if the currencies of the amounts differ
+	 */
+	public Money plus(Money other){
+		checkSameCurrency(other);
+		return new Money(minorUnits + other.minorUnits, currency);
+	}
+
+	/**
+	 * Returns this amount multiplied by a given number (e.g. card quantity).
+	 * @param factor the multiplier
+	 * @return the multiplied amount
+	 */
+	public Money times(int factor){
+		return new Money(minorUnits * factor, currency);
+	}
+
+	/**
+	 * Formats this amount for displaying, e.g. <i>12.50 EUR</i>.
+	 * @return the formatted amount with the currency code
+	 */
+	public String format(){
+		return toBigDecimal().toPlainString() + " " + currency.getCurrencyCode();
+	}
+
+	/**
+	 * Compares two amounts of money.
+	 * @throws IllegalArgumentException if the currencies of the amounts differ
+	 */
+	@Override
+	public int compareTo(Money other){
+		checkSameCurrency(other);
+		return Long.compare(minorUnits, other.minorUnits);
+	}
+
+	private void checkSameCurrency(Money other){
+		if (!currency.equals(other.currency))
+			throw new IllegalArgumentException("Amounts are not in the same currency: "
+					+ this + ", " + other);
+	}
+
+	@Override
+	public int hashCode(){
+		return 31 * currency.hashCode() + (int) (minorUnits ^ (minorUnits >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object o){
+		if (!(o instanceof Money))
+			return false;
+		Money m = (Money) o;
+		return m.minorUnits == minorUnits && m.currency.equals(currency);
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + format() + "]";
+	}
+}
@@ -0,0 +1,21 @@
+package sk.lkce.mtgp.domain;
+
+/**
+ * A phase of the pricing process.
+ */
+public enum Phase {
+	/**
+	 * Setting phase where the card finders are selected and 
+	 * card list is created by the user.
+	 */
+	SETTING,
+	/**
+	 * Actual process of pricing.
+	 */
+	SEARCHING, 
+	
+	/**
+	 * A phase where the pricing has finished and results are presented.
+	 */
+	PRICING_FINISHED
+}
@@ -22,6 +22,7 @@ public class PricingSettings {
 	private final List<Card> cardList = new ArrayList<>(); //For keeping track of insertion orde
 	private final List<Card> roCardList = Collections.unmodifiableList(cardList);
 	private final List<CardFinder> finders = new ArrayList<>();
+	private int modificationCount;
 	
 	
 	/**
@@ -39,6 +40,7 @@ public class PricingSettings {
 			
 		cardQuantityMap.put(card, quantity);
 		cardList.add(card);
+		modificationCount++;
 	}
 	
 	/**
@@ -51,6 +53,7 @@ public class PricingSettings {
 		
 		cardList.remove(card);
 		cardQuantityMap.remove(card);
+		modificationCount++;
 	}
 
 	/**
@@ -72,7 +75,7 @@ public class PricingSettings {
 		removeCard(oldCard);
 		cardQuantityMap.put(newCard, quantity);
 		cardList.add(index, newCard);
-		
+		modificationCount++;
 	}
 	
 	
@@ -84,6 +87,15 @@ public class PricingSettings {
 		return roCardList;
 	}
 
+	/**
+	 * Returns the number of the structural modifications (adding, removing or replacing
+	 * of the cards) of the card list so far. Can be used to cheaply detect that the card list has changed.
+	 * @return the modification count of the card list
+	 */
+	public int getModificationCount(){
+		return modificationCount;
+	}
+
 	/**
 	 * Returns a quantity for a given card. 
 	 * @param card the card
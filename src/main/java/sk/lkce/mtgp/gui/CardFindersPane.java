@@ -5,17 +5,23 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
 
+import javax.swing.AbstractButton;
 import javax.swing.BorderFactory;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.border.Border;
 
+import sk.lkce.mtgp.cardsearch.AsyncSearchObserver;
 import sk.lkce.mtgp.cardsearch.CardFinder;
+import sk.lkce.mtgp.cardsearch.LastKnownPrices;
+import sk.lkce.mtgp.cardsearch.SearchEventType;
 import sk.lkce.mtgp.cardsearch.SearchExecutor;
+import sk.lkce.mtgp.domain.Card;
 import net.miginfocom.swing.MigLayout;
 
 /**
@@ -115,17 +121,34 @@ public class CardFindersPane extends JPanel{
 	 * fired from the search executor.
 	 * 
 	 * @param searchExecutor the search executor for the search
+	 * @param pump the update pump of the search
+	 * @param quantities the quantities of the cards for computing the total prices
+	 * @param lastKnownPrices the last known prices shown until the current prices are found, may be <code>null</code>
 	 */
-	public void showSearchProgress(SearchExecutor searchExecutor){
+	void showSearchProgress(SearchExecutor searchExecutor, UpdatePump pump, Map<Card, Integer> quantities,
+			LastKnownPrices lastKnownPrices){
 		headLabelLeft.setText("<html><b>Search in progress</b></html>");
 		headLabelRight.setIcon(ResourceLoader.ICON_LOADING);
 		body.removeAll();
 		body.setLayout(new MigLayout()); //New Miglayout with gaps between rows.
 		
-		for (CardFinder finder : searchExecutor.getCardFinders()){
-			SearchThreadProgressView view = new SearchThreadProgressView(finder);
+		for (final CardFinder finder : searchExecutor.getCardFinders()){
+			SearchThreadProgressView view = new SearchThreadProgressView(finder,
+					searchExecutor.getCurrencyConverter().getDisplayCurrency(), pump, quantities);
+			view.setPauseAction(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					controller.setFinderPaused(finder, ((AbstractButton) e.getSource()).isSelected());
+				}
+			});
+			//The reused results of a previous search count as done.
+			view.setCardsDone(searchExecutor.getResultsStorage(finder).getResultCount());
+			if (lastKnownPrices != null && lastKnownPrices.size() > 0)
+				view.showEstimatedTotal(searchExecutor.getResultsStorage(finder), lastKnownPrices.getPrices(finder));
 			view.setBackground(bcgColor);
-			searchExecutor.addSearchObserver(view);
+			//Subscribed only to the events of its own finder, delivered off the search thread.
+			searchExecutor.addSearchObserver(new AsyncSearchObserver(view), finder,
+					EnumSet.complementOf(EnumSet.of(SearchEventType.SEARCHING_FINISHED)));
 			body.add(view, "wrap");
 		}
 		body.revalidate();
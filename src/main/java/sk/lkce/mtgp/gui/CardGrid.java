@@ -184,6 +184,35 @@ public class CardGrid extends JPanel {
 	}
 		
 	
+	/**
+	 * Widens the columns so that the cells in the given model rows fit in. Used for
+	 * the row updates during the search, where only the updated rows need to be measured
+	 * instead of the whole table.
+	 * @param firstRow the first updated row (model index)
+	 * @param lastRow the last updated row (model index)
+	 */
+	private void widenColumnsForRows(int firstRow, int lastRow) {
+		assert SwingUtilities.isEventDispatchThread();
+		
+		final int margin = 2;
+		final TableColumnModel model = table.getColumnModel();
+		lastRow = Math.min(lastRow, tableModel.getRowCount() - 1);
+		
+		for (int column = 0; column < model.getColumnCount(); column++){
+			TableColumn col = model.getColumn(column);
+			int width = col.getPreferredWidth();
+			for (int row = firstRow; row <= lastRow; row++){
+				int viewRow = table.convertRowIndexToView(row);
+				if (viewRow < 0)
+					continue;
+				Component comp = table.prepareRenderer(table.getCellRenderer(viewRow, column), viewRow, column);
+				width = Math.max(width, comp.getPreferredSize().width + margin);
+			}
+			if (col.getPreferredWidth() != width)
+				col.setPreferredWidth(width);
+		}
+	}
+	
 	/**
 	 * Setups the fundamental view components. 
 	 */
@@ -387,7 +416,13 @@ public class CardGrid extends JPanel {
 				
 				lastColumnCount = tableModel.getColumnCount();
 			}
-			setColumnsAutoWidth();
+			
+			//Row range updates (e.g. new search results) can only widen the columns.
+			if (e.getType() == TableModelEvent.UPDATE && e.getFirstRow() != TableModelEvent.HEADER_ROW
+					&& e.getLastRow() != Integer.MAX_VALUE)
+				widenColumnsForRows(e.getFirstRow(), e.getLastRow());
+			else
+				setColumnsAutoWidth();
 		}
 		
 	}
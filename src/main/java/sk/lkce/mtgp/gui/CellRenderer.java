@@ -2,6 +2,7 @@ package sk.lkce.mtgp.gui;
 
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Font;
 
 import javax.swing.BorderFactory;
 import javax.swing.JLabel;
@@ -22,6 +23,7 @@ class CellRenderer extends DefaultTableCellRenderer{
 	private final Border padding = BorderFactory.createEmptyBorder(2, 3, 2, 2);
 	private Color originalColor;
 	private final Color notFoundColor = Color.RED; 
+	private final Color staleColor = Color.GRAY;
 	
 	/**
 	 * Creates a new card grid cell renderer.
@@ -42,11 +44,15 @@ class CellRenderer extends DefaultTableCellRenderer{
 		
 		if (cell == Cell.NOT_FOUND_CELL){
 			lbl.setForeground(notFoundColor);
+		}else if (cell.isStale()){
+			lbl.setForeground(staleColor);
+			lbl.setFont(lbl.getFont().deriveFont(Font.ITALIC));
 		}else
 			lbl.setForeground(originalColor);
+		lbl.setToolTipText(cell.isStale() ? "Not a current price, found " + Cell.formatAge(cell.getAge()) + " ago" : null);
 
 		lbl.setBorder(padding);
-		lbl.setText(cell.getText());
+		lbl.setText(cell.getDisplayText());
 		lbl.setHorizontalAlignment(getAllignment(cell.getType()));
 
 		return lbl;
@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,13 +26,19 @@ import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
 
 import sk.lkce.mtgp.cardsearch.CardFinder;
-import sk.lkce.mtgp.cardsearch.CardFinderFactory;
 import sk.lkce.mtgp.cardsearch.CardParser;
 import sk.lkce.mtgp.cardsearch.CardSearchResultSet;
+import sk.lkce.mtgp.cardsearch.LastKnownPrices;
+import sk.lkce.mtgp.cardsearch.PricingEngine;
+import sk.lkce.mtgp.cardsearch.SearchEventType;
 import sk.lkce.mtgp.cardsearch.SearchExecutor;
+import sk.lkce.mtgp.cardsearch.SearchJournal;
+import sk.lkce.mtgp.cardsearch.SearchOrder;
 import sk.lkce.mtgp.cardsearch.SearchObserver;
 import sk.lkce.mtgp.domain.Card;
 import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
+import sk.lkce.mtgp.domain.Phase;
 import sk.lkce.mtgp.domain.PricingSettings;
 import sk.lkce.mtgp.tablemodel.MtgPricerTableModel;
 import sk.lkce.mtgp.tablemodel.ReportCreator;
@@ -59,34 +66,19 @@ public class Controller implements SearchObserver, CardGridListener {
 	 * A user action type.
 	 */
 	public enum UserAction {
-		NEW_SEARCH, ADD_CARD, REMOVE_CARD, IMPORT_CARDS, EXPORT_TO_CSV, 
+		NEW_SEARCH, EDIT_DECK, ADD_CARD, REMOVE_CARD, IMPORT_CARDS, EXPORT_TO_CSV, 
 		EXPORT_TO_TXT, OPEN_IN_BROWSER, START_SEARCH, STOP_SEARCH
 	}
 
-	/**
-	 * A phase of the pricing process.
-	 */
-	public enum Phase {
-		/**
-		 * Setting phase where the card finders are selected and 
-		 * card list is created by the user.
-		 */
-		SETTING,
-		/**
-		 * Actual process of pricing.
-		 */
-		SEARCHING, 
-		
-		/**
-		 * A phase where the pricing has finished and results are presented.
-		 */
-		PRICING_FINISHED
-	}
-
 	private Map<UserAction, AbstractAction> actionMap = new HashMap<>();
 	private SearchExecutor searchExecutor;
+	private SearchExecutor previousSearch; //The search whose results are reused after editing the deck
+	private UpdatePump updatePump;
 	private PricingSettings pricingSettings;
+	private final PricingEngine engine;
 	private List<CardFinder> finders;
+	private SearchOrder searchOrder = SearchOrder.PRIORITY;
+	private boolean showLastKnownPrices;
 	private MtgPricerTableModel tableModel;
 	private Phase currentPhase;
 	private MainView mainView;
@@ -96,11 +88,13 @@ public class Controller implements SearchObserver, CardGridListener {
 	private List<Card> selectedCards = new ArrayList<>();
 
 	/**
-	 * Constructs a controller.
+	 * Constructs a controller which runs the searches on a given pricing engine.
+	 * @param engine the pricing engine
 	 */
-	public Controller() {
+	public Controller(PricingEngine engine) {
+		this.engine = engine;
 		createActions();
-		finders = CardFinderFactory.allCardFinders();
+		finders = engine.getCardFinders();
 		tableModel = new MtgPricerTableModel(this);
 		mainView = new MainView(this);
 		mainView.show();
@@ -114,6 +108,7 @@ public class Controller implements SearchObserver, CardGridListener {
 	 */
 	public void newPricing() {
 		currentPhase = Phase.SETTING;
+		previousSearch = null;
 		pricingSettings = new PricingSettings();
 		for (CardFinder finder : finders)
 			// Add all card finders as default
@@ -161,6 +156,151 @@ public class Controller implements SearchObserver, CardGridListener {
 
 	}
 
+	/**
+	 * Pauses or resumes the search of a card finder during the search. The paused card finder
+	 * keeps its remaining cards queued and continues with them when resumed.
+	 * @param finder the card finder
+	 * @param paused <code>true</code> to pause, <code>false</code> to resume the card finder
+	 */
+	public void setFinderPaused(CardFinder finder, boolean paused) {
+		if (currentPhase != Phase.SEARCHING)
+			return;
+		try {
+			if (paused)
+				searchExecutor.pauseFinder(finder);
+			else
+				searchExecutor.resumeFinder(finder);
+		} catch (IllegalStateException e) {
+			// The search has just finished, there is nothing to pause.
+		}
+	}
+
+	/**
+	 * Returns the order in which the cards are searched for.
+	 * @return the search order
+	 */
+	public SearchOrder getSearchOrder() {
+		return searchOrder;
+	}
+
+	/**
+	 * Sets the order in which the cards are searched for in the next search.
+	 * @param order the search order
+	 */
+	public void setSearchOrder(SearchOrder order) {
+		searchOrder = order;
+	}
+
+	/**
+	 * Returns whether the next search shows the last known prices until the current prices are found.
+	 * @return <code>true</code> if the last known prices are shown
+	 */
+	public boolean isShowLastKnownPrices() {
+		return showLastKnownPrices;
+	}
+
+	/**
+	 * Sets whether the next search shows the last known prices (from the price cache or the price history)
+	 * marked as stale until the current prices are found.
+	 * @param show <code>true</code> to show the last known prices
+	 */
+	public void setShowLastKnownPrices(boolean show) {
+		showLastKnownPrices = show;
+	}
+
+	/**
+	 * Returns whether the next search is offline.
+	 * @return <code>true</code> if the prices are taken from the local data only
+	 */
+	public boolean isOffline() {
+		return engine.isOffline();
+	}
+
+	/**
+	 * Sets whether the next search is offline, i.e. takes the latest prices from the local data
+	 * without connecting to the web sites of the card finders.
+	 * @param offline <code>true</code> to work offline
+	 */
+	public void setOffline(boolean offline) {
+		engine.setOffline(offline);
+	}
+
+	/**
+	 * Returns whether the next search is in the economy mode.
+	 * @return <code>true</code> if each card is searched for only by the card finders likely to have its best price
+	 */
+	public boolean isEconomy() {
+		return engine.getFinderSelector().isEnabled();
+	}
+
+	/**
+	 * Sets whether the next search is in the economy mode, i.e. each card is searched for only
+	 * by the card finders which had its best price in the previous searches.
+	 * @param economy <code>true</code> to search in the economy mode
+	 */
+	public void setEconomy(boolean economy) {
+		engine.getFinderSelector().setEnabled(economy);
+	}
+
+	/**
+	 * Offers to resume an unfinished search of the same deck if there is its journal and
+	 * starts journaling the new search, so it can be resumed if it does not finish.
+	 */
+	private void resumeFromJournal() {
+		File directory = engine.getJournalDirectory();
+		Collection<Card> cards = pricingSettings.getCards();
+		Collection<CardFinder> finders = pricingSettings.getFinders();
+		if (SearchJournal.exists(directory, cards, finders)) {
+			String msg = "<html>An unfinished search of this deck was found.<br/>"
+					+ "Do you want to resume it and search only for the remaining cards?</html>";
+			if (mainView.askForConfirmation("Resume search", msg)) {
+				try {
+					SearchJournal.resume(directory, searchExecutor);
+				} catch (IOException e) {
+					mainView.reportError("The unfinished search could not be read\n\n" + e.getMessage());
+					e.printStackTrace();
+				}
+			} else
+				SearchJournal.discard(directory, cards, finders);
+		}
+		try {
+			SearchJournal.open(directory, searchExecutor);
+		} catch (IOException e) {
+			// The search goes on, it just cannot be resumed.
+			System.out.println("Could not open the search journal: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the quantities of the cards in the current card list.
+	 */
+	private Map<Card, Integer> getQuantities() {
+		Map<Card, Integer> quantities = new HashMap<>();
+		for (Card c : pricingSettings.getCards())
+			quantities.put(c, pricingSettings.getQuantity(c));
+		return quantities;
+	}
+
+	/**
+	 * Returns the lowest normalized prices of the cards found in the last search, if any.
+	 * They are used as the expected prices for the {@link SearchOrder#PRIORITY} order.
+	 */
+	private Map<Card, Money> getLastKnownPrices() {
+		Map<Card, Money> prices = new HashMap<>();
+		if (searchExecutor == null)
+			return prices;
+		for (CardSearchResultSet resultSet : searchExecutor.getResultsStorage())
+			for (Map.Entry<Card, CardResult> e : resultSet.getCardResults().entrySet()) {
+				Money price = e.getValue().getNormalizedPrice();
+				if (price == null)
+					continue;
+				Money known = prices.get(e.getKey());
+				if (known == null || price.compareTo(known) < 0)
+					prices.put(e.getKey(), price);
+			}
+		return prices;
+	}
+
 	/**
 	 * Returns all possible card finders regardless whether they are selected
 	 * for the search or not.
@@ -219,14 +359,8 @@ public class Controller implements SearchObserver, CardGridListener {
 
 	@Override
 	public void cardSearchFinished(Card card, CardResult result, CardFinder finder) {
-
-		SwingUtilities.invokeLater(new Runnable() {
-
-			@Override
-			public void run() {
-				tableModel.fireTableRowsUpdated(0, Integer.MAX_VALUE);
-			}
-		});
+		// Coalesced and flushed on the EDT by the update pump.
+		updatePump.markCardDirty(searchExecutor.getResultMatrix().getCardId(card));
 	}
 
 	@Override
@@ -243,6 +377,7 @@ public class Controller implements SearchObserver, CardGridListener {
 
 			@Override
 			public void run() {
+				updatePump.stop();
 				if (interrupted)
 					mainView.searchStopped(); // In case the search was stopped
 												// by user and the view was set
@@ -251,6 +386,7 @@ public class Controller implements SearchObserver, CardGridListener {
 					mainView.searchFinished();
 				disableAction(UserAction.STOP_SEARCH);
 				enableAction(UserAction.NEW_SEARCH);
+				enableAction(UserAction.EDIT_DECK);
 			}
 		});
 	}
@@ -328,6 +464,8 @@ public class Controller implements SearchObserver, CardGridListener {
 		actionMap.put(UserAction.EXPORT_TO_TXT, action);
 		action = new NewPricingAction();
 		actionMap.put(UserAction.NEW_SEARCH, action);
+		action = new EditDeckAction();
+		actionMap.put(UserAction.EDIT_DECK, action);
 		action = new SearchInBrowserAction();
 		actionMap.put(UserAction.OPEN_IN_BROWSER, action);
 		setDefaultActionAvailability();
@@ -359,6 +497,7 @@ public class Controller implements SearchObserver, CardGridListener {
 		disableAction(UserAction.START_SEARCH);
 		disableAction(UserAction.STOP_SEARCH);
 		disableAction(UserAction.REMOVE_CARD);
+		disableAction(UserAction.EDIT_DECK);
 	}
 
 	/**
@@ -389,6 +528,34 @@ public class Controller implements SearchObserver, CardGridListener {
 
 	}
 
+	/**
+	 * A user interface action which returns to the setting phase with the current card list
+	 * and card finders, so the deck can be edited and priced again. The next search reuses
+	 * the results of the finished search and only the new or renamed cards and newly selected
+	 * card finders are searched for.
+	 */
+	@SuppressWarnings("serial")
+	private class EditDeckAction extends AbstractAction {
+
+		EditDeckAction() {
+			super("Edit deck");
+			putValue(Action.SHORT_DESCRIPTION, "Edit the card list and price only the changes");
+		}
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			assert currentPhase == Phase.PRICING_FINISHED;
+			previousSearch = searchExecutor;
+			currentPhase = Phase.SETTING;
+			tableModel.editPricing();
+			mainView.newPricing();
+			setDefaultActionAvailability();
+			enableAction(UserAction.START_SEARCH);
+			tableModel.fireTableStructureChanged();
+		}
+
+	}
+
 	/**
 	 *  A user interface action which take the current value from the card name text
 	 *  field, creates a card based on that value and adds it leniently to the card list.
@@ -616,18 +783,34 @@ public class Controller implements SearchObserver, CardGridListener {
 
 		@Override
 		public void actionPerformed(ActionEvent arg0) {
-			searchExecutor = new SearchExecutor(pricingSettings.getCards(), pricingSettings.getFinders());
-			searchExecutor.addSearchObserver(Controller.this);
+			Map<Card, Money> expectedPrices = getLastKnownPrices();
+			searchExecutor = engine.newSession(pricingSettings.getCards(), pricingSettings.getFinders());
+			if (previousSearch != null) // Only the changes since the previous search are searched for.
+				searchExecutor.reuseResults(previousSearch.getResultsStorage());
+			previousSearch = null;
+			if (!searchExecutor.isOffline()) // The offline results are not worth resuming.
+				resumeFromJournal();
+			searchExecutor.setSearchOrder(searchOrder);
+			if (searchOrder == SearchOrder.PRIORITY)
+				searchExecutor.setCardWeights(SearchOrder.computeWeights(pricingSettings, expectedPrices));
+			searchExecutor.addSearchObserver(Controller.this, null,
+					EnumSet.of(SearchEventType.CARD_SEARCH_FINISHED, SearchEventType.SEARCHING_FINISHED));
+			LastKnownPrices lastKnownPrices = null;
+			if (showLastKnownPrices) // Shown at once, the search replaces them with the current prices.
+				lastKnownPrices = engine.getLastKnownPrices(searchExecutor.getResultMatrix());
 			currentPhase = Phase.SEARCHING;
-			mainView.searchStarted(searchExecutor);
+			updatePump = new UpdatePump(tableModel, pricingSettings.getCards().size());
+			mainView.searchStarted(searchExecutor, updatePump, getQuantities(), lastKnownPrices);
+			tableModel.searchStarted(searchExecutor.getResultMatrix(), lastKnownPrices);
+			updatePump.start();
 			searchExecutor.startSearch();
-			tableModel.searchStarted(searchExecutor.getResultsStorage());
 			enableAction(UserAction.STOP_SEARCH);
 			disableAction(UserAction.START_SEARCH);
 			disableAction(UserAction.ADD_CARD);
 			disableAction(UserAction.REMOVE_CARD);
 			disableAction(UserAction.IMPORT_CARDS);
 			disableAction(UserAction.NEW_SEARCH);
+			disableAction(UserAction.EDIT_DECK);
 
 		}
 
@@ -8,16 +8,20 @@ import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.util.Map;
 
 import javax.swing.AbstractButton;
 import javax.swing.BorderFactory;
+import javax.swing.ButtonGroup;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
+import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JSpinner;
 import javax.swing.JTextField;
 import javax.swing.JToolBar;
@@ -28,8 +32,11 @@ import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
+import sk.lkce.mtgp.cardsearch.LastKnownPrices;
 import sk.lkce.mtgp.cardsearch.SearchExecutor;
-import sk.lkce.mtgp.gui.Controller.Phase;
+import sk.lkce.mtgp.cardsearch.SearchOrder;
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.Phase;
 import sk.lkce.mtgp.gui.Controller.UserAction;
 
 /**
@@ -123,9 +130,13 @@ public class MainView {
 	 * be enabled during the searching (or also during the final) phase.
 	 * 
 	 * @param executor the search executor used in the starting search
+	 * @param pump the update pump of the starting search
+	 * @param quantities the quantities of the cards for computing the total prices
+	 * @param lastKnownPrices the last known prices shown until the current prices are found, may be <code>null</code>
 	 */
-	public void searchStarted(SearchExecutor executor){
-		findersPane.showSearchProgress(executor);
+	void searchStarted(SearchExecutor executor, UpdatePump pump, Map<Card, Integer> quantities,
+			LastKnownPrices lastKnownPrices){
+		findersPane.showSearchProgress(executor, pump, quantities, lastKnownPrices);
 		addSpinner.setEnabled(false);
 		addTextField.setEnabled(false);
 	}
@@ -325,12 +336,44 @@ public class MainView {
 		
 		JMenuItem mi = new JMenuItem(controller.getAction(UserAction.NEW_SEARCH));
 		menu.add(mi);
+		mi = new JMenuItem(controller.getAction(UserAction.EDIT_DECK));
+		menu.add(mi);
 		mi = new JMenuItem(controller.getAction(UserAction.START_SEARCH));
 		mi.setIcon(null);
 		menu.add(mi);
 		mi = new JMenuItem(controller.getAction(UserAction.OPEN_IN_BROWSER));
 		mi.setIcon(null);
 		menu.add(mi);
+		menu.addSeparator();
+		menu.add(createSearchOrderMenu());
+		final JCheckBoxMenuItem lastKnown = new JCheckBoxMenuItem("Show last known prices",
+				controller.isShowLastKnownPrices());
+		lastKnown.addActionListener(new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				controller.setShowLastKnownPrices(lastKnown.isSelected());
+			}
+		});
+		menu.add(lastKnown);
+		final JCheckBoxMenuItem offline = new JCheckBoxMenuItem("Work offline", controller.isOffline());
+		offline.addActionListener(new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				controller.setOffline(offline.isSelected());
+			}
+		});
+		menu.add(offline);
+		final JCheckBoxMenuItem economy = new JCheckBoxMenuItem("Economy mode", controller.isEconomy());
+		economy.addActionListener(new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				controller.setEconomy(economy.isSelected());
+			}
+		});
+		menu.add(economy);
 		menuBar.add(menu);
 		menu = new JMenu("Edit");
 		menu.setMnemonic(KeyEvent.VK_E);
@@ -366,5 +409,30 @@ public class MainView {
 		
 		return menuBar;
 	}
+
+	/**
+	 * Creates a sub-menu for choosing the order of the card searches.
+	 */
+	private JMenu createSearchOrderMenu(){
+		JMenu menu = new JMenu("Search order");
+		ButtonGroup group = new ButtonGroup();
+		addSearchOrderItem(menu, group, "Most valuable cards first", SearchOrder.PRIORITY);
+		addSearchOrderItem(menu, group, "Card by card", SearchOrder.CARD_MAJOR);
+		addSearchOrderItem(menu, group, "Vendor by vendor", SearchOrder.FINDER_MAJOR);
+		return menu;
+	}
+
+	private void addSearchOrderItem(JMenu menu, ButtonGroup group, String text, final SearchOrder order){
+		JRadioButtonMenuItem mi = new JRadioButtonMenuItem(text, controller.getSearchOrder() == order);
+		mi.addActionListener(new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				controller.setSearchOrder(order);
+			}
+		});
+		group.add(mi);
+		menu.add(mi);
+	}
 	
 }
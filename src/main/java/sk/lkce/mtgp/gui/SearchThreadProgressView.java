@@ -3,11 +3,18 @@ package sk.lkce.mtgp.gui;
 
 import java.awt.BorderLayout;
 import java.awt.Font;
-import java.text.DecimalFormat;
+import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Currency;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.JToggleButton;
 import javax.swing.SwingUtilities;
 
 import sk.lkce.mtgp.cardsearch.CardFinder;
@@ -15,6 +22,7 @@ import sk.lkce.mtgp.cardsearch.CardSearchResultSet;
 import sk.lkce.mtgp.cardsearch.SearchObserver;
 import sk.lkce.mtgp.domain.Card;
 import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
 
 /**
  * A view component which shows the current progress of the search
@@ -26,24 +34,98 @@ public class SearchThreadProgressView extends JPanel implements SearchObserver{
 
 	private final JProgressBar progressBar = new JProgressBar();
 	private final JLabel resultsLabel = new JLabel();
+	private final JToggleButton pauseButton = new JToggleButton("Pause");
 	private final CardFinder finder;
-	private final static DecimalFormat DOUBLE_FORMAT = new DecimalFormat("#.##");
+	private final Currency displayCurrency;
+	private final Map<Card, Integer> quantities;
+	//Progress of the search written by the search thread and shown once per frame.
+	private final AtomicInteger cardsDone = new AtomicInteger();
+	private volatile int numberOfCards;
+	private volatile String currentCard;
+	//The total of the current and the last known prices, shown until the search of the finder ends.
+	private volatile Map<Card, Money> lastKnownPrices;
+	private final AtomicLong estimatedTotal = new AtomicLong();
+	private final AtomicInteger staleCount = new AtomicInteger();
+	private volatile boolean finished;
 
 	/**
 	 * Construct a search thread progress view for a given card finder.
 	 * @param finder the card finder for which this view is constructed
+	 * @param displayCurrency the currency in which the total price is shown
+	 * @param pump the update pump which refreshes this view
+	 * @param quantities the quantities of the cards for computing the total price
 	 */
-	public SearchThreadProgressView(CardFinder finder){
+	SearchThreadProgressView(CardFinder finder, Currency displayCurrency, UpdatePump pump,
+			Map<Card, Integer> quantities){
 		super (new BorderLayout());
 		this.finder = finder;
+		this.displayCurrency = displayCurrency;
+		this.quantities = quantities;
 		JLabel label = new JLabel();
 		label.setText(finder.getName());
-		add(label,BorderLayout.NORTH);
+		JPanel header = new JPanel(new BorderLayout());
+		header.setOpaque(false);
+		header.add(label, BorderLayout.CENTER);
+		header.add(pauseButton, BorderLayout.EAST);
+		add(header,BorderLayout.NORTH);
+		pauseButton.setMargin(new Insets(0, 4, 0, 4));
+		pauseButton.setFocusable(false);
+		pauseButton.setVisible(false);
+		pauseButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				pauseButton.setText(pauseButton.isSelected() ? "Resume" : "Pause");
+				refresh();
+			}
+		});
 		add(progressBar);
 		add(resultsLabel, BorderLayout.SOUTH);
 		
 		Font f  = label.getFont().deriveFont(Font.BOLD);
 		label.setFont(f);
+		
+		pump.addFrameTask(new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		});
+	}
+
+	/**
+	 * Shows the button which pauses and resumes the card finder.
+	 * @param listener the listener notified when the button is toggled, the button is selected when paused
+	 */
+	void setPauseAction(ActionListener listener){
+		pauseButton.addActionListener(listener);
+		pauseButton.setVisible(true);
+	}
+
+	/**
+	 * Sets the number of the cards which are already done when the search starts.
+	 * @param done the number of the cards done
+	 */
+	void setCardsDone(int done){
+		cardsDone.set(done);
+	}
+
+	/**
+	 * Shows the total price during the search, counting the last known prices of the cards
+	 * which were not searched for yet. The last known prices are replaced by the current
+	 * ones as they are found. Must be invoked before the search is started.
+	 * @param results the results of the card finder reused from the previous searches
+	 * @param lastKnown the last known prices of the other cards
+	 */
+	void showEstimatedTotal(CardSearchResultSet results, Map<Card, Money> lastKnown){
+		long total = 0;
+		for (Map.Entry<Card, CardResult> e : results.getCardResults().entrySet())
+			if (e.getValue() != CardResult.NULL_CARD_RESULT)
+				total += e.getValue().getNormalizedPrice().getMinorUnits() * quantities.get(e.getKey());
+		for (Map.Entry<Card, Money> e : lastKnown.entrySet())
+			total += e.getValue().getMinorUnits() * quantities.get(e.getKey());
+		estimatedTotal.set(total);
+		staleCount.set(lastKnown.size());
+		lastKnownPrices = lastKnown;
 	}
 
 	/**
@@ -54,81 +136,91 @@ public class SearchThreadProgressView extends JPanel implements SearchObserver{
 		SwingUtilities.invokeLater(new Runnable() {
 			@Override
 			public void run() {
+				progressBar.setVisible(false);
+				pauseButton.setVisible(false);
 				resultsLabel.setText(text);
 			}
 		});
 	}
 	
+	/**
+	 * Updates the progress bar according to the latest progress of the search.
+	 * Invoked once per frame on the EDT by the update pump.
+	 */
+	private void refresh(){
+		int done = cardsDone.get();
+		String card = currentCard;
+		if (pauseButton.isSelected())
+			card = "Paused";
+		
+		if (progressBar.getMaximum() != numberOfCards)
+			progressBar.setMaximum(numberOfCards);
+		if (progressBar.getValue() != done)
+			progressBar.setValue(done);
+		if (card != null && !card.equals(progressBar.getString())){
+			progressBar.setStringPainted(true);
+			progressBar.setString(card);
+		}
+		if (lastKnownPrices != null && !finished){
+			String text = "<html><body style='padding-left:10px;'>Total price: "
+					+ new Money(estimatedTotal.get(), displayCurrency).format()
+					+ "<br/>" + staleCount.get() + " last known prices</body></html>";
+			if (!text.equals(resultsLabel.getText()))
+				resultsLabel.setText(text);
+		}
+	}
+	
 	
 	@Override
 	public void searchStarted(final int numberOfCards) {
-		SwingUtilities.invokeLater(new Runnable() {
-			@Override
-			public void run() {
-				progressBar.setMaximum(numberOfCards);
-			}
-		});
+		this.numberOfCards = numberOfCards;
 	}
 	
 	@Override
 	public void cardSearchStarted(final Card card, CardFinder finder) {
-		if (finder != this.finder)
-			return;
-	
-		if(finder.getName().equals("Draco"))
-			System.out.println("Started " + card);
-		
-		
-		SwingUtilities.invokeLater(new Runnable() {
-			@Override
-			public void run() {
-				progressBar.setStringPainted(true);
-				progressBar.setString(card.getName());
-			}
-		});
-		
+		currentCard = card.getName();
 	}
 
 	@Override
 	public void cardSearchFinished(Card card, CardResult result,
 			CardFinder finder) {
-		if (finder != this.finder)
-			return;
-		
-		SwingUtilities.invokeLater(new Runnable() {
-			@Override
-			public void run() {
-				progressBar.setValue(progressBar.getValue() +1);
+		cardsDone.incrementAndGet();
+		Map<Card, Money> lastKnown = lastKnownPrices;
+		if (lastKnown != null){
+			long delta = (result == null) ? 0 : result.getNormalizedPrice().getMinorUnits();
+			Money stale = lastKnown.get(card);
+			if (stale != null){
+				delta -= stale.getMinorUnits();
+				staleCount.decrementAndGet();
 			}
-		});
-		
+			estimatedTotal.addAndGet(delta * quantities.get(card));
+		}
 	}
 
 	@Override
 	public void searchThreadFinished(CardFinder finder, CardSearchResultSet results) {
-		if (this.finder == finder){
-			
-			int all = results.getCardResults().size();
-			int found = all - results.getNotFoundCards().size();
-
-			long time = results.getSearchTime();
-			
-			double totalPrice = 0;
-			
-			for (CardResult cardResult : results.getCardResults().values())
-				if (cardResult != CardResult.NULL_CARD_RESULT)
-					totalPrice += cardResult.getPrice();
-			
-			
-			
-			String  text = "Found " + found + "/" + all  + " cards <br/>" + 
-			"Time:"+ formatTime(time) + "<br/>" +
-			"Total price: " + DOUBLE_FORMAT.format(totalPrice) + " " + finder.getCurrency().getCurrencyCode(); 
-			
-			text = "<html><body style='padding-left:10px;'>"+  text + "</body></html>";
-			progressBar.setVisible(false);
-			setLabelText(text);
-		}
+		assert this.finder == finder;
+		finished = true;
+		
+		Map<Card, CardResult> snapshot = results.getCardResults();
+		int all = snapshot.size();
+		int found = all - results.getNotFoundCount();
+
+		long time = results.getSearchTime();
+		
+		//Exact sum in the minor units of the display currency.
+		long totalPrice = 0;
+		
+		for (Map.Entry<Card, CardResult> e : snapshot.entrySet())
+			if (e.getValue() != CardResult.NULL_CARD_RESULT)
+				totalPrice += e.getValue().getNormalizedPrice().getMinorUnits() * quantities.get(e.getKey());
+		
+		String  text = "Found " + found + "/" + all  + " cards <br/>" + 
+		"Time:"+ formatTime(time) + "<br/>" +
+		"Total price: " + new Money(totalPrice, displayCurrency).format(); 
+		
+		text = "<html><body style='padding-left:10px;'>"+  text + "</body></html>";
+		setLabelText(text);
 	}
 	
 	/**
@@ -155,6 +247,7 @@ public class SearchThreadProgressView extends JPanel implements SearchObserver{
 
 	@Override
 	public void searchThreadFailed(CardFinder finder, Throwable t) {
+		finished = true;
 		setLabelText("Failed");
 	}
 
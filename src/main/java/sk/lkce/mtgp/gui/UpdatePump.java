@@ -0,0 +1,123 @@
+package sk.lkce.mtgp.gui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import sk.lkce.mtgp.tablemodel.MtgPricerTableModel;
+
+/**
+ * A pump which coalesces the view updates during the search. The search threads only mark
+ * the cards with new results as dirty, which is cheap and lock-free. On a fixed frame cadence
+ * the pump collects the dirty cards on the EDT and notifies the table model about the affected
+ * row ranges only. The registered frame tasks (e.g. progress views) are run on the same cadence,
+ * so the number of the EDT events does not grow with the search throughput.
+ */
+class UpdatePump {
+
+	/** The delay between two frames in milliseconds (approx. 30 frames per second). */
+	static final int FRAME_DELAY = 33;
+
+	private final MtgPricerTableModel tableModel;
+	private final AtomicLongArray dirtyCards;	//Bit set of card ids
+	private final List<Runnable> frameTasks = new CopyOnWriteArrayList<>();
+	private final Timer timer;
+	private volatile boolean dirty;
+
+	/**
+	 * Creates a new update pump for a search.
+	 * @param tableModel the table model to be notified
+	 * @param cardCount the number of cards in the search
+	 */
+	UpdatePump(MtgPricerTableModel tableModel, int cardCount){
+		this.tableModel = tableModel;
+		dirtyCards = new AtomicLongArray((cardCount + 63) / 64);
+		timer = new Timer(FRAME_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				flush();
+			}
+		});
+		timer.setCoalesce(true);
+	}
+
+	/**
+	 * Starts pumping the updates.
+	 */
+	void start(){
+		timer.start();
+	}
+
+	/**
+	 * Stops pumping the updates after the pending updates are flushed.
+	 * Must be invoked on the EDT.
+	 */
+	void stop(){
+		assert SwingUtilities.isEventDispatchThread();
+		timer.stop();
+		flush();
+	}
+
+	/**
+	 * Registers a task which is run on the EDT once per frame.
+	 * @param task the task
+	 */
+	void addFrameTask(Runnable task){
+		frameTasks.add(task);
+	}
+
+	/**
+	 * Marks a card row as changed. Can be invoked from any thread.
+	 * @param cardId the id of the card in the result matrix of the search
+	 */
+	void markCardDirty(int cardId){
+		int word = cardId >>> 6;
+		long bit = 1L << cardId;
+		long old;
+		do {
+			old = dirtyCards.get(word);
+			if ((old & bit) != 0)
+				break;
+		} while (!dirtyCards.compareAndSet(word, old, old | bit));
+		dirty = true;
+	}
+
+	/**
+	 * Notifies the table model about all the dirty rows as contiguous row ranges
+	 * and runs the frame tasks.
+	 */
+	private void flush(){
+		if (dirty){
+			dirty = false;
+			int first = -1;
+			int last = -1;
+			for (int word = 0; word < dirtyCards.length(); word++){
+				long bits = dirtyCards.getAndSet(word, 0);
+				while (bits != 0){
+					int cardId = (word << 6) + Long.numberOfTrailingZeros(bits);
+					bits &= bits - 1;
+					int row = tableModel.getRowOfCardId(cardId);
+					if (row < 0)
+						continue;
+					if (row == last + 1 && first >= 0){
+						last = row;
+						continue;
+					}
+					if (first >= 0)
+						tableModel.fireTableRowsUpdated(first, last);
+					first = last = row;
+				}
+			}
+			if (first >= 0)
+				tableModel.fireTableRowsUpdated(first, last);
+		}
+
+		for (Runnable task : frameTasks)
+			task.run();
+	}
+}
@@ -0,0 +1,392 @@
+package sk.lkce.mtgp.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sk.lkce.mtgp.cardsearch.BatchPricing;
+import sk.lkce.mtgp.cardsearch.CardFinder;
+import sk.lkce.mtgp.cardsearch.PriceCache;
+import sk.lkce.mtgp.cardsearch.PricingEngine;
+import sk.lkce.mtgp.cardsearch.ResultMatrix;
+import sk.lkce.mtgp.cardsearch.SearchEventType;
+import sk.lkce.mtgp.cardsearch.SearchExecutor;
+import sk.lkce.mtgp.cardsearch.SearchObserverAdapter;
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+
+/**
+ * Looks up the prices for the concurrent requests of the {@link PricingServer}. The fresh prices
+ * are taken from the price cache of the engine. A card which is being searched for by a card finder
+ * for one request is not searched for again for the other requests, they wait for the same result
+ * instead. The cards are recognized by their normalized names ({@link BatchPricing#normalizeName(String)}).
+ * <br>
+ * The rest of the cards of a request are searched for by one search session for each card finder.
+ */
+class CoalescingPricer {
+
+	/**
+	 * Where the result of a lookup came from.
+	 */
+	enum Source {
+		/** A fresh result from the price cache. */
+		CACHE,
+		/** The result of a search started for the lookup. */
+		SEARCH,
+		/** The result of a search started for another lookup. */
+		COALESCED
+	}
+
+	private final PricingEngine engine;
+	private final ConcurrentMap<Key, Pending> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong searchedCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong cachedCount = new AtomicLong();
+
+	/**
+	 * Creates a pricer which searches by a given engine.
+	 * @param engine the pricing engine
+	 */
+	CoalescingPricer(PricingEngine engine){
+		this.engine = engine;
+	}
+
+	/**
+	 * Starts a lookup of the prices of given cards by given card finders.
+	 * @param cards the cards
+	 * @param finders the card finders
+	 * @return the lookup which collects the results
+	 */
+	Lookup lookup(Collection<Card> cards, Collection<CardFinder> finders){
+		Lookup lookup = new Lookup(cards.size() * finders.size());
+		PriceCache cache = engine.getPriceCache();
+		long maxAge = engine.getCacheMaxAge();
+		Map<CardFinder, List<Pending>> owned = new LinkedHashMap<>();
+
+		for (CardFinder finder : finders)
+			for (Card card : cards){
+				PriceCache.Entry e = (maxAge > 0) ? cache.getFresh(finder, card, maxAge) : null;
+				if (e != null){
+					cachedCount.incrementAndGet();
+					lookup.complete(card, finder, e.getResult(), null, Source.CACHE);
+					continue;
+				}
+				Key key = new Key(finder.getName(), BatchPricing.normalizeName(card.getName()));
+				Pending pending = new Pending(key, card, finder);
+				pending.join(lookup, card, Source.SEARCH);
+				Pending existing = inFlight.putIfAbsent(key, pending);
+				if (existing == null){
+					List<Pending> list = owned.get(finder);
+					if (list == null)
+						owned.put(finder, list = new ArrayList<>());
+					list.add(pending);
+				} else {
+					coalescedCount.incrementAndGet();
+					if (!existing.join(lookup, card, Source.COALESCED))
+						lookup.complete(card, finder, existing.result, existing.failure, Source.COALESCED);
+				}
+			}
+
+		for (Map.Entry<CardFinder, List<Pending>> e : owned.entrySet())
+			search(e.getKey(), e.getValue());
+		return lookup;
+	}
+
+	/**
+	 * Searches for the cards of the pending results by one card finder.
+	 */
+	private void search(CardFinder finder, List<Pending> pendings){
+		final Map<Card, Pending> byCard = new LinkedHashMap<>();
+		for (Pending p : pendings)
+			byCard.put(p.card, p);
+		searchedCount.addAndGet(byCard.size());
+		//The cache was checked by the lookup, a result cached since then must not be reused silently.
+		final SearchExecutor executor = engine.newSession(new ArrayList<>(byCard.keySet()),
+				Collections.singletonList(finder), 0);
+		executor.addSearchObserver(new SearchObserverAdapter() {
+
+			private volatile Throwable failure;
+
+			@Override
+			public void cardSearchFinished(Card card, CardResult result, CardFinder finder) {
+				Pending p = byCard.get(card);
+				if (p != null)
+					p.complete((result == null) ? CardResult.NULL_CARD_RESULT : result, null);
+			}
+
+			@Override
+			public void searchThreadFailed(CardFinder finder, Throwable t) {
+				failure = t;
+			}
+
+			@Override
+			public void searchingFinished(boolean interrupted) {
+				//The cards which have a result without being searched for get it, the rest were not
+				//searched for because the search failed or was stopped.
+				ResultMatrix matrix = executor.getResultMatrix();
+				Throwable t = (failure != null) ? failure : new IllegalStateException("The search was stopped");
+				for (Pending p : byCard.values()){
+					CardResult result = matrix.get(matrix.getCardId(p.card), 0);
+					if (result != null)
+						p.complete(result, null);
+					else
+						p.complete(null, t);
+				}
+			}
+		}, null, EnumSet.of(SearchEventType.CARD_SEARCH_FINISHED, SearchEventType.SEARCH_THREAD_FAILED,
+				SearchEventType.SEARCHING_FINISHED));
+		executor.startSearch();
+	}
+
+	/**
+	 * Returns the number of the card lookups which were searched for.
+	 * @return the searched count
+	 */
+	long getSearchedCount(){
+		return searchedCount.get();
+	}
+
+	/**
+	 * Returns the number of the card lookups which waited for a search of another lookup.
+	 * @return the coalesced count
+	 */
+	long getCoalescedCount(){
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Returns the number of the card lookups which were answered from the price cache.
+	 * @return the cached count
+	 */
+	long getCachedCount(){
+		return cachedCount.get();
+	}
+
+	/**
+	 * Returns the number of the card lookups which are being searched for now.
+	 * @return the in-flight count
+	 */
+	int getInFlightCount(){
+		return inFlight.size();
+	}
+
+	/**
+	 * The result of a lookup of one card by one card finder.
+	 */
+	static class Outcome {
+
+		private final Card card;
+		private final CardFinder finder;
+		private final CardResult result;
+		private final Throwable failure;
+		private final Source source;
+
+		Outcome(Card card, CardFinder finder, CardResult result, Throwable failure, Source source){
+			this.card = card;
+			this.finder = finder;
+			this.result = result;
+			this.failure = failure;
+			this.source = source;
+		}
+
+		Card getCard(){
+			return card;
+		}
+
+		CardFinder getFinder(){
+			return finder;
+		}
+
+		/**
+		 * Returns the card result.
+		 * @return the result, {@link CardResult#NULL_CARD_RESULT} if the card was not found
+		 * or <code>null</code> if the search failed
+		 */
+		CardResult getResult(){
+			return result;
+		}
+
+		/**
+		 * Returns why the search failed.
+		 * @return the failure or <code>null</code> if there is a result
+		 */
+		Throwable getFailure(){
+			return failure;
+		}
+
+		Source getSource(){
+			return source;
+		}
+	}
+
+	/**
+	 * A lookup of the prices of a request. The outcomes are available one by one
+	 * as they are found ({@link #poll(long)}) and all together when the lookup is complete.
+	 */
+	static class Lookup {
+
+		private final int size;
+		private final CountDownLatch remaining;
+		private final BlockingQueue<Outcome> arrived = new LinkedBlockingQueue<>();
+		private final ConcurrentMap<Card, Map<CardFinder, Outcome>> outcomes = new ConcurrentHashMap<>();
+
+		Lookup(int size){
+			this.size = size;
+			remaining = new CountDownLatch(size);
+		}
+
+		private void complete(Card card, CardFinder finder, CardResult result, Throwable failure, Source source){
+			Outcome o = new Outcome(card, finder, result, failure, source);
+			Map<CardFinder, Outcome> m = outcomes.get(card);
+			if (m == null){
+				m = new ConcurrentHashMap<>();
+				Map<CardFinder, Outcome> old = outcomes.putIfAbsent(card, m);
+				if (old != null)
+					m = old;
+			}
+			m.put(finder, o);
+			arrived.add(o);
+			remaining.countDown();
+		}
+
+		/**
+		 * Returns the number of the outcomes of this lookup, one for each card and card finder.
+		 * @return the size
+		 */
+		int size(){
+			return size;
+		}
+
+		/**
+		 * Waits for the next outcome.
+		 * @param timeout the maximal time to wait in milliseconds
+		 * @return the outcome or <code>null</code> if no outcome arrived in time
+		 * @throws InterruptedException if the waiting thread is interrupted
+		 */
+		Outcome poll(long timeout) throws InterruptedException {
+			return arrived.poll(timeout, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Waits until all the outcomes are available.
+		 * @param timeout the maximal time to wait in milliseconds
+		 * @return <code>true</code> if the lookup is complete
+		 * @throws InterruptedException if the waiting thread is interrupted
+		 */
+		boolean await(long timeout) throws InterruptedException {
+			return remaining.await(timeout, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Returns the outcome of a card and card finder.
+		 * @return the outcome or <code>null</code> if it is not available yet
+		 */
+		Outcome get(Card card, CardFinder finder){
+			Map<CardFinder, Outcome> m = outcomes.get(card);
+			return (m == null) ? null : m.get(finder);
+		}
+	}
+
+	/**
+	 * A card being searched for by a card finder and the lookups which wait for it.
+	 */
+	private class Pending {
+
+		private final Key key;
+		private final Card card;
+		private final CardFinder finder;
+		private List<Waiter> waiting = new ArrayList<>();	//Null when complete
+		private volatile CardResult result;
+		private volatile Throwable failure;
+
+		Pending(Key key, Card card, CardFinder finder){
+			this.key = key;
+			this.card = card;
+			this.finder = finder;
+		}
+
+		/**
+		 * Adds a lookup waiting for the result.
+		 * @return <code>false</code> if the result is already available
+		 */
+		synchronized boolean join(Lookup lookup, Card card, Source source){
+			if (waiting == null)
+				return false;
+			waiting.add(new Waiter(lookup, card, source));
+			return true;
+		}
+
+		/**
+		 * Passes the result to all the waiting lookups. Only the first invocation has an effect.
+		 */
+		void complete(CardResult result, Throwable failure){
+			List<Waiter> waiters;
+			synchronized (this) {
+				if (waiting == null)
+					return;
+				this.result = result;
+				this.failure = failure;
+				waiters = waiting;
+				waiting = null;
+			}
+			inFlight.remove(key, this);
+			for (Waiter w : waiters)
+				w.lookup.complete(w.card, finder, result, failure, w.source);
+		}
+	}
+
+	/**
+	 * A lookup waiting for a pending result. The card is the one requested by the lookup,
+	 * its name may be spelled differently than the card searched for.
+	 */
+	private static class Waiter {
+
+		private final Lookup lookup;
+		private final Card card;
+		private final Source source;
+
+		Waiter(Lookup lookup, Card card, Source source){
+			this.lookup = lookup;
+			this.card = card;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * The key of a card searched for by a card finder.
+	 */
+	private static class Key {
+
+		private final String finder;
+		private final String card;
+
+		Key(String finder, String card){
+			this.finder = finder;
+			this.card = card;
+		}
+
+		@Override
+		public int hashCode(){
+			return 31 * finder.hashCode() + card.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return k.finder.equals(finder) && k.card.equals(card);
+		}
+	}
+}
@@ -0,0 +1,528 @@
+package sk.lkce.mtgp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import sk.lkce.mtgp.cardsearch.CardFinder;
+import sk.lkce.mtgp.cardsearch.CardParser;
+import sk.lkce.mtgp.cardsearch.PricingEngine;
+import sk.lkce.mtgp.cardsearch.SearchExecutor;
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
+import sk.lkce.mtgp.tablemodel.ReportCreator;
+
+/**
+ * A small local HTTP server which answers the price queries of other tools in JSON. All the requests
+ * share one {@link PricingEngine}, so the prices found for one client are cached for the others and
+ * the same card is never searched for by several requests at the same time (see {@link CoalescingPricer}).
+ * Each client (remote address) can have only {@link #getClientLimit()} requests in progress, the rest
+ * is refused with <code>429 Too Many Requests</code>.
+ * <p>
+ * The API:
+ * <pre>
+ * GET  /finders                         the card finders
+ * GET  /price?card=NAME[&amp;finders=A,B]    the prices of one card
+ * POST /deck[?finders=A,B][&amp;stream=true]  the prices and totals of a deck, the body is a deck list
+ *                                       (one card per line as in the deck files); when streamed, the
+ *                                       response is a line of JSON for each price found and a final
+ *                                       line with the whole deck
+ * GET  /stats                           the counters of the server
+ * </pre>
+ * The prices are JSON numbers in the currency given by the <code>currency</code> member. The cards which
+ * were not found have <code>null</code> price, those which could not be searched for have an <code>error</code>.
+ * A streamed response which fails after it has started ends with an <code>error</code> event line.
+ * <p>
+ * The distribution starts the server by the <code>mtg-pricer-server</code> script, which runs
+ * <code>java -cp "data/lib/*" sk.lkce.mtgp.server.PricingServer</code>. {@link PricingServerBenchmark}
+ * measures the throughput of the server against local stub vendors.
+ */
+public class PricingServer {
+
+	/** The default port of the server. */
+	public static final int DEFAULT_PORT = 8765;
+	/** The default number of the requests of one client in progress at the same time. */
+	public static final int DEFAULT_CLIENT_LIMIT = 4;
+	/** The default maximal time of waiting for the prices of a request in milliseconds. */
+	public static final long DEFAULT_REQUEST_TIMEOUT = 5 * 60 * 1000L;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAX_BODY = 1 << 20;
+
+	private final PricingEngine engine;
+	private final List<CardFinder> finders;
+	private final CoalescingPricer pricer;
+	private final HttpServer server;
+	private final ExecutorService requestThreads;
+	private final int clientLimit;
+	private final ConcurrentMap<InetAddress, Semaphore> clients = new ConcurrentHashMap<>();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong refusedCount = new AtomicLong();
+	private volatile long requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+	/**
+	 * Creates a server of all the card finders of an engine. The server is not started yet.
+	 * @param engine the pricing engine
+	 * @param address the address to listen on
+	 * @param clientLimit the number of the requests of one client in progress at the same time
+	 * @throws IOException if the address cannot be bound
+	 */
+	public PricingServer(PricingEngine engine, InetSocketAddress address, int clientLimit) throws IOException {
+		this(engine, engine.getCardFinders(), address, clientLimit);
+	}
+
+	/**
+	 * Creates a server of given card finders. The server is not started yet.
+	 * @param engine the pricing engine
+	 * @param finders the card finders offered by the server
+	 * @param address the address to listen on
+	 * @param clientLimit the number of the requests of one client in progress at the same time
+	 * @throws IOException if the address cannot be bound
+	 */
+	public PricingServer(PricingEngine engine, List<CardFinder> finders, InetSocketAddress address,
+			int clientLimit) throws IOException {
+		if (clientLimit < 1)
+			throw new IllegalArgumentException("The client limit must be positive: " + clientLimit);
+		this.engine = engine;
+		this.finders = Collections.unmodifiableList(new ArrayList<>(finders));
+		this.clientLimit = clientLimit;
+		pricer = new CoalescingPricer(engine);
+		server = HttpServer.create(address, 0);
+		//The request threads mostly wait for the search workers of the engine.
+		requestThreads = Executors.newCachedThreadPool();
+		server.setExecutor(requestThreads);
+		server.createContext("/finders", new FindersHandler());
+		server.createContext("/price", new PriceHandler());
+		server.createContext("/deck", new DeckHandler());
+		server.createContext("/stats", new StatsHandler());
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = DEFAULT_PORT;
+		String bind = null;
+		int threads = SearchExecutor.DEFAULT_PARALLELISM;
+		int clientLimit = DEFAULT_CLIENT_LIMIT;
+		try {
+			for (int i = 0; i < args.length; i++){
+				String arg = args[i];
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value of the option " + arg);
+				switch (arg) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					break;
+				case "--bind":
+					bind = args[++i];
+					break;
+				case "--threads":
+					threads = Integer.parseInt(args[++i]);
+					break;
+				case "--client-limit":
+					clientLimit = Integer.parseInt(args[++i]);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: mtg-pricer-server [--port n] [--bind address] [--threads n] [--client-limit n]");
+			System.exit(2);
+		}
+
+		//Only the local tools are served unless another address is given.
+		InetAddress address = (bind == null) ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+		final PricingEngine engine = new PricingEngine(PricingEngine.APPLICATION_DIRECTORY, threads);
+		final PricingServer server = new PricingServer(engine, new InetSocketAddress(address, port), clientLimit);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				server.stop();
+				engine.shutdown();
+			}
+		}, "pricing-server-shutdown"));
+		server.start();
+		System.out.println("Serving prices on http://" + address.getHostAddress() + ":" + server.getPort() + "/");
+	}
+
+	/**
+	 * Starts accepting the requests.
+	 */
+	public void start(){
+		server.start();
+	}
+
+	/**
+	 * Stops the server. The requests in progress get at most a second to finish.
+	 * The pricing engine is not shut down.
+	 */
+	public void stop(){
+		server.stop(1);
+		requestThreads.shutdownNow();
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 * @return the port
+	 */
+	public int getPort(){
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the number of the requests of one client in progress at the same time.
+	 * @return the client limit
+	 */
+	public int getClientLimit(){
+		return clientLimit;
+	}
+
+	/**
+	 * Sets the maximal time of waiting for the prices of a request. The searches which take longer
+	 * go on and their prices are cached, but the request is answered with <code>504 Gateway Timeout</code>.
+	 * @param timeout the timeout in milliseconds
+	 */
+	public void setRequestTimeout(long timeout){
+		if (timeout < 1)
+			throw new IllegalArgumentException("The timeout must be positive: " + timeout);
+		requestTimeout = timeout;
+	}
+
+	/**
+	 * Returns the card finders selected by the <code>finders</code> query parameter.
+	 * @throws IllegalArgumentException if there is no card finder with one of the names
+	 */
+	private List<CardFinder> selectFinders(Map<String, String> query){
+		String names = query.get("finders");
+		if (names == null || names.trim().isEmpty())
+			return finders;
+		List<CardFinder> selected = new ArrayList<>();
+		for (String name : names.split(",")){
+			CardFinder found = null;
+			for (CardFinder f : finders)
+				if (f.getName().equalsIgnoreCase(name.trim()))
+					found = f;
+			if (found == null)
+				throw new IllegalArgumentException("Unknown card finder " + name.trim());
+			if (!selected.contains(found))
+				selected.add(found);
+		}
+		return selected;
+	}
+
+	/**
+	 * The base of the request handlers which limits the requests of each client
+	 * and turns the exceptions into error responses.
+	 */
+	private abstract class JsonHandler implements HttpHandler {
+
+		private final String method;
+
+		JsonHandler(String method){
+			this.method = method;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			requestCount.incrementAndGet();
+			try {
+				if (!exchange.getRequestMethod().equalsIgnoreCase(method)){
+					exchange.getResponseHeaders().set("Allow", method);
+					sendError(exchange, 405, "Use " + method);
+					return;
+				}
+				InetAddress client = exchange.getRemoteAddress().getAddress();
+				Semaphore permits = clients.get(client);
+				if (permits == null){
+					Semaphore s = clients.putIfAbsent(client, permits = new Semaphore(clientLimit));
+					if (s != null)
+						permits = s;
+				}
+				if (!permits.tryAcquire()){
+					refusedCount.incrementAndGet();
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					sendError(exchange, 429, "Too many requests in progress, the limit is " + clientLimit);
+					return;
+				}
+				try {
+					handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+				} finally {
+					permits.release();
+				}
+			} catch (IllegalArgumentException | ParseException e) {
+				sendError(exchange, 400, e.getMessage());
+			} catch (InterruptedException e) {
+				sendError(exchange, 503, "The server is stopping");
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				sendError(exchange, 500, e.toString());
+			} finally {
+				exchange.close();
+			}
+		}
+
+		/**
+		 * Handles a request which was accepted.
+		 * @param exchange the exchange
+		 * @param query the decoded query parameters
+		 */
+		abstract void handle(HttpExchange exchange, Map<String, String> query)
+				throws IOException, ParseException, InterruptedException;
+	}
+
+	private class FindersHandler extends JsonHandler {
+
+		FindersHandler(){
+			super("GET");
+		}
+
+		@Override
+		void handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+			StringBuilder sb = new StringBuilder("{\"finders\": [");
+			for (int i = 0; i < finders.size(); i++){
+				CardFinder f = finders.get(i);
+				sb.append((i == 0) ? "" : ", ").append("{\"name\": ").append(ReportCreator.quoteJSON(f.getName()))
+					.append(", \"currency\": ").append(ReportCreator.quoteJSON(f.getCurrency().getCurrencyCode()))
+					.append(", \"url\": ").append(ReportCreator.quoteJSON(f.getURL())).append("}");
+			}
+			sendJson(exchange, 200, sb.append("]}\n").toString());
+		}
+	}
+
+	private class PriceHandler extends JsonHandler {
+
+		PriceHandler(){
+			super("GET");
+		}
+
+		@Override
+		void handle(HttpExchange exchange, Map<String, String> query) throws IOException, InterruptedException {
+			String name = query.get("card");
+			if (name == null || name.trim().isEmpty())
+				throw new IllegalArgumentException("Missing parameter card");
+			Card card = new Card(name.trim());
+			List<CardFinder> selected = selectFinders(query);
+			CoalescingPricer.Lookup lookup = pricer.lookup(Collections.singletonList(card), selected);
+			if (!lookup.await(requestTimeout)){
+				sendError(exchange, 504, "The prices were not found in time");
+				return;
+			}
+			StringBuilder sb = new StringBuilder("{\"card\": ").append(ReportCreator.quoteJSON(card.getName()))
+					.append(", \"currency\": ").append(ReportCreator.quoteJSON(displayCurrency()))
+					.append(", \"results\": [");
+			for (int i = 0; i < selected.size(); i++)
+				appendOutcome(sb.append((i == 0) ? "" : ", "), lookup.get(card, selected.get(i)));
+			sendJson(exchange, 200, sb.append("]}\n").toString());
+		}
+	}
+
+	private class DeckHandler extends JsonHandler {
+
+		DeckHandler(){
+			super("POST");
+		}
+
+		@Override
+		void handle(HttpExchange exchange, Map<String, String> query)
+				throws IOException, ParseException, InterruptedException {
+			Map<Card, Integer> deck = CardParser.parseFromString(readBody(exchange));
+			List<CardFinder> selected = selectFinders(query);
+			CoalescingPricer.Lookup lookup = pricer.lookup(deck.keySet(), selected);
+
+			if (!Boolean.parseBoolean(query.get("stream"))){
+				if (!lookup.await(requestTimeout)){
+					sendError(exchange, 504, "The prices were not found in time");
+					return;
+				}
+				sendJson(exchange, 200, deckJson(deck, selected, lookup) + "\n");
+				return;
+			}
+
+			//Streams one line for each outcome as soon as it is found.
+			exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream out = exchange.getResponseBody();
+			long deadline = System.currentTimeMillis() + requestTimeout;
+			for (int i = 0; i < lookup.size(); i++){
+				CoalescingPricer.Outcome o = lookup.poll(Math.max(1, deadline - System.currentTimeMillis()));
+				if (o == null){
+					out.write("{\"event\": \"timeout\"}\n".getBytes(UTF8));
+					return;
+				}
+				StringBuilder sb = new StringBuilder("{\"event\": \"price\", \"card\": ")
+						.append(ReportCreator.quoteJSON(o.getCard().getName()))
+						.append(", \"done\": ").append(i + 1).append(", \"of\": ").append(lookup.size()).append(", \"result\": ");
+				appendOutcome(sb, o);
+				out.write(sb.append("}\n").toString().getBytes(UTF8));
+				out.flush();
+			}
+			out.write(("{\"event\": \"deck\", \"deck\": " + deckJson(deck, selected, lookup) + "}\n").getBytes(UTF8));
+		}
+	}
+
+	private class StatsHandler extends JsonHandler {
+
+		StatsHandler(){
+			super("GET");
+		}
+
+		@Override
+		void handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+			sendJson(exchange, 200, "{\"requests\": " + requestCount.get()
+					+ ", \"refused\": " + refusedCount.get()
+					+ ", \"searched\": " + pricer.getSearchedCount()
+					+ ", \"coalesced\": " + pricer.getCoalescedCount()
+					+ ", \"cached\": " + pricer.getCachedCount()
+					+ ", \"inFlight\": " + pricer.getInFlightCount()
+					+ ", \"cacheSize\": " + engine.getPriceCache().size() + "}\n");
+		}
+	}
+
+	/**
+	 * Returns the JSON object with the prices and totals of a deck.
+	 */
+	private String deckJson(Map<Card, Integer> deck, List<CardFinder> selected, CoalescingPricer.Lookup lookup){
+		Map<CardFinder, Long> totals = new HashMap<>();
+		StringBuilder sb = new StringBuilder("{\"currency\": ").append(ReportCreator.quoteJSON(displayCurrency()))
+				.append(", \"cards\": [");
+		boolean first = true;
+		for (Map.Entry<Card, Integer> e : deck.entrySet()){
+			sb.append(first ? "" : ", ").append("{\"name\": ").append(ReportCreator.quoteJSON(e.getKey().getName()))
+				.append(", \"quantity\": ").append(e.getValue()).append(", \"prices\": {");
+			first = false;
+			for (int i = 0; i < selected.size(); i++){
+				CardFinder f = selected.get(i);
+				CoalescingPricer.Outcome o = lookup.get(e.getKey(), f);
+				CardResult r = (o == null) ? null : o.getResult();
+				sb.append((i == 0) ? "" : ", ").append(ReportCreator.quoteJSON(f.getName())).append(": ");
+				if (r == null || r == CardResult.NULL_CARD_RESULT)
+					sb.append("null");
+				else {
+					Money price = r.getNormalizedPrice();
+					sb.append(price.toBigDecimal().toPlainString());
+					Long total = totals.get(f);
+					totals.put(f, ((total == null) ? 0 : total) + price.getMinorUnits() * e.getValue());
+				}
+			}
+			sb.append("}}");
+		}
+		sb.append("], \"totals\": {");
+		for (int i = 0; i < selected.size(); i++){
+			Long total = totals.get(selected.get(i));
+			Money money = new Money((total == null) ? 0 : total, engine.getCurrencyConverter().getDisplayCurrency());
+			sb.append((i == 0) ? "" : ", ").append(ReportCreator.quoteJSON(selected.get(i).getName())).append(": ")
+				.append(money.toBigDecimal().toPlainString());
+		}
+		return sb.append("}}").toString();
+	}
+
+	/**
+	 * Appends the members describing the outcome of a card finder.
+	 */
+	private void appendOutcome(StringBuilder sb, CoalescingPricer.Outcome o){
+		sb.append("{\"finder\": ").append(ReportCreator.quoteJSON(o.getFinder().getName()))
+			.append(", \"source\": ").append(ReportCreator.quoteJSON(o.getSource().name().toLowerCase(Locale.ROOT)));
+		CardResult r = o.getResult();
+		if (r == null)
+			sb.append(", \"error\": ").append(ReportCreator.quoteJSON(String.valueOf(o.getFailure())));
+		else if (r == CardResult.NULL_CARD_RESULT)
+			sb.append(", \"found\": false, \"price\": null");
+		else {
+			BigDecimal price = r.getNormalizedPrice().toBigDecimal();
+			sb.append(", \"found\": true, \"name\": ").append(ReportCreator.quoteJSON(r.getName()))
+				.append(", \"edition\": ").append((r.getEdition() == null) ? "null" : ReportCreator.quoteJSON(r.getEdition()))
+				.append(", \"price\": ").append(price.toPlainString())
+				.append(", \"originalPrice\": ").append(r.getPrice().toBigDecimal().toPlainString())
+				.append(", \"originalCurrency\": ").append(ReportCreator.quoteJSON(r.getCurrency().getCurrencyCode()));
+		}
+		sb.append("}");
+	}
+
+	private String displayCurrency(){
+		return engine.getCurrencyConverter().getDisplayCurrency().getCurrencyCode();
+	}
+
+	private static String readBody(HttpExchange exchange) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = exchange.getRequestBody();
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1){
+			bytes.write(buffer, 0, n);
+			if (bytes.size() > MAX_BODY)
+				throw new IllegalArgumentException("The request body is larger than " + MAX_BODY + " bytes");
+		}
+		return new String(bytes.toByteArray(), UTF8);
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery){
+		Map<String, String> query = new HashMap<>();
+		if (rawQuery == null)
+			return query;
+		try {
+			for (String pair : rawQuery.split("&")){
+				int eq = pair.indexOf('=');
+				if (eq < 0)
+					query.put(URLDecoder.decode(pair, "UTF-8"), "");
+				else
+					query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e); //UTF-8 is supported by every Java platform.
+		}
+		return query;
+	}
+
+	private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+	}
+
+	/**
+	 * Sends an error response. If the response headers were already sent (a streamed response),
+	 * only an error event line is written, its status is kept in the <code>status</code> member.
+	 */
+	private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		String error = ReportCreator.quoteJSON(String.valueOf(message));
+		if (exchange.getResponseCode() != -1){
+			OutputStream out = exchange.getResponseBody();
+			out.write(("{\"event\": \"error\", \"status\": " + status + ", \"error\": " + error + "}\n").getBytes(UTF8));
+			out.flush();
+			return;
+		}
+		sendJson(exchange, status, "{\"error\": " + error + "}\n");
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ port: " + getPort() + ", finders: " + finders.size()
+				+ ", client limit: " + clientLimit + "]";
+	}
+}
@@ -0,0 +1,248 @@
+package sk.lkce.mtgp.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sk.lkce.mtgp.cardsearch.CardFinder;
+import sk.lkce.mtgp.cardsearch.PricingEngine;
+import sk.lkce.mtgp.cardsearch.StubCardFinder;
+
+/**
+ * Measures the throughput of a {@link PricingServer} whose card finders are two local stub vendors
+ * (see {@link StubCardFinder}). Several clients send their requests at the same time, every other
+ * request is a single card, the rest are decks, all of them made of the cards of one pool. All the clients
+ * connect from the loopback address, so they share one client limit. The engine uses a temporary
+ * directory which is deleted at the end.
+ * <p>
+ * Runs by <code>java -cp "data/lib/*" sk.lkce.mtgp.server.PricingServerBenchmark [options]</code>,
+ * the options are printed when they are not valid.
+ */
+public class PricingServerBenchmark {
+
+	private static final String USAGE =
+			"Usage: java -cp \"data/lib/*\" sk.lkce.mtgp.server.PricingServerBenchmark [options]\n"
+			+ "  --clients <n>       number of the clients sending the requests at the same time (default: 16)\n"
+			+ "  --requests <n>      number of the requests of each client (default: 20)\n"
+			+ "  --latency <ms>      time of each lookup of the stub vendors (default: 20)\n"
+			+ "  --pool <n>          number of the distinct cards (default: 300)\n"
+			+ "  --deck <n>          number of the cards of each deck (default: 40)\n"
+			+ "  --client-limit <n>  requests of one client address in progress (default: the clients)\n"
+			+ "  --threads <n>       number of the search worker threads of the engine (default: 16)\n"
+			+ "  --no-cache          search for all the prices again instead of reusing the cached ones";
+
+	private int clients = 16;
+	private int requests = 20;
+	private long latency = 20;
+	private int pool = 300;
+	private int deckSize = 40;
+	private int clientLimit = -1;
+	private int threads = 16;
+	private boolean cache = true;
+
+	public static void main(String[] args) throws Exception {
+		PricingServerBenchmark benchmark = new PricingServerBenchmark();
+		try {
+			for (int i = 0; i < args.length; i++){
+				String arg = args[i];
+				if (arg.equals("--no-cache")){
+					benchmark.cache = false;
+					continue;
+				}
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value of the option " + arg);
+				int value = Integer.parseInt(args[++i]);
+				if (value < 1)
+					throw new IllegalArgumentException("The value of the option " + arg + " must be positive");
+				switch (arg) {
+				case "--clients":
+					benchmark.clients = value;
+					break;
+				case "--requests":
+					benchmark.requests = value;
+					break;
+				case "--latency":
+					benchmark.latency = value;
+					break;
+				case "--pool":
+					benchmark.pool = value;
+					break;
+				case "--deck":
+					benchmark.deckSize = value;
+					break;
+				case "--client-limit":
+					benchmark.clientLimit = value;
+					break;
+				case "--threads":
+					benchmark.threads = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		benchmark.run();
+	}
+
+	/**
+	 * Starts the server, sends all the requests and prints the results.
+	 */
+	private void run() throws IOException, InterruptedException, ExecutionException {
+		Path directory = Files.createTempDirectory("mtg-pricer-benchmark");
+		PricingEngine engine = new PricingEngine(directory.toFile(), threads);
+		ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+		try {
+			engine.setCacheMaxAge(cache ? PricingEngine.DEFAULT_CACHE_MAX_AGE : 0);
+			StubCardFinder first = new StubCardFinder("StubA", Currency.getInstance("EUR"), latency);
+			StubCardFinder second = new StubCardFinder("StubB", Currency.getInstance("CZK"), latency);
+			PricingServer server = new PricingServer(engine, Arrays.<CardFinder>asList(first, second),
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), (clientLimit < 0) ? clients : clientLimit);
+			server.start();
+			try {
+				String base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort();
+				final AtomicInteger served = new AtomicInteger();
+				final AtomicInteger refused = new AtomicInteger();
+				final AtomicInteger failed = new AtomicInteger();
+				List<Future<?>> futures = new ArrayList<>();
+				long start = System.nanoTime();
+				for (int c = 0; c < clients; c++)
+					futures.add(clientThreads.submit(new Client(base, new Random(c), served, refused, failed)));
+				for (Future<?> f : futures)
+					f.get();
+				double seconds = (System.nanoTime() - start) / 1e9;
+
+				//Every other request is a deck, each card is looked up by both finders.
+				long lookups = 2L * clients * ((requests + 1) / 2 + (long) (requests / 2) * deckSize);
+				System.out.printf("%d clients x %d requests (%d card x finder lookups) in %.2f s%n",
+						clients, requests, lookups, seconds);
+				System.out.printf("served: %d (%.1f req/s), refused: %d, failed: %d%n",
+						served.get(), served.get() / seconds, refused.get(), failed.get());
+				System.out.printf("vendor calls: %d%n", first.getLookupCount() + second.getLookupCount());
+				System.out.print(get(base + "/stats", new int[1]));
+			} finally {
+				server.stop();
+			}
+		} finally {
+			clientThreads.shutdownNow();
+			engine.shutdown();
+			delete(directory);
+		}
+	}
+
+	/**
+	 * A client which sends its requests one after another.
+	 */
+	private class Client implements Callable<Void> {
+
+		private final String base;
+		private final Random random;
+		private final AtomicInteger served;
+		private final AtomicInteger refused;
+		private final AtomicInteger failed;
+
+		Client(String base, Random random, AtomicInteger served, AtomicInteger refused, AtomicInteger failed){
+			this.base = base;
+			this.random = random;
+			this.served = served;
+			this.refused = refused;
+			this.failed = failed;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			int[] status = new int[1];
+			for (int i = 0; i < requests; i++){
+				if (i % 2 == 0)
+					get(base + "/price?card=" + URLEncoder.encode(randomCard(), "UTF-8"), status);
+				else {
+					StringBuilder deck = new StringBuilder();
+					for (int j = 0; j < deckSize; j++)
+						deck.append("1 ").append(randomCard()).append('\n');
+					post(base + "/deck", deck.toString(), status);
+				}
+				if (status[0] == 200)
+					served.incrementAndGet();
+				else if (status[0] == 429)
+					refused.incrementAndGet();
+				else
+					failed.incrementAndGet();
+			}
+			return null;
+		}
+
+		private String randomCard(){
+			return "Stub Card " + random.nextInt(pool);
+		}
+	}
+
+	private static String get(String url, int[] status) throws IOException {
+		return read((HttpURLConnection) new URL(url).openConnection(), status);
+	}
+
+	private static String post(String url, String body, int[] status) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		connection.setDoOutput(true);
+		connection.setRequestMethod("POST");
+		try (OutputStream out = connection.getOutputStream()) {
+			out.write(body.getBytes("UTF-8"));
+		}
+		return read(connection, status);
+	}
+
+	/**
+	 * Reads the whole response, so the connection can be kept alive.
+	 */
+	private static String read(HttpURLConnection connection, int[] status) throws IOException {
+		status[0] = connection.getResponseCode();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (InputStream in = (status[0] < 400) ? connection.getInputStream() : connection.getErrorStream()) {
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				bytes.write(buffer, 0, n);
+		}
+		return bytes.toString("UTF-8");
+	}
+
+	private static void delete(Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
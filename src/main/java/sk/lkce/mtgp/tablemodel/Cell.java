@@ -1,9 +1,21 @@
 package sk.lkce.mtgp.tablemodel;
 
+import sk.lkce.mtgp.cardsearch.OfflineCardResult;
+import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Money;
+
 
 /**
  * A representation of the cell in the table model - {@link MtgPricerTableModel}.
  * The cell contains a text and is of a given cell type.
+ * <br>
+ * The numeric cells carry a primitive sort key (the price in minor units of the display
+ * currency or the integer value) which is computed once when the cell is created, so the
+ * cells are compared without parsing their text. The text of the string cells is interned.
+ * <br>
+ * A stale price cell shows a price which was not found by the current search, e.g. the last known
+ * price of a card while its current price is being searched for. It is shown with the age of the price,
+ * which is computed when it is shown, so the cached cells keep aging.
  */
 public class Cell implements Comparable<Cell>{
 	
@@ -12,15 +24,91 @@ public class Cell implements Comparable<Cell>{
 	 */
 	public static enum Type {STRING, PRICE, INTEGER};
 	
-	public static Cell NOT_FOUND_CELL = new Cell("not found", Type.PRICE);
-	public static Cell NOT_PROCESSED_CELL = new Cell("", Type.PRICE);
+	//The special price cells are ordered before all the prices: not processed < not found < any price.
+	public static final Cell NOT_FOUND_CELL = new Cell("not found", Type.PRICE, Long.MIN_VALUE + 1);
+	public static final Cell NOT_PROCESSED_CELL = new Cell("", Type.PRICE, Long.MIN_VALUE);
+	
+	private final String text;
+	private final Type type;
+	private final long sortKey;
+	private final long timestamp;	//When the stale price was found, NO_TIMESTAMP if the cell is not stale
 	
-	private String text;
-	private Type type;
+	private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	
+	private Cell(String text, Type type, long sortKey){
+		this(text, type, sortKey, NO_TIMESTAMP);
+	}
 	
-	public Cell(String text, Type type){
+	private Cell(String text, Type type, long sortKey, long timestamp){
 		this.text = text;
 		this.type = type;
+		this.sortKey = sortKey;
+		this.timestamp = timestamp;
+	}
+	
+	/**
+	 * Creates a string cell.
+	 * @param text the text of the cell
+	 * @return the cell
+	 */
+	public static Cell forString(String text){
+		return new Cell(text.intern(), Type.STRING, 0);
+	}
+	
+	/**
+	 * Creates an integer cell.
+	 * @param value the value of the cell
+	 * @return the cell
+	 */
+	public static Cell forInteger(int value){
+		return new Cell(Integer.toString(value), Type.INTEGER, value);
+	}
+	
+	/**
+	 * Creates a price cell. The prices of all the price cells which are compared 
+	 * need to be in the same currency.
+	 * @param price the price shown in the cell
+	 * @return the cell
+	 */
+	public static Cell forPrice(Money price){
+		return new Cell(price.format(), Type.PRICE, price.getMinorUnits());
+	}
+	
+	/**
+	 * Creates a stale price cell with a price which was not found by the current search.
+	 * The prices of all the price cells which are compared need to be in the same currency.
+	 * @param price the price
+	 * @param timestamp the time when the price was found in milliseconds
+	 * @return the cell
+	 */
+	public static Cell forStalePrice(Money price, long timestamp){
+		return new Cell(price.format(), Type.PRICE, price.getMinorUnits(), timestamp);
+	}
+	
+	/**
+	 * Creates a price cell for a card result. The offline results are shown as stale prices.
+	 * @param result the found card result
+	 * @return the cell
+	 */
+	static Cell forResult(CardResult result){
+		if (result instanceof OfflineCardResult)
+			return forStalePrice(result.getNormalizedPrice(), ((OfflineCardResult) result).getTimestamp());
+		return forPrice(result.getNormalizedPrice());
+	}
+	
+	/**
+	 * Formats an age in the largest whole units up to days, e.g. "5 min", "3 h" or "2 d".
+	 * @param age the age in milliseconds
+	 * @return the formatted age
+	 */
+	public static String formatAge(long age){
+		long minutes = age / (60 * 1000);
+		if (minutes < 60)
+			return Math.max(1, minutes) + " min";
+		long hours = minutes / 60;
+		if (hours < 48)
+			return hours + " h";
+		return (hours / 24) + " d";
 	}
 	
 	/**
@@ -31,6 +119,17 @@ public class Cell implements Comparable<Cell>{
 		return text;
 	}
 	
+	/**
+	 * Returns the text which is shown to the user: the text of this cell followed
+	 * by the age of the price if this is a stale price cell.
+	 * @return the shown text
+	 */
+	public String getDisplayText(){
+		if (!isStale())
+			return text;
+		return text + " (" + formatAge(getAge()) + " old)";
+	}
+	
 	/**
 	 * Returns this cells's type.
 	 * @return the type of this cell
@@ -39,6 +138,33 @@ public class Cell implements Comparable<Cell>{
 		return type;
 	}
 	
+	/**
+	 * Returns whether this cell shows a last known price instead of the current one.
+	 * @return <code>true</code> if this is a stale price cell
+	 */
+	public boolean isStale(){
+		return timestamp != NO_TIMESTAMP;
+	}
+	
+	/**
+	 * Returns the current age of the last known price of a stale price cell.
+	 * @return the age in milliseconds or -1 if this is not a stale price cell
+	 */
+	public long getAge(){
+		if (!isStale())
+			return -1;
+		return Math.max(0, System.currentTimeMillis() - timestamp);
+	}
+	
+	/**
+	 * Returns the sort key of this cell. It is the price in the minor units for the price cells,
+	 * the value for the integer cells and zero for the string cells.
+	 * @return the sort key
+	 */
+	public long getSortKey(){
+		return sortKey;
+	}
+	
 
 	@Override
 	public int hashCode() {
@@ -75,53 +201,15 @@ public class Cell implements Comparable<Cell>{
 
 	@Override
 	public int compareTo(Cell anotherCell) {
-	
-		//Node - "NA" = not available/not found cell.
-		
-		//If the first is not loaded
-		if (this == Cell.NOT_PROCESSED_CELL)
-			//..and the second is not.
-			if (anotherCell != Cell.NOT_PROCESSED_CELL)
-				return -1;
-			//if both are NA.
-			else
-				return 0;
-		//If only second is NA.
-		if (anotherCell == Cell.NOT_PROCESSED_CELL)
-			return 1;
-		
-		//If the first is NA...
-		if (this == Cell.NOT_FOUND_CELL)
-			//..and the second is not.
-			if (anotherCell != Cell.NOT_FOUND_CELL)
-				return -1;
-			//if both are NA.
-			else
-				return 0;
-		//If only second is NA.
-		if (anotherCell == Cell.NOT_FOUND_CELL)
-			return 1;
-		
 		
 		if (this.getType() != anotherCell.getType())
 			throw new IllegalArgumentException("Cells are not of the same type!");
 		
 		if (this.getType() == Cell.Type.STRING)
-			return this.getText().compareTo(anotherCell.getText());
-		
-		if (this.getType() == Cell.Type.PRICE){
-			
-			//Split the format '##.## CURRENCY' and take the first token -  double value part (get rid of currency characters).
-			Double d1 = Double.parseDouble(this.getText().split(" ")[0]); 
-			Double d2 = Double.parseDouble(this.getText().split(" ")[0]);
-			return d1.compareTo(d2); 
-		}
-		if (this.getType() == Cell.Type.INTEGER){
-			Integer i1 = Integer.parseInt(this.getText());
-			Integer i2 = Integer.parseInt(anotherCell.getText());
-			return i1.compareTo(i2); 
-		}
+			//Interned, so the same names are resolved without comparing the characters.
+			return (text == anotherCell.text) ? 0 : text.compareTo(anotherCell.text);
 		
-		throw new AssertionError();
+		//The special (not processed, not found) cells are ordered by their sort keys too.
+		return Long.compare(sortKey, anotherCell.sortKey);
 	}
 }
@@ -0,0 +1,67 @@
+package sk.lkce.mtgp.tablemodel;
+
+/**
+ * A cache of the cells of {@link MtgPricerTableModel}. Each cached cell is stored
+ * together with the source object it was built from (e.g. the card result). The cell is
+ * reused as long as it is requested for the same source.
+ * <br>
+ * The cache has fixed dimensions. When the table layout changes (rows or columns are added,
+ * removed or reordered) a new cache replaces the old one. Not thread safe, intended to be used
+ * on the EDT only.
+ */
+class CellCache {
+
+	private final int rowCount;
+	private final int columnCount;
+	private final Cell[] cells;
+	private final Object[] sources;
+
+	/**
+	 * Creates an empty cell cache.
+	 * @param rowCount the number of rows
+	 * @param columnCount the number of columns
+	 */
+	CellCache(int rowCount, int columnCount){
+		this.rowCount = rowCount;
+		this.columnCount = columnCount;
+		cells = new Cell[rowCount * columnCount];
+		sources = new Object[rowCount * columnCount];
+	}
+
+	/**
+	 * Returns the cached cell at the specified position if it was built
+	 * from a given source.
+	 * @param row the row index
+	 * @param column the column index
+	 * @param source the current source object of the cell
+	 * @return the cached cell or <code>null</code> if there is no valid cell
+	 */
+	Cell get(int row, int column, Object source){
+		int i = row * columnCount + column;
+		Object cached = sources[i];
+		if (cached == source || (cached != null && cached.equals(source)))
+			return cells[i];
+		return null;
+	}
+
+	/**
+	 * Stores a cell built from a given source at the specified position.
+	 */
+	void put(int row, int column, Object source, Cell cell){
+		int i = row * columnCount + column;
+		sources[i] = source;
+		cells[i] = cell;
+	}
+
+	/**
+	 * Returns whether this cache has given dimensions.
+	 */
+	boolean hasSize(int rowCount, int columnCount){
+		return this.rowCount == rowCount && this.columnCount == columnCount;
+	}
+
+	@Override
+	public String toString(){
+		return getClass().getSimpleName() + "[ " + rowCount + "x" + columnCount + "]";
+	}
+}
@@ -1,21 +1,19 @@
 package sk.lkce.mtgp.tablemodel;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 import javax.swing.table.AbstractTableModel;
 
 import sk.lkce.mtgp.cardsearch.CardFinder;
-import sk.lkce.mtgp.cardsearch.CardSearchResultSet;
+import sk.lkce.mtgp.cardsearch.LastKnownPrices;
+import sk.lkce.mtgp.cardsearch.PriceCache;
+import sk.lkce.mtgp.cardsearch.ResultMatrix;
 import sk.lkce.mtgp.domain.Card;
 import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.domain.Phase;
 import sk.lkce.mtgp.domain.PricingSettings;
 import sk.lkce.mtgp.gui.CardGrid;
 import sk.lkce.mtgp.gui.Controller;
-import sk.lkce.mtgp.gui.Controller.Phase;
 
 /**
  * A table model for  {@link CardGrid}.
@@ -27,7 +25,7 @@ import sk.lkce.mtgp.gui.Controller.Phase;
  * </ol>
  */
 @SuppressWarnings("serial")
-public class MtgPricerTableModel extends AbstractTableModel {
+public class MtgPricerTableModel extends AbstractTableModel implements ResultTable {
 
 	/**
 	 * The type of a column in {@link MtgPricerTableModel} / {@link CardGrid}
@@ -49,8 +47,12 @@ public class MtgPricerTableModel extends AbstractTableModel {
 	private PricingSettings pricingSettings;
 	private Phase currentPhase;
 	private Controller controller;
-	private List<CardFinder> cardFinders;
-	private Map<CardFinder,CardSearchResultSet> resultsContainer;
+	private ResultMatrix resultMatrix;
+	private LastKnownPrices lastKnownPrices;	//Shown until the current prices are found, may be null
+	private int[] rowCardIds;	//Row index -> card id in the result matrix
+	private int[] cardIdRows;	//Card id in the result matrix -> row index
+	private CellCache cellCache;
+	private int cellCacheModCount;
 
 	/**
 	 * Constructs an mtg pricer table model and binds it to a given controller.
@@ -68,52 +70,152 @@ public class MtgPricerTableModel extends AbstractTableModel {
 	public void newPricing(PricingSettings settings){
 		pricingSettings = settings;
 		currentPhase = Phase.SETTING;
+		resultMatrix = null;
+		lastKnownPrices = null;
+		cellCache = null;
+	}
+
+	/**
+	 * Sets this table model back to the setting phase with the current
+	 * pricing settings, so the card list can be edited after a search.
+	 */
+	public void editPricing(){
+		currentPhase = Phase.SETTING;
+		resultMatrix = null;
+		lastKnownPrices = null;
+		cellCache = null;
 	}
 
 	/**
 	 * Invoked when the card price search has started 
-	 * @param searchResults a collection of the involved card pricers' search results
+	 * @param resultMatrix the result matrix of the search
 	 */
-	public void searchStarted(Collection<CardSearchResultSet> searchResults){
-		resultsContainer = new HashMap<>();
-		
-		cardFinders = new ArrayList<>();
-		for (CardSearchResultSet res : searchResults){ //Store it in the internal hash map for faster access
-			resultsContainer.put(res.getFinder(),res);
-			cardFinders.add(res.getFinder());
-		}
+	public void searchStarted(ResultMatrix resultMatrix){
+		searchStarted(resultMatrix, null);
+	}
+
+	/**
+	 * Invoked when the card price search has started. The cards which do not have a result yet
+	 * show their last known prices as stale price cells, which are replaced by the current
+	 * prices as they are found.
+	 * @param resultMatrix the result matrix of the search
+	 * @param lastKnownPrices the last known prices or <code>null</code> to show empty cells
+	 */
+	public void searchStarted(ResultMatrix resultMatrix, LastKnownPrices lastKnownPrices){
+		this.resultMatrix = resultMatrix;
+		this.lastKnownPrices = lastKnownPrices;
+		cellCache = null; //The columns have changed.
 		currentPhase = Phase.SEARCHING;
 		fireTableStructureChanged();
 	}
 	
+	/**
+	 * Maps the rows to the card ids of the result matrix. The cards which are
+	 * not part of the search are mapped to -1.
+	 */
+	private void updateRowCardIds(){
+		int[] ids = new int[pricingSettings.getCards().size()];
+		int[] rows = new int[resultMatrix.getCardCount()];
+		Arrays.fill(rows, -1);
+		for (int row = 0; row < ids.length; row++){
+			ids[row] = resultMatrix.getCardId(getCardAt(row));
+			if (ids[row] >= 0)
+				rows[ids[row]] = row;
+		}
+		rowCardIds = ids;
+		cardIdRows = rows;
+	}
+	
+	/**
+	 * Returns the row index of a card in the result matrix of the search.
+	 * @param cardId the id of the card in the result matrix
+	 * @return the row index or -1 if the card is no longer in the table
+	 */
+	public int getRowOfCardId(int cardId){
+		validateLayout();
+		if (cardIdRows == null || cardId >= cardIdRows.length)
+			return -1;
+		return cardIdRows[cardId];
+	}
+	
 	@Override
 	public Object getValueAt(int row,int column){
 		
+		validateLayout();
 		Card card  = getCardAt(row);
 		
-		if (column == MtgPricerColumn.NAME.ordinal())
-			return new Cell(card.getName(), Cell.Type.STRING); 
-		else if (column == MtgPricerColumn.QUANTITY.ordinal())
-			return new Cell(pricingSettings.getQuantity(card) + "", Cell.Type.INTEGER);
+		if (column == MtgPricerColumn.NAME.ordinal()){
+			Cell cell = cellCache.get(row, column, card);
+			if (cell == null){
+				cell = Cell.forString(card.getName());
+				cellCache.put(row, column, card, cell);
+			}
+			return cell;
+		}
+		else if (column == MtgPricerColumn.QUANTITY.ordinal()){
+			Integer quantity = pricingSettings.getQuantity(card);
+			Cell cell = cellCache.get(row, column, quantity);
+			if (cell == null){
+				cell = Cell.forInteger(quantity);
+				cellCache.put(row, column, quantity, cell);
+			}
+			return cell;
+		}
 		else
-			if (currentPhase != Phase.SEARCHING && currentPhase != Phase.SEARCHING)
+			if (currentPhase != Phase.SEARCHING && currentPhase != Phase.PRICING_FINISHED)
 				throw new AssertionError();
 			else{
-				CardFinder cardFinder = cardFinders.get(column - 2);
-				CardResult result = resultsContainer.get(cardFinder).getCardResult(card);
+				int cardId = rowCardIds[row];
+				CardResult result = (cardId < 0) ? null : resultMatrix.get(cardId, column - 2);
 				
-				String val;
-				if (result == null) //This card is not processed yet so show just empty string.
-					return Cell.NOT_PROCESSED_CELL;
+				if (result == null) //This card is not processed yet so show the last known price or just empty string.
+					return getStaleCell(row, column, cardId);
 				else if (result == CardResult.NULL_CARD_RESULT) //The card was not found.
 					return Cell.NOT_FOUND_CELL;
 				else{
-					val = result.getPrice() + " " + result.getCurrency().getCurrencyCode();
-					return new Cell(val,Cell.Type.PRICE);
+					Cell cell = cellCache.get(row, column, result);
+					if (cell == null){
+						//Show the price converted to the display currency so the columns are comparable.
+						cell = Cell.forResult(result);
+						cellCache.put(row, column, result, cell);
+					}
+					return cell;
 				}
 			}
 	}
 
+	/**
+	 * Returns the stale price cell of a card which is not processed yet.
+	 * @return the cell or {@link Cell#NOT_PROCESSED_CELL} if the last price is not known
+	 */
+	private Cell getStaleCell(int row, int column, int cardId){
+		PriceCache.Entry entry = (lastKnownPrices == null || cardId < 0) ? null : lastKnownPrices.get(cardId, column - 2);
+		if (entry == null)
+			return Cell.NOT_PROCESSED_CELL;
+		Cell cell = cellCache.get(row, column, entry);
+		if (cell == null){
+			cell = Cell.forStalePrice(entry.getResult().getNormalizedPrice(), entry.getTimestamp());
+			cellCache.put(row, column, entry, cell);
+		}
+		return cell;
+	}
+
+	/**
+	 * Checks whether the table layout (rows and columns) has changed since the cells
+	 * were cached and if so, discards the cached cells and re-maps the rows to the result matrix.
+	 */
+	private void validateLayout(){
+		int rowCount = getRowCount();
+		int columnCount = getColumnCount();
+		if (cellCache != null && cellCacheModCount == pricingSettings.getModificationCount()
+				&& cellCache.hasSize(rowCount, columnCount))
+			return;
+		
+		if (resultMatrix != null)
+			updateRowCardIds();
+		cellCache = new CellCache(rowCount, columnCount);
+		cellCacheModCount = pricingSettings.getModificationCount();
+	}
 
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
@@ -138,7 +240,7 @@ public class MtgPricerTableModel extends AbstractTableModel {
 			return 2;
 		else if (currentPhase == Phase.SEARCHING ||
 				currentPhase == Phase.PRICING_FINISHED){
-			return 2 + cardFinders.size();
+			return 2 + resultMatrix.getFinderCount();
 		}
 		else;
 			throw new AssertionError();
@@ -155,18 +257,14 @@ public class MtgPricerTableModel extends AbstractTableModel {
 		MtgPricerColumn column = getColumnType(columnIndex);
 		
 		if (column == MtgPricerColumn.RESULT){
-			CardFinder cardFinder = cardFinders.get(columnIndex - 2);
+			CardFinder cardFinder = resultMatrix.getFinder(columnIndex - 2);
 			return cardFinder.getName();
 		}else
 			return column.getName();
 		
 	}
 	
-	/**
-	 * Returns the column type of a column at the specified index.
-	 * @param columnIndex the column index
-	 * @return the type of the column
-	 */
+	@Override
 	public MtgPricerColumn getColumnType(int columnIndex){
 		if (columnIndex < 2)
 			return MtgPricerColumn.values()[columnIndex];
@@ -174,6 +272,11 @@ public class MtgPricerTableModel extends AbstractTableModel {
 			return MtgPricerColumn.RESULT;
 	}
 	
+	@Override
+	public Cell getCellAt(int row, int column){
+		return (Cell) getValueAt(row, column);
+	}
+	
 	@Override
 	public void setValueAt(Object value, int rowIndex, int columnIndex){
 
@@ -9,17 +9,17 @@ import sk.lkce.mtgp.tablemodel.MtgPricerTableModel.MtgPricerColumn;
 /**
  * A generator of the simple text reports in various formats which
  * are based on the contents of the mtg pricer table. 
- * Used for export functionality.
+ * Used for export functionality and by the command line interface.
  */
 public class ReportCreator {
 
-	private MtgPricerTableModel tableModel;
+	private ResultTable tableModel;
 
 	/**
-	 * Constructs a report creator bound to the specified table model.
-	 * @param tableModel the table model containing the data
+	 * Constructs a report creator bound to the specified table.
+	 * @param tableModel the table containing the data, e.g. {@link MtgPricerTableModel}
 	 */
-	public ReportCreator(MtgPricerTableModel tableModel) {
+	public ReportCreator(ResultTable tableModel) {
 		this.tableModel = tableModel;
 	}
 
@@ -40,8 +40,8 @@ public class ReportCreator {
 		for (int column = 0; column < colCount; column++) {
 			int maxWidth = tableModel.getColumnName(column).length();
 			for (int row = 0; row < rowCount; row++) {
-				Cell val = (Cell) tableModel.getValueAt(row, column);
-				maxWidth = Math.max(maxWidth, val.getText().length());
+				Cell val = tableModel.getCellAt(row, column);
+				maxWidth = Math.max(maxWidth, val.getDisplayText().length());
 			}
 			columnWidths.put(column, maxWidth);
 		}
@@ -100,7 +100,8 @@ public class ReportCreator {
 
 	/**
 	 * Returns a string which contains the contents of the table model  - {@link MtgPricerTableModel}/{@link CardGrid}. 
-	 * The columns are separated by the specified separator.
+	 * The columns are separated by the specified separator. The values which contain the separator,
+	 * a quote or a line break are quoted as in RFC 4180 (see {@link #quoteCSV(String, String)}).
 	 * @param separator the separating character
 	 * @return the string representation of the table contents with columns separated by <code>separator</code>
 	 */
@@ -110,15 +111,15 @@ public class ReportCreator {
 
 		//Headers
 		for (int i = 0; i < tableModel.getColumnCount(); i++)
-			sb.append(tableModel.getColumnName(i) + separator);
+			sb.append(quoteCSV(tableModel.getColumnName(i), separator)).append(separator);
 
 		sb.append("\n");
 
 		//Body
 		for (int i = 0; i < tableModel.getRowCount(); i++) {
 			for (int j = 0; j < tableModel.getColumnCount(); j++) {
-				Cell cell  = (Cell) tableModel.getValueAt(i, j);
-				sb.append(cell.getText());
+				Cell cell  = tableModel.getCellAt(i, j);
+				sb.append(quoteCSV(cell.getDisplayText(), separator));
 				sb.append(separator);
 			}
 			sb.append("\n");
@@ -126,6 +127,76 @@ public class ReportCreator {
 		return sb.toString();
 	}
 
+	/**
+	 * Returns a JSON array with one object for each row of the table model. The members
+	 * of the objects are named by the column headers. The quantities are numbers, the prices
+	 * are the formatted prices in the display currency or <code>null</code> if the card was not found
+	 * (or was not searched for yet). The stale prices (not found by the search) are objects with
+	 * the formatted price and its age in seconds, e.g. <code>{"price": "4.41 EUR", "age": 10800}</code>.
+	 * @return the JSON representation of the table contents
+	 */
+	public String createJSONReport() {
+
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < tableModel.getRowCount(); i++) {
+			sb.append((i == 0) ? "\n" : ",\n").append("  {");
+			for (int j = 0; j < tableModel.getColumnCount(); j++) {
+				if (j > 0)
+					sb.append(", ");
+				sb.append(quoteJSON(tableModel.getColumnName(j))).append(": ");
+				Cell cell = tableModel.getCellAt(i, j);
+				if (cell == Cell.NOT_FOUND_CELL || cell == Cell.NOT_PROCESSED_CELL)
+					sb.append("null");
+				else if (cell.isStale())
+					sb.append("{\"price\": ").append(quoteJSON(cell.getText()))
+						.append(", \"age\": ").append(cell.getAge() / 1000).append("}");
+				else if (cell.getType() == Cell.Type.INTEGER)
+					sb.append(cell.getText());
+				else
+					sb.append(quoteJSON(cell.getText()));
+			}
+			sb.append("}");
+		}
+		sb.append("\n]\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a CSV field of a value. The value is enclosed in quotes, with its quotes doubled,
+	 * if it contains the separator, a quote or a line break, otherwise it is returned as it is.
+	 * @param s the value
+	 * @param separator the separator of the fields
+	 * @return the CSV field
+	 */
+	public static String quoteCSV(String s, String separator) {
+		if (!s.contains(separator) && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0)
+			return s;
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Returns a string as a quoted JSON string literal.
+	 * @param s the string
+	 * @return the JSON string literal
+	 */
+	public static String quoteJSON(String s) {
+		StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c == '\n')
+				sb.append("\\n");
+			else if (c == '\t')
+				sb.append("\\t");
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
 	/**
 	 * Returns a string for a given row and column index in the table model
 	 * which is padded either left or right based on the column type and with
@@ -136,8 +207,8 @@ public class ReportCreator {
 	 */
 	private String getPaddedValue(int row, int column, int width) {
 		MtgPricerColumn col = tableModel.getColumnType(column);
-		Cell val = (Cell) tableModel.getValueAt(row, column);
-		String res = val.getText();
+		Cell val = tableModel.getCellAt(row, column);
+		String res = val.getDisplayText();
 
 		if (col == MtgPricerColumn.QUANTITY || col == MtgPricerColumn.RESULT)
 			res = alignRight(res, width);
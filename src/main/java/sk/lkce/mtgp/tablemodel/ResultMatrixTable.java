@@ -0,0 +1,74 @@
+package sk.lkce.mtgp.tablemodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import sk.lkce.mtgp.cardsearch.ResultMatrix;
+import sk.lkce.mtgp.domain.Card;
+import sk.lkce.mtgp.domain.CardResult;
+import sk.lkce.mtgp.tablemodel.MtgPricerTableModel.MtgPricerColumn;
+
+/**
+ * A result table which reads the cells directly from the result matrix of a search.
+ * It does not need any user interface, so it is used to create the reports
+ * of the searches run without the GUI.
+ */
+public class ResultMatrixTable implements ResultTable {
+
+	private final ResultMatrix resultMatrix;
+	private final List<Card> cards;
+	private final List<Integer> quantities;
+
+	/**
+	 * Constructs a table of the results of a search.
+	 * @param resultMatrix the result matrix of the search
+	 * @param deck the cards and their quantities, the rows are in the iteration order of the map
+	 */
+	public ResultMatrixTable(ResultMatrix resultMatrix, Map<Card, Integer> deck) {
+		this.resultMatrix = resultMatrix;
+		cards = new ArrayList<>(deck.keySet());
+		quantities = new ArrayList<>(deck.values());
+	}
+
+	@Override
+	public int getRowCount() {
+		return cards.size();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return 2 + resultMatrix.getFinderCount();
+	}
+
+	@Override
+	public String getColumnName(int columnIndex) {
+		MtgPricerColumn column = getColumnType(columnIndex);
+		if (column == MtgPricerColumn.RESULT)
+			return resultMatrix.getFinder(columnIndex - 2).getName();
+		return column.getName();
+	}
+
+	@Override
+	public MtgPricerColumn getColumnType(int columnIndex) {
+		if (columnIndex < 2)
+			return MtgPricerColumn.values()[columnIndex];
+		return MtgPricerColumn.RESULT;
+	}
+
+	@Override
+	public Cell getCellAt(int row, int column) {
+		if (column == MtgPricerColumn.NAME.ordinal())
+			return Cell.forString(cards.get(row).getName());
+		if (column == MtgPricerColumn.QUANTITY.ordinal())
+			return Cell.forInteger(quantities.get(row));
+
+		int cardId = resultMatrix.getCardId(cards.get(row));
+		CardResult result = (cardId < 0) ? null : resultMatrix.get(cardId, column - 2);
+		if (result == null)
+			return Cell.NOT_PROCESSED_CELL;
+		else if (result == CardResult.NULL_CARD_RESULT)
+			return Cell.NOT_FOUND_CELL;
+		return Cell.forResult(result);
+	}
+}
@@ -0,0 +1,46 @@
+package sk.lkce.mtgp.tablemodel;
+
+import sk.lkce.mtgp.tablemodel.MtgPricerTableModel.MtgPricerColumn;
+
+/**
+ * A read-only view of the results of a pricing as a table of {@link Cell}s, independent
+ * of any user interface toolkit. The columns are laid out as in {@link MtgPricerTableModel}:
+ * the card name, the card quantity and one price column for each card finder.
+ * Used by {@link ReportCreator}.
+ */
+public interface ResultTable {
+
+	/**
+	 * Returns the number of the rows, one for each card.
+	 * @return the row count
+	 */
+	int getRowCount();
+
+	/**
+	 * Returns the number of the columns.
+	 * @return the column count
+	 */
+	int getColumnCount();
+
+	/**
+	 * Returns the header text of a column.
+	 * @param columnIndex the column index
+	 * @return the name of the column
+	 */
+	String getColumnName(int columnIndex);
+
+	/**
+	 * Returns the column type of a column at the specified index.
+	 * @param columnIndex the column index
+	 * @return the type of the column
+	 */
+	MtgPricerColumn getColumnType(int columnIndex);
+
+	/**
+	 * Returns the cell at a given row and column.
+	 * @param row the row index
+	 * @param column the column index
+	 * @return the cell
+	 */
+	Cell getCellAt(int row, int column);
+}
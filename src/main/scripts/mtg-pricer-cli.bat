@@ -0,0 +1 @@
+java -cp "%~dp0lib\*;%~dp0mtg-pricer.jar" sk.lkce.mtgp.cli.MtgPricerCli %*